@@ -16,9 +16,13 @@ let currentState = {
   selectedReaderIndex: -1,
   isListening: false,
   lastUID: null,
+  lastUIDType: null,
+  lastFormats: null,
+  lastNdef: null,
   error: null,
   notInstalled: false,
   uidFormat: "spaced",
+  readNdef: false,
   nativeHostVersion: null,
   versionMismatch: false,
 };
@@ -27,18 +31,31 @@ let currentState = {
  * Load saved preferences from storage
  */
 function loadPreferences() {
-  chrome.storage.local.get(["selectedReaderIndex", "uidFormat"], (result) => {
+  chrome.storage.local.get(["selectedReaderIndex", "uidFormat", "readNdef"], (result) => {
     if (result.selectedReaderIndex !== undefined) {
       currentState.selectedReaderIndex = result.selectedReaderIndex;
     }
     if (result.uidFormat) {
       currentState.uidFormat = result.uidFormat;
     }
+    // Reading the tag's memory is opt-in; by default only the UID is read
+    currentState.readNdef = result.readNdef === true;
     // Check if we can auto-start now that preferences are loaded
     checkAutoStart();
   });
 }
 
+/**
+ * Asks the host to listen on a reader, with the tag's NDEF message only if the user opted in
+ */
+function sendStartListening(readerIndex) {
+  nativeMessaging.sendMessage({
+    action: "start-listening",
+    readerIndex: readerIndex,
+    readNdef: currentState.readNdef,
+  });
+}
+
 /**
  * Checks if listening should be auto-started based on available readers and preferences
  */
@@ -65,20 +82,14 @@ function checkAutoStart() {
       currentState.selectedReaderIndex
     );
     currentState.isListening = true;
-    nativeMessaging.sendMessage({
-      action: "start-listening",
-      readerIndex: currentState.selectedReaderIndex,
-    });
+    sendStartListening(currentState.selectedReaderIndex);
   }
   // Auto-start listening when exactly one reader is detected (and no specific selection or selection is invalid)
   else if (currentState.readers.length === 1) {
     console.log("Single reader detected, auto-starting listening");
     currentState.selectedReaderIndex = 0;
     currentState.isListening = true;
-    nativeMessaging.sendMessage({
-      action: "start-listening",
-      readerIndex: 0,
-    });
+    sendStartListening(0);
   }
 }
 
@@ -129,6 +140,10 @@ nativeMessaging.on("connected", () => {
   // Request reader list on connection
   nativeMessaging.sendMessage({ action: "list-readers" });
 
+  // Have the host report readers being plugged in or out; it only watches
+  // for them while someone asks
+  nativeMessaging.sendMessage({ action: "watch-readers" });
+
   broadcastStateUpdate();
 });
 
@@ -160,9 +175,7 @@ nativeMessaging.on("error", (data) => {
   currentState.error = data.error;
   currentState.notInstalled = data.notInstalled || false;
 
-  // Store previous listening state for auto-restart
   const wasListening = currentState.isListening;
-  const previousReaderIndex = currentState.selectedReaderIndex;
 
   currentState.isListening = false;
 
@@ -173,39 +186,23 @@ nativeMessaging.on("error", (data) => {
 
   broadcastStateUpdate();
 
-  // If reader disconnected during listening with single reader, try to restart when available
-  if (
-    wasListening &&
-    currentState.readers.length === 1 &&
-    !currentState.notInstalled
-  ) {
-    console.log(
-      "Reader disconnected during listening, will auto-restart when available"
-    );
-    // Poll for reader reconnection
-    const pollInterval = setInterval(() => {
-      nativeMessaging.sendMessage({ action: "list-readers" });
+  // One fresh list restarts listening if the reader is still there; a reader
+  // that was unplugged is reported by readers-changed once it is back
+  if (wasListening && !currentState.notInstalled) {
+    nativeMessaging.sendMessage({ action: "list-readers" });
+  }
+});
 
-      // Check if reader is back after a short delay
-      setTimeout(() => {
-        if (currentState.readers.length === 1 && !currentState.isListening) {
-          console.log("Reader reconnected, restarting listening");
-          currentState.selectedReaderIndex = 0;
-          currentState.isListening = true;
-          lastError = null; // Clear error tracking
-          errorCount = 0;
-          nativeMessaging.sendMessage({
-            action: "start-listening",
-            readerIndex: 0,
-          });
-          clearInterval(pollInterval);
-        }
-      }, 200);
-    }, 2000);
-
-    // Stop polling after 30 seconds
-    setTimeout(() => clearInterval(pollInterval), 30000);
+// Pushed by the host when readers are plugged in or out
+nativeMessaging.on("readers-changed", (data) => {
+  console.log("Readers changed. Added:", data.added, "Removed:", data.removed);
+  if (data.added.length > 0) {
+    // A reconnected reader starts a fresh error sequence
+    lastError = null;
+    errorCount = 0;
   }
+  updateReaders(data.readers);
+  broadcastStateUpdate();
 });
 
 nativeMessaging.on("response", (response) => {
@@ -214,8 +211,27 @@ nativeMessaging.on("response", (response) => {
 });
 
 nativeMessaging.on("card-detected", (data) => {
-  console.log("Card detected:", data.uid);
+  handleCardsDetected([data]);
+});
+
+// Cards of several readers tapped within the host's coalescing window, in tap order
+nativeMessaging.on("cards-detected", (data) => {
+  handleCardsDetected(data.cards);
+});
+
+/**
+ * Records the detected cards and fills the last one's UID into the active tab,
+ * which is where filling them one by one would have ended up
+ */
+function handleCardsDetected(cards) {
+  if (!cards || cards.length === 0) return;
+  cards.forEach((card) => console.log("Card detected:", card.uid, "on", card.readerName));
+  const data = cards[cards.length - 1];
   currentState.lastUID = data.uid;
+  currentState.lastUIDType = data.uidType;
+  // Formatted by the host; older hosts only send the plain UID
+  currentState.lastFormats = data.formats || null;
+  currentState.lastNdef = null;
 
   // Send UID to active tab's content script with format
   chrome.tabs.query({ active: true, currentWindow: true }, (tabs) => {
@@ -226,6 +242,7 @@ nativeMessaging.on("card-detected", (data) => {
           uid: data.uid,
           uidType: data.uidType,
           format: currentState.uidFormat,
+          formatted: data.formats && data.formats[currentState.uidFormat],
         })
         .catch((err) => {
           console.log("Could not send UID to content script:", err);
@@ -234,6 +251,29 @@ nativeMessaging.on("card-detected", (data) => {
   });
 
   broadcastStateUpdate();
+}
+
+// NDEF message chunks of the tag being read, keyed by reader
+const pendingNdef = new Map();
+
+nativeMessaging.on("ndef", (data) => {
+  const chunks = data.offset === 0 ? [] : pendingNdef.get(data.readerIndex) || [];
+  chunks.push(data.data);
+  if (!data.last) {
+    pendingNdef.set(data.readerIndex, chunks);
+    return;
+  }
+  pendingNdef.delete(data.readerIndex);
+  currentState.lastNdef = { uid: data.uid, length: data.length, data: chunks.join("") };
+  console.log("NDEF message read:", data.length, "bytes");
+  broadcastStateUpdate();
+});
+
+// The tag's UID was filled in, but its NDEF message could not be read (e.g. the
+// tag left the field); unlike "error" this leaves the listening session alone
+nativeMessaging.on("ndef-error", (data) => {
+  console.log("Could not read NDEF message:", data.error);
+  pendingNdef.delete(data.readerIndex);
 });
 
 /**
@@ -257,22 +297,7 @@ function handleNativeResponse(response) {
 
   if (response.success) {
     if (response.readers) {
-      currentState.readers = response.readers;
-
-      // Check if we should auto-start listening
-      checkAutoStart();
-
-      // Stop listening when no readers available
-      if (currentState.readers.length === 0 && currentState.isListening) {
-        console.log("No readers detected, stopping listening");
-        currentState.isListening = false;
-        nativeMessaging.sendMessage({ action: "stop-listening" });
-      }
-
-      // Clear error when we successfully get reader list
-      if (currentState.readers.length > 0) {
-        currentState.error = null;
-      }
+      updateReaders(response.readers);
     }
     if (response.message) {
       console.log(response.message);
@@ -285,6 +310,28 @@ function handleNativeResponse(response) {
   broadcastStateUpdate();
 }
 
+/**
+ * Takes over a new reader list from list-readers or readers-changed
+ */
+function updateReaders(readers) {
+  currentState.readers = readers;
+
+  // Check if we should auto-start listening
+  checkAutoStart();
+
+  // Stop listening when no readers available
+  if (currentState.readers.length === 0 && currentState.isListening) {
+    console.log("No readers detected, stopping listening");
+    currentState.isListening = false;
+    nativeMessaging.sendMessage({ action: "stop-listening" });
+  }
+
+  // Clear error when we successfully get reader list
+  if (currentState.readers.length > 0) {
+    currentState.error = null;
+  }
+}
+
 /**
  * Broadcasts state updates to popup
  */
@@ -331,10 +378,7 @@ chrome.runtime.onMessage.addListener((message, sender, sendResponse) => {
           selectedReaderIndex: message.readerIndex,
         });
 
-        nativeMessaging.sendMessage({
-          action: "start-listening",
-          readerIndex: message.readerIndex,
-        });
+        sendStartListening(message.readerIndex);
       }
       sendResponse({ success: true });
       break;
@@ -345,6 +389,20 @@ chrome.runtime.onMessage.addListener((message, sender, sendResponse) => {
       sendResponse({ success: true });
       break;
 
+    case "set-read-ndef":
+      currentState.readNdef = message.readNdef === true;
+      chrome.storage.local.set({ readNdef: currentState.readNdef });
+      if (!currentState.readNdef) {
+        currentState.lastNdef = null;
+      }
+      // Applies to the running session from the next tap on
+      if (currentState.isListening) {
+        sendStartListening(currentState.selectedReaderIndex);
+      }
+      broadcastStateUpdate();
+      sendResponse({ success: true });
+      break;
+
     case "set-format":
       if (message.format) {
         currentState.uidFormat = message.format;
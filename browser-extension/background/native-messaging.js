@@ -13,6 +13,8 @@ class NativeMessaging {
     this.reconnectAttempts = 0;
     this.maxReconnectAttempts = 3;
     this.hostNotInstalled = false;
+    this.nextRequestId = 1;
+    this.pendingRequests = new Map();
   }
 
   /**
@@ -81,11 +83,15 @@ class NativeMessaging {
       this.port = null;
     }
     this.isConnected = false;
+    this.failPendingRequests("Disconnected");
     this.emit("disconnected");
   }
 
   /**
-   * Sends a message to the native host
+   * Sends a message to the native host.
+   * Each message gets a request id, which the host echoes in its response;
+   * the host may answer out of order, so several requests can be in flight.
+   * @returns {Promise<object>} Resolves with the matching response
    */
   sendMessage(message) {
     if (!this.isConnected || !this.port) {
@@ -95,15 +101,31 @@ class NativeMessaging {
           "Not connected to native host. Please install the native host application.",
         notInstalled: this.hostNotInstalled,
       });
-      return;
+      return Promise.resolve({ success: false, error: "Not connected" });
     }
 
+    const id = this.nextRequestId++;
+    const response = new Promise((resolve) => {
+      this.pendingRequests.set(id, resolve);
+    });
+
     try {
-      this.port.postMessage(message);
+      this.port.postMessage({ ...message, id });
     } catch (error) {
       console.error("Error sending message to native host:", error);
+      this.pendingRequests.delete(id);
       this.emit("error", { error: "Error communicating with native host" });
+      return Promise.resolve({ success: false, error: "Send failed" });
     }
+    return response;
+  }
+
+  /**
+   * Settles all requests still waiting for a response
+   */
+  failPendingRequests(error) {
+    this.pendingRequests.forEach((resolve) => resolve({ success: false, error }));
+    this.pendingRequests.clear();
   }
 
   /**
@@ -117,6 +139,11 @@ class NativeMessaging {
       this.emit(message.event, message);
     } else {
       // Response to a command
+      const resolve = this.pendingRequests.get(message.id);
+      if (resolve) {
+        this.pendingRequests.delete(message.id);
+        resolve(message);
+      }
       this.emit("response", message);
     }
   }
@@ -155,6 +182,7 @@ class NativeMessaging {
 
     this.isConnected = false;
     this.port = null;
+    this.failPendingRequests("Disconnected");
     this.emit("disconnected");
 
     // Only attempt to reconnect if host is installed but connection failed
@@ -6,7 +6,12 @@
 // Listen for messages from background script
 chrome.runtime.onMessage.addListener((message, sender, sendResponse) => {
   if (message.action === "fill-uid") {
-    fillUID(message.uid, message.uidType, message.format || "plain");
+    fillUID(
+      message.uid,
+      message.uidType,
+      message.format || "plain",
+      message.formatted
+    );
     sendResponse({ success: true });
   }
   return true;
@@ -14,12 +19,14 @@ chrome.runtime.onMessage.addListener((message, sender, sendResponse) => {
 
 /**
  * Fills the currently focused input field with the UID
+ * The host sends the UID already formatted; formatting here is only the
+ * fallback for hosts that do not.
  */
-function fillUID(uid, uidType, format) {
+function fillUID(uid, uidType, format, formatted) {
   const activeElement = document.activeElement;
 
   // Format the UID according to user preference
-  const formattedUID = formatUID(uid, format);
+  const formattedUID = formatted || formatUID(uid, format);
 
   // Check if the active element is an input field
   if (
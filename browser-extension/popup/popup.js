@@ -8,8 +8,12 @@ let currentState = {
   selectedReaderIndex: -1,
   isListening: false,
   lastUID: null,
+  lastUIDType: null,
+  lastFormats: null,
+  lastNdef: null,
   error: null,
   uidFormat: "spaced",
+  readNdef: false,
   nativeHostVersion: null,
   versionMismatch: false,
 };
@@ -30,6 +34,8 @@ const uidSection = document.getElementById("uidSection");
 const uidValue = document.getElementById("uidValue");
 const uidType = document.getElementById("uidType");
 const formatSelect = document.getElementById("formatSelect");
+const ndefCheckbox = document.getElementById("ndefCheckbox");
+const ndefInfo = document.getElementById("ndefInfo");
 
 /**
  * Initialize popup
@@ -99,6 +105,14 @@ function setupEventListeners() {
     }
   });
 
+  // NDEF reading is opt-in
+  ndefCheckbox.addEventListener("change", () => {
+    chrome.runtime.sendMessage({
+      action: "set-read-ndef",
+      readNdef: ndefCheckbox.checked,
+    });
+  });
+
   // Format selection change
   formatSelect.addEventListener("change", () => {
     currentState.uidFormat = formatSelect.value;
@@ -194,10 +208,13 @@ function updateState(state) {
     toggleBtn.style.display = "";
   }
 
+  ndefCheckbox.checked = state.readNdef === true;
+
   // Update UID display
   if (state.lastUID) {
     showUID(state.lastUID);
   }
+  showNdef(state.lastNdef);
 }
 
 /**
@@ -306,7 +323,17 @@ function hideVersionWarning() {
  * Shows the UID display
  */
 function showUID(uid) {
-  uidValue.textContent = formatUID(uid, currentState.uidFormat);
+  // Prefer the formats precomputed by the host
+  const formats = currentState.lastFormats;
+  uidValue.textContent =
+    (formats && formats[currentState.uidFormat]) ||
+    formatUID(uid, currentState.uidFormat);
+
+  if (currentState.lastUIDType) {
+    uidType.textContent = currentState.lastUIDType;
+    uidSection.style.display = "block";
+    return;
+  }
 
   // Determine UID type
   const byteLength = uid.length / 2;
@@ -329,6 +356,21 @@ function showUID(uid) {
   uidSection.style.display = "block";
 }
 
+/**
+ * Shows the NDEF message of the last tag, when NDEF reading is on
+ */
+function showNdef(ndef) {
+  if (!ndef || ndef.uid !== currentState.lastUID) {
+    ndefInfo.style.display = "none";
+    return;
+  }
+  ndefInfo.textContent =
+    ndef.length > 0
+      ? `NDEF message (${ndef.length} bytes): ${ndef.data}`
+      : "Empty NDEF message";
+  ndefInfo.style.display = "block";
+}
+
 /**
  * Starts listening for NFC cards
  */
@@ -19,6 +19,22 @@ echo ""
 echo "[1/5] Building with Maven..."
 mvn clean package
 
+# AppCDS needs JDK 19+ for the bundled runtime (AutoCreateSharedArchive);
+# the installer creates the archive next to the jar
+JAVA_MAJOR=$(java -XshowSettings:properties -version 2>&1 | awk '/java.specification.version/ {print $3}')
+JLINK_CDS=()
+JAVA_OPTIONS=()
+if [ "${JAVA_MAJOR%%.*}" -ge 19 ] 2>/dev/null; then
+    JLINK_CDS=(--generate-cds-archive)
+    JAVA_OPTIONS=(
+        --java-options '-XX:SharedArchiveFile=$APPDIR/nfc-reader-host.jsa'
+        --java-options '-XX:+AutoCreateSharedArchive'
+        --java-options '-XX:TieredStopAtLevel=1'
+        --java-options '-Xlog:disable'
+        --java-options '-Xlog:all=warning:stderr'
+    )
+fi
+
 # Step 2: Create custom JRE
 echo ""
 echo "[2/5] Creating custom JRE..."
@@ -30,6 +46,7 @@ jlink \
     --no-header-files \
     --compress=zip-6 \
     --strip-java-debug-attributes \
+    "${JLINK_CDS[@]}" \
     --output target/custom-jre
 
 # Step 3: Create jpackage app-image
@@ -47,6 +64,7 @@ jpackage \
     --main-class info.nfcreader.host.Main \
     --type app-image \
     --runtime-image target/custom-jre \
+    "${JAVA_OPTIONS[@]}" \
     --dest target/jpackage
 
 # Step 4: Check for ImageMagick and create application icon
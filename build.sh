@@ -57,6 +57,25 @@ case "$PLATFORM" in
     *)       LIB_EXT="so";;
 esac
 
+# AppCDS needs JDK 19+ for the bundled runtime (AutoCreateSharedArchive)
+JAVA_MAJOR=$(java -XshowSettings:properties -version 2>&1 | awk '/java.specification.version/ {print $3}')
+JLINK_CDS=()
+JAVA_OPTIONS=()
+if [ "${JAVA_MAJOR%%.*}" -ge 19 ] 2>/dev/null; then
+  # Base CDS archive for the custom JRE; the app archive is layered on top of it
+  JLINK_CDS=(--generate-cds-archive)
+  # The launcher uses the app archive next to the jar and creates it if missing
+  JAVA_OPTIONS=(
+    --java-options '-XX:SharedArchiveFile=$APPDIR/nfc-reader-host.jsa'
+    --java-options '-XX:+AutoCreateSharedArchive'
+    --java-options '-XX:TieredStopAtLevel=1'
+    --java-options '-Xlog:disable'
+    --java-options '-Xlog:all=warning:stderr'
+  )
+else
+  echo "Java $JAVA_MAJOR: skipping the AppCDS archive (needs 19+)"
+fi
+
 # Create custom JRE with only needed modules
 jlink \
   --add-modules "$MODULES" \
@@ -65,6 +84,7 @@ jlink \
   --no-header-files \
   --compress=zip-6 \
   --strip-java-debug-attributes \
+  "${JLINK_CDS[@]}" \
   --output target/custom-jre
 
 echo "Custom JRE size: $(du -sh target/custom-jre | cut -f1)"
@@ -84,8 +104,20 @@ jpackage \
   --main-class info.nfcreader.host.Main \
   --type app-image \
   --runtime-image target/custom-jre \
+  "${JAVA_OPTIONS[@]}" \
   --dest target/jpackage
 
+if [ ${#JAVA_OPTIONS[@]} -gt 0 ]; then
+  echo ""
+  echo "Creating the AppCDS archive with the training workload..."
+  case "$PLATFORM" in
+    macos)   TRAIN="target/jpackage/nfc-reader-host.app/Contents/MacOS/nfc-reader-host";;
+    windows) TRAIN="target/jpackage/nfc-reader-host/nfc-reader-host.exe";;
+    *)       TRAIN="target/jpackage/nfc-reader-host/bin/nfc-reader-host";;
+  esac
+  "$TRAIN" train > /dev/null
+fi
+
 echo ""
 echo "==============================================="
 echo "Build Complete!"
@@ -0,0 +1,28 @@
+package info.nfcreader.host;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the host benchmarks with the GC profiler attached, so every result
+ * reports allocation rate (gc.alloc.rate.norm = bytes per operation) next to throughput.
+ * Accepts the regular JMH command line, e.g. a benchmark name filter.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder()
+            .parent(commandLine)
+            .addProfiler(GCProfiler.class);
+
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include("info\\.nfcreader\\.host\\..*Benchmark");
+        }
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,75 @@
+package info.nfcreader.host;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.CardException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+
+/**
+ * Per-tap work after the APDU returns: packing the UID, producing its output
+ * formats, and serializing the card-detected event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardEventBenchmark {
+
+    /** Single, double and triple size UIDs. */
+    @Param({ "4", "7", "10" })
+    public int uidLength;
+
+    private byte[] uidBytes;
+    private Uid uid;
+    private CommandHandler handler;
+    private CardReader reader;
+
+    @Setup
+    public void setUp() throws CardException {
+        uidBytes = new byte[uidLength];
+        for (int i = 0; i < uidLength; i++) {
+            uidBytes[i] = (byte) (0x04 + i * 0x11);
+        }
+        uid = Uid.of(uidBytes);
+
+        ReaderManager readerManager = new ReaderManager(new VirtualPcsc(1).terminalFactory());
+        handler = new CommandHandler(readerManager);
+        reader = new CardReader(readerManager, 0);
+    }
+
+    @Benchmark
+    public Uid uidOf() {
+        return Uid.of(uidBytes);
+    }
+
+    @Benchmark
+    public String toHex() {
+        return uid.toHex();
+    }
+
+    @Benchmark
+    public Map<String, String> formats() {
+        return uid.formats();
+    }
+
+    @Benchmark
+    public String cardDetectedEvent() {
+        return handler.createCardDetectedEvent(reader, uid);
+    }
+}
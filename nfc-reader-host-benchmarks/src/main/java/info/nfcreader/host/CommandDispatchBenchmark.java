@@ -0,0 +1,54 @@
+package info.nfcreader.host;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+
+/**
+ * CommandHandler.handleCommand dispatch for each action, against two virtual readers.
+ * start-listening is left out: every call starts monitor and listener threads,
+ * which a throughput loop would pile up faster than they exit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandDispatchBenchmark {
+
+    @Param({ "get-version", "list-readers", "get-status", "stop-listening", "unknown" })
+    public String action;
+
+    private CommandHandler handler;
+    private String command;
+
+    @Setup
+    public void setUp() {
+        handler = new CommandHandler(new ReaderManager(new VirtualPcsc(2).terminalFactory()));
+        command = "{\"action\":\"" + action + "\"}";
+    }
+
+    @TearDown
+    public void tearDown() {
+        handler.cleanup();
+    }
+
+    @Benchmark
+    public String handleCommand() {
+        return handler.handleCommand(command);
+    }
+}
@@ -0,0 +1,66 @@
+package info.nfcreader.host;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Publishing card events to a number of subscribers. With blocking
+ * subscribers the rate includes waiting for the slowest one to free a slot,
+ * so it is the sustained fan-out rate, not only the cost of the publish call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventBusBenchmark {
+
+    @Param({ "1", "4" })
+    public int subscribers;
+
+    @Param({ "BLOCK", "DROP_OLDEST" })
+    public EventBus.Overflow overflow;
+
+    private EventBus bus;
+    private final List<EventBus.Subscription> subscriptions = new ArrayList<>();
+    private EventBus.Event event;
+
+    @Setup
+    public void setUp(Blackhole blackhole) {
+        bus = new EventBus();
+        for (int i = 0; i < subscribers; i++) {
+            subscriptions.add(bus.subscribe("benchmark-" + i, overflow, blackhole::consume));
+        }
+        event = new EventBus.Event("card-detected", "Virtual Reader 0", Uid.of(new byte[] { 0x04, 0x11, 0x22, 0x33 }),
+            "{\"event\":\"card-detected\",\"uid\":\"04112233\"}", false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (EventBus.Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+        subscriptions.clear();
+    }
+
+    @Benchmark
+    public void publish() {
+        bus.publish(event);
+    }
+}
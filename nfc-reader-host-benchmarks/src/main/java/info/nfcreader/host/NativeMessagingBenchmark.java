@@ -0,0 +1,106 @@
+package info.nfcreader.host;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Native messaging framing: reading a length-prefixed message from stdin
+ * and writing one to stdout, through the codec and through the writer thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NativeMessagingBenchmark {
+
+    /** Typical command, a card event, and a padded 4 KiB message. */
+    @Param({ "command", "event", "4k" })
+    public String payload;
+
+    private static final int BURST = 16;
+
+    private MessageCodec codec;
+    private String message;
+    private ByteArrayInputStream framed;
+
+    @Setup
+    public void setUp() {
+        NativeMessagingHost.setOutputStream(OutputStream.nullOutputStream());
+
+        switch (payload) {
+            case "command":
+                message = "{\"action\":\"start-listening\",\"readerIndex\":0}";
+                break;
+            case "event":
+                message = "{\"event\":\"card-detected\",\"uid\":\"04A1B2C3D4E5F6\","
+                    + "\"uidType\":\"Double size UID (7 bytes)\",\"readerIndex\":0,"
+                    + "\"readerName\":\"ACS ACR122U PICC Interface 00 00\"}";
+                break;
+            default:
+                StringBuilder sb = new StringBuilder("{\"action\":\"get-status\",\"padding\":\"");
+                while (sb.length() < 4094) {
+                    sb.append('x');
+                }
+                message = sb.append("\"}").toString();
+        }
+
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + body.length).order(ByteOrder.nativeOrder());
+        frame.putInt(body.length).put(body);
+        framed = new ByteArrayInputStream(frame.array());
+        codec = new MessageCodec(Channels.newChannel(framed), OutputStream.nullOutputStream());
+    }
+
+    @TearDown
+    public void tearDown() {
+        NativeMessagingHost.setOutputStream(System.out);
+    }
+
+    @Benchmark
+    public JsonObject readMessage() throws IOException {
+        framed.reset();
+        return codec.readMessage();
+    }
+
+    @Benchmark
+    public void writeMessage() throws IOException {
+        codec.writeMessage(message);
+    }
+
+    /**
+     * Queues a burst through the writer thread and waits for it to be
+     * written, so the score includes the coalesced writes.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void sendMessage() {
+        for (int i = 0; i < BURST; i++) {
+            NativeMessagingHost.sendMessage(message);
+        }
+        NativeMessagingHost.drainOutput();
+    }
+}
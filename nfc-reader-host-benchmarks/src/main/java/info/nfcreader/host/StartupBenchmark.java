@@ -0,0 +1,144 @@
+package info.nfcreader.host;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cold start as the browser sees it: time from spawning the host process
+ * to the first get-version response on its stdout.
+ *
+ * By default the host runs from this jar on the current JVM, once serving
+ * the browser in-process and once as a forwarder to a running host daemon,
+ * which is what a browser reconnecting sees. To measure the native
+ * executable or the shipped jar, pass the command line, e.g.
+ * -p command=../nfc-reader-host/target/nfc-reader-host
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class StartupBenchmark {
+
+    /** Command line starting the host, split at spaces; empty for this JVM and jar. */
+    @Param({ "" })
+    public String command;
+
+    /** in-process or daemon; only applies to the default command. */
+    @Param({ "in-process", "daemon" })
+    public String mode;
+
+    private static final byte[] GET_VERSION = frame("{\"action\":\"get-version\"}");
+
+    private List<String> commandLine;
+    private Process process;
+    private Process daemon;
+    private Path socket;
+
+    @Setup
+    public void setUp() throws Exception {
+        if (command.trim().isEmpty()) {
+            String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+            String jar = new File(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+            if (mode.equals("daemon")) {
+                socket = Files.createTempDirectory("nfc-startup").resolve("daemon.sock");
+                daemon = new ProcessBuilder(java, "-cp", jar, Main.class.getName(), "daemon", socket.toString())
+                    .redirectError(ProcessBuilder.Redirect.DISCARD)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+                awaitSocket();
+                commandLine = Arrays.asList(java, "-D" + HostDaemon.SOCKET_PROPERTY + "=" + socket,
+                    "-cp", jar, Main.class.getName());
+            } else {
+                commandLine = Arrays.asList(java, "-Dnfcreader.daemon=false", "-cp", jar, Main.class.getName());
+            }
+        } else {
+            commandLine = new ArrayList<>(Arrays.asList(command.trim().split(" +")));
+        }
+    }
+
+    @Benchmark
+    public String firstResponse() throws IOException {
+        // No arguments: the host starts in native messaging mode, as when spawned by the browser
+        process = new ProcessBuilder(commandLine)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+        OutputStream stdin = process.getOutputStream();
+        stdin.write(GET_VERSION);
+        stdin.flush();
+        return readFrame(process.getInputStream());
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopHost() throws InterruptedException {
+        if (process != null) {
+            process.destroyForcibly();
+            process.waitFor();
+            process = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopDaemon() throws Exception {
+        if (daemon != null) {
+            daemon.destroy();
+            daemon.waitFor();
+            Files.deleteIfExists(socket);
+            Files.deleteIfExists(Paths.get(socket + ".lock"));
+            Files.deleteIfExists(socket.getParent());
+        }
+    }
+
+    private void awaitSocket() throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!Files.exists(socket)) {
+            if (System.currentTimeMillis() > deadline || !daemon.isAlive()) {
+                throw new IllegalStateException("Host daemon did not start");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static byte[] frame(String message) {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + body.length).order(ByteOrder.nativeOrder())
+            .putInt(body.length).put(body).array();
+    }
+
+    private static String readFrame(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] header = new byte[4];
+        data.readFully(header);
+        byte[] body = new byte[ByteBuffer.wrap(header).order(ByteOrder.nativeOrder()).getInt()];
+        data.readFully(body);
+        return new String(body, StandardCharsets.UTF_8);
+    }
+}
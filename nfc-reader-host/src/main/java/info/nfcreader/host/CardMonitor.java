@@ -0,0 +1,192 @@
+package info.nfcreader.host;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+/**
+ * Event-driven card monitor for all connected terminals.
+ * The reader manager's {@link CardWatcher} blocks on
+ * {@link CardTerminals#waitForChange(long)} and turns the CARD_INSERTION /
+ * CARD_REMOVAL state lists into callbacks on every started monitor, so
+ * listening costs no CPU while idle and reacts to taps without polling.
+ *
+ * Lifecycle: NEW -> RUNNING -> STOPPED, and back to RUNNING if started again.
+ * Since a monitor does not own the waiting thread, both transitions take
+ * effect immediately, even while a PC/SC wait is in progress.
+ */
+public class CardMonitor {
+
+    /**
+     * Upper bound for a single blocking wait. PC/SC waits cannot be interrupted,
+     * so the watcher wakes up this often to check whether it is still needed.
+     */
+    static final long WAIT_SLICE_MS = 1000;
+
+    /**
+     * Lifecycle states of a monitor.
+     */
+    public enum State { NEW, RUNNING, STOPPED }
+
+    /**
+     * Receives card events from the monitor thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called when a card is placed on a watched terminal.
+         * Also called once on start for cards that are already present.
+         */
+        void cardInserted(CardTerminal terminal);
+
+        /**
+         * Called when a card is removed from a watched terminal.
+         */
+        void cardRemoved(CardTerminal terminal);
+
+        /**
+         * Called when waiting for changes failed.
+         * The monitor keeps running until it is stopped.
+         */
+        void monitorError(Exception e);
+    }
+
+    private final ReaderManager readerManager;
+    // Replaced as a whole by setReaderNames(); null watches all terminals
+    private volatile Set<String> readerNames;
+    private final Listener listener;
+    private volatile State state = State.NEW;
+
+    // Readers whose card was reported as inserted and not yet removed;
+    // keeps the start-up presence check and the watcher from reporting a card twice
+    private final Set<String> present = new HashSet<>();
+
+    /**
+     * @param readerManager Reader manager whose watcher delivers the events
+     * @param readerNames   Names of the terminals to watch, or null for all
+     * @param listener      Receiver of card events
+     */
+    public CardMonitor(ReaderManager readerManager, Collection<String> readerNames, Listener listener) {
+        this.readerManager = readerManager;
+        this.readerNames = readerNames != null ? new HashSet<>(readerNames) : null;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts delivering events. Cards already on a watched reader are
+     * reported before this returns, and no insertion after that is missed.
+     */
+    public void start() {
+        synchronized (this) {
+            if (state == State.RUNNING) {
+                return;
+            }
+            state = State.RUNNING;
+            present.clear();
+        }
+        readerManager.getCardWatcher().subscribe(this);
+        reportPresentCards(null);
+    }
+
+    /**
+     * Changes the watched terminals while running. Only the cards on the
+     * added terminals are reported as present; the cards on the terminals
+     * still watched are not reported again.
+     * @param names Names of the terminals to watch
+     */
+    public void setReaderNames(Collection<String> names) {
+        Set<String> added = new HashSet<>(names);
+        synchronized (this) {
+            if (readerNames == null) {
+                added.clear();
+            } else {
+                added.removeAll(readerNames);
+            }
+            readerNames = new HashSet<>(names);
+            present.retainAll(readerNames);
+            if (state != State.RUNNING || added.isEmpty()) {
+                return;
+            }
+        }
+        reportPresentCards(added);
+    }
+
+    /**
+     * Stops the monitor. Returns without waiting for PC/SC; no events are
+     * delivered after this returns.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (state != State.RUNNING) {
+                return;
+            }
+            state = State.STOPPED;
+        }
+        readerManager.getCardWatcher().unsubscribe(this);
+    }
+
+    /**
+     * @return true if the monitor has been started and not stopped
+     */
+    public boolean isRunning() {
+        return state == State.RUNNING;
+    }
+
+    /**
+     * @return Current lifecycle state
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @param only Names of the terminals to check, or null for all watched ones
+     */
+    private void reportPresentCards(Set<String> only) {
+        try {
+            TerminalRegistry.Snapshot readers = readerManager.getReaderSnapshot();
+            for (int i = 0; i < readers.size(); i++) {
+                CardTerminal terminal = readers.get(i);
+                if ((only == null || only.contains(terminal.getName())) && watches(terminal)
+                        && terminal.isCardPresent()) {
+                    deliver(terminal, true);
+                }
+            }
+        } catch (CardException e) {
+            deliverError(e);
+        }
+    }
+
+    private boolean watches(CardTerminal terminal) {
+        Set<String> names = readerNames;
+        return names == null || names.contains(terminal.getName());
+    }
+
+    /**
+     * Called by the watcher for each changed terminal. Synchronized with
+     * {@link #stop()}, which therefore waits for a callback in progress.
+     */
+    synchronized void deliver(CardTerminal terminal, boolean inserted) {
+        if (state != State.RUNNING || !watches(terminal)) {
+            return;
+        }
+        if (inserted) {
+            if (present.add(terminal.getName())) {
+                listener.cardInserted(terminal);
+            }
+        } else {
+            present.remove(terminal.getName());
+            listener.cardRemoved(terminal);
+        }
+    }
+
+    synchronized void deliverError(Exception e) {
+        if (state == State.RUNNING) {
+            listener.monitorError(e);
+        }
+    }
+}
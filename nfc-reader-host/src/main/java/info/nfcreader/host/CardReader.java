@@ -1,7 +1,5 @@
 package info.nfcreader.host;
 
-import javax.smartcardio.Card;
-import javax.smartcardio.CardChannel;
 import javax.smartcardio.CardException;
 import javax.smartcardio.CardTerminal;
 import javax.smartcardio.CommandAPDU;
@@ -16,6 +14,9 @@ public class CardReader {
     private final ReaderManager readerManager;
     private final CardTerminal terminal;
     private final int readerIndex;
+    private final CardSession session;
+    private final TimingModel timing;
+    private final ReaderMetrics metrics;
     
     // APDU command to get NFC card UID (ACR122U specific)
     private static final byte[] GET_UID_COMMAND = new byte[] {
@@ -30,102 +31,169 @@ public class CardReader {
         this.readerManager = readerManager;
         this.readerIndex = readerIndex;
         this.terminal = readerManager.getReader(readerIndex);
+        this.session = new CardSession(readerManager, terminal);
+        this.timing = readerManager.getTimingModel(terminal.getName());
+        this.metrics = readerManager.getReaderMetrics(terminal.getName());
     }
     
     /**
-     * Waits for a card to be present and reads its UID.
-     * @return UID as hex string, or null if no card detected
+     * Gets the index of the reader this instance was created for.
+     * @return Reader index
      */
-    public String waitForCard() throws CardException {
-        // Wait for card presence (100ms timeout for non-blocking check)
-        boolean cardPresent = readerManager.waitForCard(terminal, 100);
-        
-        if (!cardPresent) {
-            return null;
-        }
-        
-        // Small delay to let card stabilize on reader
-        try {
-            Thread.sleep(50);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+    public int getReaderIndex() {
+        return readerIndex;
+    }
+    
+    /**
+     * Gets the name of the terminal this reader is bound to.
+     * @return Reader name
+     */
+    public String getReaderName() {
+        return terminal.getName();
+    }
+    
+    /**
+     * Reads the UID of a card that was just placed on the reader.
+     * Called by the card monitor on insertion, so no presence polling is needed.
+     * @return Card UID
+     */
+    public Uid readCard() throws CardException {
+        return readCard(System.nanoTime());
+    }
+    
+    /**
+     * Reads the UID of a card, timed by the reader's {@link TimingModel}.
+     * Time already spent since the insertion was detected counts towards the
+     * settle time; 6300 (card not ready) is retried with adaptive backoff.
+     * @param detectedAtNanos System.nanoTime() when the insertion was detected
+     * @return Card UID
+     */
+    public Uid readCard(long detectedAtNanos) throws CardException {
+        // Let the card stabilize on the reader
+        if (!sleep(timing.settleDelayMs() - elapsedMs(detectedAtNanos))) {
+            throw new CardException("Interrupted before reading the card");
         }
         
-        // Try reading with retry for status 6300 (card not ready)
-        String uid = null;
-        int maxRetries = 3;
-        for (int attempt = 1; attempt <= maxRetries; attempt++) {
+        long firstFailureMs = 0;
+        for (int attempt = 1; ; attempt++) {
             try {
-                uid = readUID();
-                break; // Success, exit retry loop
+                Uid uid = readUID();
+                timing.recordSuccess(attempt, firstFailureMs, elapsedMs(detectedAtNanos));
+                metrics.getRead().recordSince(detectedAtNanos);
+                metrics.readSucceeded();
+                return uid;
             } catch (CardException e) {
-                if (e.getMessage().contains("6300") && attempt < maxRetries) {
-                    // Card not ready or moved, retry after short delay
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw e;
-                    }
-                } else {
-                    // Other error or max retries reached
+                long elapsed = elapsedMs(detectedAtNanos);
+                if (!e.getMessage().contains("6300") || !timing.shouldRetry(attempt, elapsed)) {
+                    // Other error or out of attempts
+                    timing.recordFailure();
+                    metrics.readFailed();
+                    throw e;
+                }
+                if (attempt == 1) {
+                    firstFailureMs = elapsed;
+                }
+                // Card not ready or moved, retry after a short delay
+                metrics.readRetried();
+                if (!sleep(timing.retryDelayMs(attempt))) {
                     throw e;
                 }
             }
         }
-        
-        // Wait for card removal before detecting again
-        if (uid != null) {
-            readerManager.waitForCardRemoval(terminal, 0);
+    }
+    
+    private static long elapsedMs(long sinceNanos) {
+        return (System.nanoTime() - sinceNanos) / 1_000_000;
+    }
+    
+    /**
+     * @return false if interrupted; the interrupt flag is restored
+     */
+    private static boolean sleep(long ms) {
+        if (ms <= 0) {
+            return true;
         }
-        
-        return uid;
+        try {
+            Thread.sleep(ms);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    /**
+     * Gets the latency metrics of this reader.
+     * @return Metrics, shared by all CardReader instances of the same reader
+     */
+    public ReaderMetrics getMetrics() {
+        return metrics;
+    }
+    
+    /**
+     * Gets the timing model of this reader.
+     * @return Timing model, shared by all CardReader instances of the same reader
+     */
+    public TimingModel getTimingModel() {
+        return timing;
     }
     
     /**
      * Reads the UID from the currently present card.
-     * @return UID as hex string
+     * The card session stays open afterwards, so retries and follow-up
+     * reads of the same card skip the connect.
+     * @return Card UID
      */
-    public String readUID() throws CardException {
-        Card card = null;
-        try {
-            // Connect to the card using any protocol
-            card = readerManager.connect(terminal, "*");
-            
-            // Get the basic channel
-            CardChannel channel = card.getBasicChannel();
-            
-            // Send the GET UID command
-            CommandAPDU command = new CommandAPDU(GET_UID_COMMAND);
-            ResponseAPDU response = channel.transmit(command);
-            
-            // Check if the command was successful (SW1SW2 = 9000)
-            int sw = response.getSW();
-            if (sw != 0x9000) {
-                String errorMsg = getStatusCodeDescription(sw);
-                throw new CardException("Failed to read UID. Status: " + 
-                    String.format("%04X", sw) + " - " + errorMsg);
-            }
-            
-            // Get the UID bytes from the response
-            byte[] uidBytes = response.getData();
-            
-            if (uidBytes == null || uidBytes.length == 0) {
-                throw new CardException("No UID data returned from card");
-            }
-            
-            // Convert to hex string
-            return bytesToHex(uidBytes);
-            
-        } finally {
-            if (card != null) {
-                try {
-                    card.disconnect(false);
-                } catch (CardException e) {
-                    // Ignore disconnect errors
-                }
-            }
+    public Uid readUID() throws CardException {
+        // Send the GET UID command
+        CommandAPDU command = new CommandAPDU(GET_UID_COMMAND);
+        ResponseAPDU response = session.transmit(command);
+        
+        // Check if the command was successful (SW1SW2 = 9000)
+        int sw = response.getSW();
+        if (sw != 0x9000) {
+            String errorMsg = getStatusCodeDescription(sw);
+            throw new CardException("Failed to read UID. Status: " + 
+                String.format("%04X", sw) + " - " + errorMsg);
+        }
+        
+        // Get the UID bytes from the response
+        byte[] uidBytes = response.getData();
+        
+        if (uidBytes == null || uidBytes.length == 0) {
+            throw new CardException("No UID data returned from card");
         }
+        if (uidBytes.length > Uid.MAX_LENGTH) {
+            throw new CardException("UID too long: " + uidBytes.length + " bytes");
+        }
+        
+        return Uid.of(uidBytes);
+    }
+    
+    /**
+     * Reads the NDEF message of the currently present Type 2 tag,
+     * reusing the card session of the UID read.
+     * @param listener Receives the message in chunks while it is read
+     * @return Length of the message, -1 if the card holds none
+     * @see NdefReader
+     */
+    public int readNdef(NdefReader.ChunkListener listener) throws CardException {
+        return new NdefReader(session).read(listener);
+    }
+
+    /**
+     * Gets the session used to talk to the card on this reader.
+     * @return Card session
+     */
+    public CardSession getSession() {
+        return session;
+    }
+    
+    /**
+     * Closes the card session; called when the card leaves the field.
+     */
+    public void endSession() {
+        session.close();
     }
     
     /**
@@ -170,36 +238,13 @@ public class CardReader {
         return readerManager.isCardPresent(terminal);
     }
     
-    /**
-     * Converts byte array to hex string.
-     * @param bytes Byte array
-     * @return Hex string (uppercase, no separators)
-     */
-    private String bytesToHex(byte[] bytes) {
-        StringBuilder sb = new StringBuilder();
-        for (byte b : bytes) {
-            sb.append(String.format("%02X", b));
-        }
-        return sb.toString();
-    }
-    
     /**
      * Determines the UID type based on length.
      * @param uid UID hex string
      * @return UID type description
+     * @see Uid#getTypeDescription()
      */
     public static String getUIDType(String uid) {
-        int length = uid.length() / 2; // Convert hex string length to byte count
-        
-        switch (length) {
-            case 4:
-                return "Single size UID (4 bytes)";
-            case 7:
-                return "Double size UID (7 bytes)";
-            case 10:
-                return "Triple size UID (10 bytes)";
-            default:
-                return "Unknown UID type (" + length + " bytes)";
-        }
+        return UidClass.describe(uid.length() / 2);
     }
 }
@@ -0,0 +1,192 @@
+package info.nfcreader.host;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * Connection to the card on one reader, kept open while the card stays in the field.
+ *
+ * Connecting is the most expensive step of a read, so the {@link Card} and its
+ * basic channel are reused across retries and follow-up APDUs. The session
+ * reconnects only when PC/SC reports that the card was reset, or that the
+ * handle went stale because a different card took its place; it is closed when
+ * the card is removed.
+ */
+public class CardSession {
+
+    private final ReaderManager readerManager;
+    private final CardTerminal terminal;
+    private final ReaderMetrics metrics;
+
+    private Card card;
+    private CardChannel channel;
+    private long connectCount;
+
+    /**
+     * @param readerManager Reader manager used to connect
+     * @param terminal      Terminal of the reader
+     */
+    public CardSession(ReaderManager readerManager, CardTerminal terminal) {
+        this.readerManager = readerManager;
+        this.terminal = terminal;
+        this.metrics = readerManager.getReaderMetrics(terminal.getName());
+    }
+
+    /**
+     * Sends an APDU, connecting first if no session is open.
+     * @param command Command APDU
+     * @return Response APDU
+     */
+    public synchronized ResponseAPDU transmit(CommandAPDU command) throws CardException {
+        boolean reused = channel != null;
+        try {
+            return transmit(open(), command);
+        } catch (CardException | IllegalStateException e) {
+            // A fresh connection failing is a real error; a reused one may just be stale
+            if (!reused || !isStale(e)) {
+                close();
+                throw e;
+            }
+        }
+
+        close();
+        metrics.reconnected();
+        return transmit(open(), command);
+    }
+
+    /**
+     * Sends APDUs in order within one PC/SC transaction, so no other
+     * application can talk to the card between them. Only opening the
+     * transaction is retried on a stale handle; a failure halfway through
+     * is not, since the earlier APDUs may have changed the card's state.
+     * @param commands Command APDUs
+     * @param accept   Called with the index and response of each APDU; the
+     *                 batch stops after the first response it rejects
+     * @return Responses received, ending with the rejected one if the batch stopped early
+     */
+    public synchronized List<ResponseAPDU> transmitBatch(List<CommandAPDU> commands,
+            BiPredicate<Integer, ResponseAPDU> accept) throws CardException {
+        CardChannel batchChannel = beginTransaction();
+        List<ResponseAPDU> responses = new ArrayList<>();
+        try {
+            for (int i = 0; i < commands.size(); i++) {
+                ResponseAPDU response = transmit(batchChannel, commands.get(i));
+                responses.add(response);
+                if (!accept.test(i, response)) {
+                    break;
+                }
+            }
+        } catch (CardException | IllegalStateException e) {
+            // Disconnecting also ends the transaction
+            close();
+            throw e;
+        }
+
+        try {
+            card.endExclusive();
+        } catch (CardException | IllegalStateException e) {
+            // The card left after the last response; the results still stand
+            close();
+        }
+        return responses;
+    }
+
+    private CardChannel beginTransaction() throws CardException {
+        boolean reused = channel != null;
+        try {
+            CardChannel opened = open();
+            card.beginExclusive();
+            return opened;
+        } catch (CardException | IllegalStateException e) {
+            close();
+            if (!reused || !isStale(e)) {
+                throw e;
+            }
+        }
+
+        metrics.reconnected();
+        try {
+            CardChannel opened = open();
+            card.beginExclusive();
+            return opened;
+        } catch (CardException | IllegalStateException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private ResponseAPDU transmit(CardChannel channel, CommandAPDU command) throws CardException {
+        long started = System.nanoTime();
+        ResponseAPDU response = channel.transmit(command);
+        metrics.getTransmit().recordSince(started);
+        return response;
+    }
+
+    /**
+     * Checks whether an error means the handle no longer refers to the card in the field.
+     * SCARD_W_RESET_CARD: the card was reset, e.g. by another application.
+     * SCARD_W_REMOVED_CARD / "Card has been removed": the card left the field,
+     * possibly replaced by another one before the removal was seen.
+     * "Card has been disconnected": PC/SC hands out one Card per terminal, and
+     * an earlier session on the same reader closed it.
+     */
+    static boolean isStale(Exception e) {
+        String message = String.valueOf(e.getMessage());
+        if (e.getCause() != null) {
+            message += " " + e.getCause();
+        }
+        return message.contains("SCARD_W_RESET_CARD")
+            || message.contains("SCARD_W_REMOVED_CARD")
+            || message.contains("Card has been removed")
+            || message.contains("Card has been disconnected");
+    }
+
+    private CardChannel open() throws CardException {
+        if (channel == null) {
+            // Connect to the card using any protocol
+            long started = System.nanoTime();
+            card = readerManager.connect(terminal, "*");
+            metrics.getConnect().recordSince(started);
+            channel = card.getBasicChannel();
+            connectCount++;
+        }
+        return channel;
+    }
+
+    /**
+     * @return true if a card connection is open
+     */
+    public synchronized boolean isOpen() {
+        return channel != null;
+    }
+
+    /**
+     * @return Number of connections made so far
+     */
+    public synchronized long getConnectCount() {
+        return connectCount;
+    }
+
+    /**
+     * Disconnects from the card, leaving it in its current state.
+     */
+    public synchronized void close() {
+        if (card != null) {
+            try {
+                card.disconnect(false);
+            } catch (CardException | IllegalStateException e) {
+                // Ignore disconnect errors
+            }
+        }
+        card = null;
+        channel = null;
+    }
+}
@@ -0,0 +1,158 @@
+package info.nfcreader.host;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+/**
+ * The one thread per {@link ReaderManager} that waits for card changes and
+ * feeds every started {@link CardMonitor}.
+ *
+ * A PC/SC wait cannot be cancelled, so a monitor never owns the thread that
+ * blocks in it: stopping a monitor only unsubscribes it, and switching readers
+ * subscribes a new monitor to the same waiting thread. The thread exits one
+ * wait slice after the last monitor left, and is reused if a monitor
+ * subscribes before that.
+ *
+ * Lifecycle: IDLE (no thread) -> WATCHING (thread running) -> IDLE once the
+ * thread finds no monitors at the end of a slice.
+ */
+class CardWatcher {
+
+    enum State { IDLE, WATCHING }
+
+    private final ReaderManager readerManager;
+    private final List<CardMonitor> monitors = new CopyOnWriteArrayList<>();
+
+    private State state = State.IDLE;   // guarded by this
+    private Thread watcher;             // guarded by this
+    private CountDownLatch baseline;    // guarded by this
+    private int threadsStarted;         // guarded by this
+
+    CardWatcher(ReaderManager readerManager) {
+        this.readerManager = readerManager;
+    }
+
+    /**
+     * Adds a monitor, starting the watcher thread if needed. Returns once the
+     * thread has recorded the current card state, so every change from now on
+     * is either reported to the monitor or already visible to a presence check.
+     */
+    void subscribe(CardMonitor monitor) {
+        CountDownLatch ready;
+        synchronized (this) {
+            monitors.add(monitor);
+            if (state == State.IDLE) {
+                state = State.WATCHING;
+                CountDownLatch threadBaseline = new CountDownLatch(1);
+                baseline = threadBaseline;
+                watcher = new Thread(() -> run(threadBaseline), "nfc-card-monitor");
+                watcher.setDaemon(true);
+                watcher.start();
+                threadsStarted++;
+            }
+            ready = baseline;
+        }
+        try {
+            // Recording the baseline is a zero-timeout PC/SC call
+            ready.await(CardMonitor.WAIT_SLICE_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Removes a monitor. Never blocks on the watcher thread.
+     */
+    void unsubscribe(CardMonitor monitor) {
+        monitors.remove(monitor);
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return Number of watcher threads started so far
+     */
+    synchronized int getThreadsStarted() {
+        return threadsStarted;
+    }
+
+    /**
+     * @param baseline Latch of this thread, released once it recorded the card state
+     */
+    private void run(CountDownLatch baseline) {
+        // The PC/SC terminal list serializes waitForChange() and list(),
+        // so the watcher uses its own view to keep list-readers responsive.
+        CardTerminals terminals = readerManager.newTerminals();
+        boolean baselined = false;
+
+        try {
+            while (true) {
+                synchronized (this) {
+                    if (monitors.isEmpty()) {
+                        retire();
+                        return;
+                    }
+                }
+                try {
+                    // The first call only records the current state
+                    boolean changed = terminals.waitForChange(baselined ? CardMonitor.WAIT_SLICE_MS : 1);
+                    if (!baselined) {
+                        baselined = true;
+                        baseline.countDown();
+                    }
+                    if (!changed) {
+                        continue;
+                    }
+
+                    dispatch(terminals.list(CardTerminals.State.CARD_REMOVAL), false);
+                    dispatch(terminals.list(CardTerminals.State.CARD_INSERTION), true);
+
+                } catch (CardException | IllegalStateException e) {
+                    // IllegalStateException is thrown when no terminals are available
+                    baseline.countDown();
+                    // Usually a reader went away; don't keep serving it from the cache
+                    readerManager.invalidateReaders();
+                    for (CardMonitor monitor : monitors) {
+                        monitor.deliverError(e);
+                    }
+                    Thread.sleep(CardMonitor.WAIT_SLICE_MS);
+                }
+            }
+        } catch (InterruptedException e) {
+            // Daemon thread; only interrupted at JVM shutdown
+        } finally {
+            baseline.countDown();
+            synchronized (this) {
+                retire();
+            }
+        }
+    }
+
+    /**
+     * Marks the watcher idle when called from the current watcher thread.
+     * A thread that already retired may only get here after a new subscription
+     * started its successor, whose state it must leave alone.
+     */
+    private void retire() {
+        if (watcher == Thread.currentThread()) {
+            watcher = null;
+            state = State.IDLE;
+        }
+    }
+
+    private void dispatch(List<CardTerminal> changed, boolean inserted) {
+        for (CardTerminal terminal : changed) {
+            for (CardMonitor monitor : monitors) {
+                monitor.deliver(terminal, inserted);
+            }
+        }
+    }
+}
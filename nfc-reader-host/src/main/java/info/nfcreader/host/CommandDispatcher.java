@@ -0,0 +1,119 @@
+package info.nfcreader.host;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Runs commands off the stdin thread so a slow command never holds up the ones behind it.
+ *
+ * Control commands (get-version, get-status, stop-listening) run on their own
+ * lane and are never queued behind reader work (list-readers, start-listening),
+ * which does PC/SC enumeration and may wait on hardware. Each lane keeps the
+ * order of its commands. Responses therefore may arrive out of order; commands
+ * carrying an "id" get it echoed back for correlation.
+ */
+public class CommandDispatcher {
+
+    private final CommandHandler commandHandler;
+    private final CommandHandler.ListeningClient client;
+    private final Consumer<String> responses;
+    private final ExecutorService controlLane;
+    private final ExecutorService readerLane;
+
+    public CommandDispatcher(CommandHandler commandHandler) {
+        this(commandHandler, NativeMessagingHost::sendMessage);
+    }
+
+    /**
+     * Creates a dispatcher that sends responses somewhere other than the browser on stdout.
+     * @param commandHandler Command handler
+     * @param responses      Receiver of the responses, called from the lane threads
+     */
+    public CommandDispatcher(CommandHandler commandHandler, Consumer<String> responses) {
+        this(commandHandler, commandHandler.getDefaultClient(), responses);
+    }
+
+    /**
+     * Creates a dispatcher for one of several clients sharing a command handler.
+     * @param commandHandler Command handler
+     * @param client         Client whose listening the commands start and stop
+     * @param responses      Receiver of the responses, called from the lane threads
+     */
+    CommandDispatcher(CommandHandler commandHandler, CommandHandler.ListeningClient client,
+            Consumer<String> responses) {
+        this.commandHandler = commandHandler;
+        this.client = client;
+        this.responses = responses;
+        this.controlLane = Executors.newSingleThreadExecutor(runnable -> newThread(runnable, "nfc-command-control"));
+        this.readerLane = Executors.newSingleThreadExecutor(runnable -> newThread(runnable, "nfc-command-reader"));
+    }
+
+    private static Thread newThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Checks whether a command runs on the control lane.
+     * @param action Command action
+     * @return true for commands that never wait on reader work
+     */
+    static boolean isControlAction(String action) {
+        switch (action) {
+            case "list-readers":
+            case "start-listening":
+            case "transmit-batch":
+                return false;
+            default:
+                // Includes unknown actions, which are answered right away
+                return true;
+        }
+    }
+
+    /**
+     * Queues a command; its response is sent when it completes.
+     * Must be called in arrival order, from a single thread.
+     * @param command Parsed command
+     */
+    public void dispatch(JsonObject command) {
+        // Claimed in arrival order, so a later stop-listening wins over an earlier start still queued
+        long listeningRequest = commandHandler.claimListeningRequest(command, client);
+        Runnable task = () -> responses.accept(commandHandler.handleCommand(command, client, listeningRequest));
+
+        try {
+            laneFor(command).execute(task);
+        } catch (RejectedExecutionException e) {
+            responses.accept(commandHandler.createErrorResponse("Host is shutting down"));
+        }
+    }
+
+    private ExecutorService laneFor(JsonObject command) {
+        JsonElement action = command.get("action");
+        if (action == null || !action.isJsonPrimitive()) {
+            return controlLane;
+        }
+        return isControlAction(action.getAsString()) ? controlLane : readerLane;
+    }
+
+    /**
+     * Stops accepting commands and waits for queued ones to finish.
+     * @param timeoutMs Maximum time to wait per lane
+     */
+    public void shutdown(long timeoutMs) {
+        controlLane.shutdown();
+        readerLane.shutdown();
+        try {
+            controlLane.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+            readerLane.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
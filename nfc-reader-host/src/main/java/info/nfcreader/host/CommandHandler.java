@@ -1,28 +1,168 @@
 package info.nfcreader.host;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
 
 import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 /**
  * Handles commands from the browser extension and generates JSON responses.
  * Processes commands like list-readers, start-listening, stop-listening.
+ *
+ * Each party sending commands (the browser on stdin, each client of the host
+ * daemon) is a {@link ListeningClient} that starts and stops its own
+ * listening. The handler listens on the union of the clients' readers and
+ * delivers card events only to the clients listening on the reader.
+ *
+ * Reader changes are watched only while a client listens or subscribed to
+ * readers-changed events with watch-readers.
  */
 public class CommandHandler {
 
     private final ReaderManager readerManager;
     private final Gson gson;
-    private CardReader activeCardReader;
-    private Thread listeningThread;
+    private volatile ListenerScheduler scheduler;
+    private volatile CardMonitor cardMonitor;
     private volatile boolean isListening = false;
+    private ListeningSession session;   // guarded by listeningLock
+
+    // Start/stop requests in the order they were received; only a client's latest takes effect
+    private final Object listeningLock = new Object();
+    private final AtomicLong listeningRequests = new AtomicLong();
+    // Requests up to this number were cancelled by cleanup(); guarded by listeningLock
+    private long cancelledRequests;
+
+    // Clients currently listening; guarded by listeningLock
+    private final Set<ListeningClient> listeningClients = new LinkedHashSet<>();
+    // Clients subscribed to readers-changed; guarded by listeningLock
+    private final Set<ListeningClient> readerWatchers = new HashSet<>();
+    private boolean readersWatched;     // guarded by listeningLock
+
+    // The browser on stdin, and callers of the public handle methods
+    private final ListeningClient defaultClient = new ListeningClient();
+
+    // Kept up to date by the listening session, so get-status never queries PC/SC
+    private final AtomicReference<ListenerStatus> status = new AtomicReference<>(ListenerStatus.IDLE);
+
+    // Upper bound for the APDUs of one transmit-batch command
+    static final int MAX_BATCH_APDUS = 64;
+
+    // Consecutive failed reads after which a reader stops listening
+    static final int MAX_CONSECUTIVE_ERRORS = 3;
+
+    // Time to serialize card-detected events
+    private final LatencyHistogram eventSerialization = new LatencyHistogram();
+
+    // Card and status events; the browser on stdout is one subscriber among any number
+    private final EventBus eventBus = new EventBus();
+    private final EventBus.Subscription standardOutput;
+
+    // Durable record of the taps, or null
+    private final TapJournal journal;
+
+    /** System property for the default window card events to browsers are coalesced in, in ms. */
+    public static final String COALESCE_WINDOW_PROPERTY = "nfcreader.coalesceWindow";
 
     public CommandHandler(ReaderManager readerManager) {
+        this(readerManager, null);
+    }
+
+    /**
+     * @param readerManager Reader manager
+     * @param journal       Journal every tap is appended to, or null
+     */
+    public CommandHandler(ReaderManager readerManager, TapJournal journal) {
         this.readerManager = readerManager;
-        this.gson = new Gson();
+        this.journal = journal;
+        this.gson = Json.GSON;
+        // Hands off to the message writer without blocking, so it never holds up the bus
+        this.standardOutput = eventBus.subscribe("native-messaging", EventBus.Overflow.BLOCK, coalescing(defaultClient, event -> {
+            if (event.isStatus()) {
+                NativeMessagingHost.sendStatus(event.getJson());
+            } else {
+                NativeMessagingHost.sendMessage(event.getJson());
+            }
+        }));
+        // Browsers learn of readers being plugged in or out without polling list-readers;
+        // watched only once a client listens or asks for watch-readers
+        readerManager.addReadersListener(this::sendReadersChangedEvent);
+    }
+
+    /**
+     * @return Coalescing window set with {@value #COALESCE_WINDOW_PROPERTY}, 0 for off
+     */
+    static long defaultCoalesceWindow() {
+        return Long.getLong(COALESCE_WINDOW_PROPERTY, 0);
+    }
+
+    /**
+     * Creates a client that starts and stops listening independently of the others.
+     * 
+     * @return New client; pass it to {@link #release(ListeningClient)} when it goes away
+     */
+    ListeningClient newClient() {
+        return new ListeningClient();
+    }
+
+    /**
+     * Wraps a browser's subscriber so it only receives the events of the
+     * client's own listening, and card events of a burst across its readers
+     * reach it as one cards-detected message, per the window set with
+     * start-listening or {@value #COALESCE_WINDOW_PROPERTY}.
+     * 
+     * @param client  Client whose listening the browser follows
+     * @param browser Subscriber sending events to a browser
+     * @return Filtering and coalescing subscriber
+     */
+    EventBus.Subscriber coalescing(ListeningClient client, EventBus.Subscriber browser) {
+        EventCoalescer coalescer = new EventCoalescer(browser, () -> client.settings.coalesceWindowMs, () -> {
+            List<CardReader> readers = client.readers;
+            return readers != null ? readers.size() : 0;
+        });
+        return event -> {
+            if (client.receives(event)) {
+                coalescer.onEvent(event);
+            }
+        };
+    }
+
+    /**
+     * Gets the bus the card and status events are published on.
+     * Subscribers receive every event of every listened reader.
+     * 
+     * @return Event bus
+     */
+    public EventBus getEventBus() {
+        return eventBus;
+    }
+
+    /**
+     * Stops sending events to stdout, for hosts whose events go elsewhere
+     * (the daemon's clients, a console).
+     */
+    void detachStandardOutput() {
+        standardOutput.close();
     }
 
     /**
@@ -33,7 +173,65 @@ public class CommandHandler {
      */
     public String handleCommand(String commandJson) {
         try {
-            JsonObject command = gson.fromJson(commandJson, JsonObject.class);
+            return handleCommand(gson.fromJson(commandJson, JsonObject.class));
+        } catch (Exception e) {
+            return createErrorResponse("Error processing command: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Processes an already parsed command from the browser extension.
+     * 
+     * @param command Command object
+     * @return JSON response string
+     */
+    public String handleCommand(JsonObject command) {
+        return handleCommand(command, defaultClient, claimListeningRequest(command, defaultClient));
+    }
+
+    /**
+     * Records a start-listening or stop-listening command in arrival order.
+     * Commands may run out of order once dispatched; a listening request
+     * that is no longer the client's latest one is answered without taking effect.
+     * 
+     * @param command Command object
+     * @param client  Client that sent the command
+     * @return Request number to pass to {@link #handleCommand(JsonObject, ListeningClient, long)},
+     *         0 for other commands
+     */
+    long claimListeningRequest(JsonObject command, ListeningClient client) {
+        JsonElement action = command.get("action");
+        if (action != null && action.isJsonPrimitive()) {
+            String name = action.getAsString();
+            if (name.equals("start-listening") || name.equals("stop-listening")) {
+                return client.claim();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The client of the browser on stdin and of the public handle methods
+     */
+    ListeningClient getDefaultClient() {
+        return defaultClient;
+    }
+
+    /**
+     * Processes a command whose listening request was claimed on arrival.
+     * The optional "id" of the command is echoed in the response.
+     * 
+     * @param command          Command object
+     * @param client           Client that sent the command
+     * @param listeningRequest Result of {@link #claimListeningRequest(JsonObject, ListeningClient)}
+     * @return JSON response string
+     */
+    String handleCommand(JsonObject command, ListeningClient client, long listeningRequest) {
+        return withRequestId(dispatch(command, client, listeningRequest), command.get("id"));
+    }
+
+    private String dispatch(JsonObject command, ListeningClient client, long listeningRequest) {
+        try {
             String action = command.get("action").getAsString();
 
             switch (action) {
@@ -44,14 +242,45 @@ public class CommandHandler {
                     return handleListReaders();
 
                 case "start-listening":
+                    // Settings apply to the session being started only; an omitted one
+                    // goes back to its default rather than keeping an earlier session's
+                    SessionSettings settings = new SessionSettings(
+                        // Optional p95 tap-to-read latency target for the selected readers
+                        command.has("latencyTargetMs") ? command.get("latencyTargetMs").getAsLong()
+                            : TimingModel.defaultLatencyTarget(),
+                        // Optionally batch card events of several readers arriving within a window
+                        command.has("coalesceWindowMs") ? command.get("coalesceWindowMs").getAsLong()
+                            : defaultCoalesceWindow(),
+                        // Optionally follow each card-detected event with the tag's NDEF message
+                        command.has("readNdef") && command.get("readNdef").getAsBoolean());
+                    if (settings.latencyTargetMs < 0) {
+                        return createErrorResponse("Latency target must not be negative: " + settings.latencyTargetMs);
+                    }
+                    if (settings.coalesceWindowMs < 0) {
+                        return createErrorResponse("Coalescing window must not be negative: " + settings.coalesceWindowMs);
+                    }
+                    if (command.has("readers")) {
+                        return handleStartListening(command.getAsJsonArray("readers"), client, listeningRequest,
+                            settings);
+                    }
                     int readerIndex = command.get("readerIndex").getAsInt();
-                    return handleStartListening(readerIndex);
+                    return startListening(Collections.singletonList(readerIndex), client, listeningRequest, settings);
 
                 case "stop-listening":
-                    return handleStopListening();
+                    return handleStopListening(client, listeningRequest);
 
                 case "get-status":
-                    return handleGetStatus();
+                    return handleGetStatus(client);
+
+                case "watch-readers":
+                    return handleWatchReaders(client,
+                        !command.has("enabled") || command.get("enabled").getAsBoolean());
+
+                case "get-metrics":
+                    return handleGetMetrics();
+
+                case "transmit-batch":
+                    return handleTransmitBatch(command);
 
                 default:
                     return createErrorResponse("Unknown action: " + action);
@@ -62,6 +291,28 @@ public class CommandHandler {
         }
     }
 
+    /**
+     * Adds the request ID to a serialized response object. The ID comes
+     * first and replaces an "id" the response might already have.
+     * 
+     * @param response JSON response object
+     * @param id       Request ID from the command, or null
+     * @return Response carrying the ID
+     */
+    private String withRequestId(String response, JsonElement id) {
+        if (id == null || id.isJsonNull()) {
+            return response;
+        }
+        JsonObject withId = new JsonObject();
+        withId.add("id", id);
+        for (Map.Entry<String, JsonElement> field : gson.fromJson(response, JsonObject.class).entrySet()) {
+            if (!field.getKey().equals("id")) {
+                withId.add(field.getKey(), field.getValue());
+            }
+        }
+        return gson.toJson(withId);
+    }
+
     /**
      * Gets the native host version.
      * 
@@ -110,87 +361,345 @@ public class CommandHandler {
      * @return JSON response
      */
     public String handleStartListening(int readerIndex) {
+        return startListening(Collections.singletonList(readerIndex), defaultClient, defaultClient.claim(),
+            SessionSettings.defaults());
+    }
+
+    /**
+     * Starts listening for cards on several readers at once.
+     * 
+     * @param selectors Reader indices (numbers) or reader names (strings)
+     * @return JSON response
+     */
+    public String handleStartListening(JsonArray selectors) {
+        return handleStartListening(selectors, defaultClient, defaultClient.claim(), SessionSettings.defaults());
+    }
+
+    private String handleStartListening(JsonArray selectors, ListeningClient client, long listeningRequest,
+            SessionSettings settings) {
         try {
-            // Stop any existing listening
-            if (isListening) {
-                stopListening();
+            String[] readers = readerManager.listReaders();
+            List<Integer> readerIndices = new ArrayList<>();
+
+            for (JsonElement selector : selectors) {
+                int index = resolveReaderIndex(readers, selector);
+                if (index < 0) {
+                    return createErrorResponse("Unknown reader: " + selector);
+                }
+                if (!readerIndices.contains(index)) {
+                    readerIndices.add(index);
+                }
             }
 
-            // Validate reader index
+            return startListening(readerIndices, client, listeningRequest, settings);
+
+        } catch (Exception e) {
+            return createErrorResponse("Failed to start listening: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @param client   Client starting to listen; replaces its own earlier listening only
+     * @param settings Settings of the client's listening, applied only once it starts
+     */
+    private String startListening(List<Integer> readerIndices, ListeningClient client, long listeningRequest,
+            SessionSettings settings) {
+        try {
+            // Validate reader indices
             String[] readers = readerManager.listReaders();
             if (readers.length == 0) {
                 return createErrorResponse("No readers available. Please connect an NFC reader.");
             }
-            if (readerIndex < 0 || readerIndex >= readers.length) {
-                return createErrorResponse("Invalid reader index: " + readerIndex);
+            if (readerIndices.isEmpty()) {
+                return createErrorResponse("No readers selected");
+            }
+            List<CardReader> cardReaders = new ArrayList<>();
+            for (int readerIndex : readerIndices) {
+                if (readerIndex < 0 || readerIndex >= readers.length) {
+                    return createErrorResponse("Invalid reader index: " + readerIndex);
+                }
+                cardReaders.add(new CardReader(readerManager, readerIndex));
             }
 
-            // Create card reader
-            activeCardReader = new CardReader(readerManager, readerIndex);
-            isListening = true;
-
-            // Start listening in background thread
-            listeningThread = new Thread(() -> {
-                int consecutiveErrors = 0;
-                while (isListening) {
-                    try {
-                        String uid = activeCardReader.waitForCard();
-                        if (uid != null && isListening) {
-                            // Send card detected event
-                            sendCardDetectedEvent(uid);
-                        }
-                        // Reset error counter on successful read (whether card found or not)
-                        consecutiveErrors = 0;
-                    } catch (CardException e) {
-                        if (isListening) {
-                            consecutiveErrors++;
-                            // Send error only once, then stop listening to prevent spam
-                            if (consecutiveErrors == 1) {
-                                sendErrorEvent("Error reading card: " + e.getMessage());
-                            }
-                            // Stop listening after 3 consecutive errors (likely reader disconnected)
-                            if (consecutiveErrors >= 3) {
-                                isListening = false;
-                                break;
-                            }
-                        }
-                    } catch (Exception e) {
-                        if (isListening) {
-                            sendErrorEvent("Error reading card: " + e.getMessage());
-                            isListening = false;
-                            break;
-                        }
-                    }
-
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e) {
-                        break;
-                    }
+            synchronized (listeningLock) {
+                if (isSuperseded(client, listeningRequest)) {
+                    return createSupersededResponse();
                 }
-            });
-            listeningThread.start();
+                client.readers = cardReaders;
+                client.listenedReaders = readerNames(cardReaders);
+                client.failedReaders = Collections.emptySet();
+                client.settings = settings;
+                listeningClients.add(client);
+                applyListening();
+            }
 
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("message", "Started listening on reader: " + readers[readerIndex]);
-            response.put("readerIndex", readerIndex);
-            response.put("readerName", readers[readerIndex]);
+            response.put("listeningReaders", describeReaders(cardReaders));
+
+            if (cardReaders.size() == 1) {
+                int readerIndex = readerIndices.get(0);
+                response.put("message", "Started listening on reader: " + readers[readerIndex]);
+                response.put("readerIndex", readerIndex);
+                response.put("readerName", readers[readerIndex]);
+            } else {
+                response.put("message", "Started listening on " + cardReaders.size() + " readers");
+            }
 
             return gson.toJson(response);
 
         } catch (Exception e) {
+            synchronized (listeningLock) {
+                if (listeningClients.remove(client)) {
+                    client.readers = null;
+                    applyListening();
+                }
+            }
             return createErrorResponse("Failed to start listening: " + e.getMessage());
         }
     }
 
+    /**
+     * @return true while the handler listens on behalf of at least one client
+     */
+    boolean isListening() {
+        return isListening;
+    }
+
+    /**
+     * Checks whether a later start or stop of the same client, or cleanup,
+     * overtook a listening request. Called with the listening lock held.
+     */
+    private boolean isSuperseded(ListeningClient client, long listeningRequest) {
+        return listeningRequest != client.latestRequest.get() || listeningRequest <= cancelledRequests;
+    }
+
+    /**
+     * Brings the listening session in line with the listening clients: listens
+     * on the union of their readers, reads NDEF messages if any of them asked,
+     * and gives each reader the tightest latency target asked for it. A running
+     * session is kept and only gains or loses readers, so the cards already on
+     * its other readers are not reported again. Called with the listening lock held.
+     */
+    private void applyListening() {
+        updateReadersWatched();
+        Map<String, CardReader> readers = new LinkedHashMap<>();
+        Map<String, Long> latencyTargets = new HashMap<>();
+        boolean readNdef = false;
+        for (ListeningClient client : listeningClients) {
+            for (CardReader reader : client.readers) {
+                readers.putIfAbsent(reader.getReaderName(), reader);
+                long target = client.settings.latencyTargetMs;
+                if (target > 0) {
+                    latencyTargets.merge(reader.getReaderName(), target, Math::min);
+                }
+            }
+            readNdef |= client.settings.readNdef;
+        }
+        if (readers.isEmpty()) {
+            stopListening();
+            return;
+        }
+        boolean running = isListening && session != null;
+        if (running) {
+            // The readers already listened keep their listener and card session
+            for (CardReader reader : scheduler.getReaders()) {
+                readers.replace(reader.getReaderName(), reader);
+            }
+        }
+        for (CardReader reader : readers.values()) {
+            reader.getTimingModel().setLatencyTarget(latencyTargets.getOrDefault(reader.getReaderName(), 0L));
+        }
+
+        if (running) {
+            // Added readers get their listener before the monitor signals them,
+            // removed ones lose it after the monitor stopped signalling them
+            List<String> previous = scheduler.getReaderNames();
+            for (CardReader reader : readers.values()) {
+                scheduler.addReader(reader);
+            }
+            cardMonitor.setReaderNames(readers.keySet());
+            for (String name : previous) {
+                if (!readers.containsKey(name)) {
+                    scheduler.removeReader(name);
+                }
+            }
+            session.readNdef = readNdef;
+            ListeningSession current = session;
+            List<CardReader> listened = new ArrayList<>(readers.values());
+            updateStatus(current, s -> s.started(current, listened));
+            return;
+        }
+
+        // Stop any existing listening
+        stopListening();
+
+        // One listener per reader; the card monitor only signals insertions
+        List<CardReader> cardReaders = new ArrayList<>(readers.values());
+        session = new ListeningSession(readNdef);
+        scheduler = new ListenerScheduler(cardReaders, session);
+        cardMonitor = readerManager.createMonitor(scheduler.getReaderNames(), session);
+        session.monitor = cardMonitor;
+        session.listeners = scheduler;
+        isListening = true;
+        status.set(status.get().started(session, cardReaders));
+        scheduler.start();
+        cardMonitor.start();
+    }
+
+    /**
+     * Ends the listening of a client that went away, such as a disconnected
+     * daemon client. Its start and stop requests still queued take no effect.
+     * 
+     * @param client Client to release
+     */
+    void release(ListeningClient client) {
+        synchronized (listeningLock) {
+            client.claim();
+            client.readers = null;
+            client.watchesReaders = false;
+            readerWatchers.remove(client);
+            if (listeningClients.remove(client)) {
+                applyListening();
+            } else {
+                updateReadersWatched();
+            }
+        }
+    }
+
+    /**
+     * Subscribes a client to readers-changed events, or ends its subscription.
+     * Listening clients receive them regardless.
+     * 
+     * @param client  Client that sent the command
+     * @param enabled Whether the client wants the events
+     * @return JSON response
+     */
+    private String handleWatchReaders(ListeningClient client, boolean enabled) {
+        synchronized (listeningLock) {
+            client.watchesReaders = enabled;
+            if (enabled) {
+                readerWatchers.add(client);
+            } else {
+                readerWatchers.remove(client);
+            }
+            updateReadersWatched();
+        }
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("watchingReaders", enabled);
+
+        return gson.toJson(response);
+    }
+
+    /**
+     * Subscribes the browser on stdin to readers-changed events.
+     * 
+     * @param enabled Whether the browser wants the events
+     * @return JSON response
+     */
+    public String handleWatchReaders(boolean enabled) {
+        return handleWatchReaders(defaultClient, enabled);
+    }
+
+    /**
+     * Runs the reader watcher while a client listens or watches the readers,
+     * and stops it once the last of them went away. Called with the listening
+     * lock held.
+     */
+    private void updateReadersWatched() {
+        boolean wanted = !listeningClients.isEmpty() || !readerWatchers.isEmpty();
+        if (wanted != readersWatched) {
+            readersWatched = wanted;
+            readerManager.setReadersWatched(wanted);
+        }
+    }
+
+    /**
+     * Answers a start or stop request that a later one overtook.
+     */
+    private String createSupersededResponse() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("superseded", true);
+        response.put("message", "Superseded by a later listening command");
+
+        return gson.toJson(response);
+    }
+
+    /**
+     * Resolves a reader selector to a reader index.
+     * 
+     * @param readers   Current reader names
+     * @param selector  Reader index (number) or reader name (string)
+     * @return Reader index, or -1 if not found
+     */
+    private int resolveReaderIndex(String[] readers, JsonElement selector) {
+        if (selector.isJsonPrimitive() && selector.getAsJsonPrimitive().isNumber()) {
+            int index = selector.getAsInt();
+            return index >= 0 && index < readers.length ? index : -1;
+        }
+        String name = selector.getAsString();
+        for (int i = 0; i < readers.length; i++) {
+            if (readers[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> readerNames(List<CardReader> cardReaders) {
+        List<String> names = new ArrayList<>();
+        for (CardReader cardReader : cardReaders) {
+            names.add(cardReader.getReaderName());
+        }
+        return Collections.unmodifiableList(names);
+    }
+
+    private List<Map<String, Object>> describeReaders(List<CardReader> cardReaders) {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (CardReader cardReader : cardReaders) {
+            Map<String, Object> reader = new HashMap<>();
+            reader.put("index", cardReader.getReaderIndex());
+            reader.put("name", cardReader.getReaderName());
+            result.add(reader);
+        }
+        return result;
+    }
+
+    private Map<String, Object> describeTiming(TimingModel timing) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("settleMs", timing.settleDelayMs());
+        result.put("recoveryMs", timing.getRecoveryMs());
+        result.put("p95LatencyMs", timing.getP95LatencyMs());
+        result.put("latencyTargetMs", timing.getLatencyTarget());
+        return result;
+    }
+
     /**
      * Stops listening for cards.
      * 
      * @return JSON response
      */
     public String handleStopListening() {
-        stopListening();
+        return handleStopListening(defaultClient, defaultClient.claim());
+    }
+
+    /**
+     * Stops the listening of one client; the readers of other clients keep listening.
+     */
+    private String handleStopListening(ListeningClient client, long listeningRequest) {
+        synchronized (listeningLock) {
+            if (isSuperseded(client, listeningRequest)) {
+                return createSupersededResponse();
+            }
+            client.readers = null;
+            client.failedReaders = Collections.emptySet();
+            if (listeningClients.remove(client)) {
+                applyListening();
+            }
+        }
 
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
@@ -200,74 +709,684 @@ public class CommandHandler {
     }
 
     /**
-     * Gets the current status of the card reader.
+     * Gets the current status of the card reader from the snapshot the
+     * listener keeps, without querying PC/SC.
      * 
      * @return JSON response with status
      */
     public String handleGetStatus() {
+        return handleGetStatus(defaultClient);
+    }
+
+    /**
+     * Gets the status as seen by one client: whether it listens, and the
+     * state of its own readers. Card presence, the last UID and the last
+     * event come from the readers the client listens on, or last listened on
+     * once it stopped; never from other clients' readers.
+     */
+    private String handleGetStatus(ListeningClient client) {
+        ListenerStatus current = status.get();
+        List<CardReader> clientReaders = client.readers;
+        boolean listening = current.isListening() && clientReaders != null;
         Map<String, Object> response = new HashMap<>();
         response.put("success", true);
-        response.put("listening", isListening);
+        response.put("listening", listening);
+
+        boolean cardPresent = false;
+        ListenerStatus.Reader lastRead = null;
+        long lastEventMillis = 0;
+        for (String name : client.listenedReaders) {
+            ListenerStatus.Reader reader = current.getReader(name);
+            if (reader == null) {
+                continue;
+            }
+            cardPresent |= listening && reader.isCardPresent();
+            if (reader.getLastUid() != null
+                    && (lastRead == null || reader.getLastUidMillis() > lastRead.getLastUidMillis())) {
+                lastRead = reader;
+            }
+            lastEventMillis = Math.max(lastEventMillis, reader.getLastEventMillis());
+        }
+
+        if (listening) {
+            List<Map<String, Object>> readers = new ArrayList<>();
+            for (ListenerStatus.Reader reader : current.getReaders()) {
+                if (!client.listensOn(reader.getName())) {
+                    continue;
+                }
+                Map<String, Object> described = new HashMap<>();
+                described.put("index", reader.getIndex());
+                described.put("name", reader.getName());
+                described.put("cardPresent", reader.isCardPresent());
+                described.put("health", reader.getError() == null ? "ok" : "error");
+                if (reader.getError() != null) {
+                    described.put("error", reader.getError());
+                }
+                described.put("timing", describeTiming(reader.getTiming()));
+                readers.add(described);
+            }
+            response.put("listeningReaders", readers);
+        }
+        response.put("cardPresent", cardPresent);
+        if (lastRead != null) {
+            response.put("lastUid", lastRead.getLastUid());
+            response.put("lastUidReader", lastRead.getName());
+        }
+        if (lastEventMillis > 0) {
+            response.put("lastEventTime", lastEventMillis);
+        }
+        response.put("statusAgeMs", current.getAgeMillis());
+        response.put("coalesceWindowMs", client.settings.coalesceWindowMs);
+
+        return gson.toJson(response);
+    }
+
+    private static boolean isString(JsonElement element) {
+        return element != null && element.isJsonPrimitive() && element.getAsJsonPrimitive().isString();
+    }
 
-        if (activeCardReader != null) {
+    /**
+     * Runs a list of APDUs on the card of one reader in a single connection
+     * and PC/SC transaction, stopping at the first unexpected status word.
+     * Each APDU is a hex string or {"apdu": hex, "expect": sw}; the expected
+     * status word defaults to 9000, and X matches any hex digit (e.g. "61XX").
+     * 
+     * @param command Command with readerIndex or readerName and apdus
+     * @return JSON response with one entry per APDU sent
+     */
+    public String handleTransmitBatch(JsonObject command) {
+        JsonArray apdus = command.getAsJsonArray("apdus");
+        if (apdus == null || apdus.size() == 0) {
+            return createErrorResponse("No APDUs given");
+        }
+        if (apdus.size() > MAX_BATCH_APDUS) {
+            return createErrorResponse("Too many APDUs: " + apdus.size() + " (maximum " + MAX_BATCH_APDUS + ")");
+        }
+
+        // Parse everything before touching the card
+        List<CommandAPDU> commands = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < apdus.size(); i++) {
+            JsonElement element = apdus.get(i);
+            JsonObject entry = element.isJsonObject() ? element.getAsJsonObject() : null;
+            JsonElement apduElement = entry != null ? entry.get("apdu") : element;
+            if (!isString(apduElement)) {
+                return createErrorResponse("APDU " + i + " has no apdu string");
+            }
+            String apdu = apduElement.getAsString();
+            JsonElement expectElement = entry != null ? entry.get("expect") : null;
+            if (expectElement != null && !isString(expectElement)) {
+                return createErrorResponse("Invalid expected status word for APDU " + i + ": " + expectElement);
+            }
+            String expect = expectElement != null ? expectElement.getAsString() : "9000";
             try {
-                response.put("cardPresent", activeCardReader.isCardPresent());
-            } catch (Exception e) {
-                response.put("cardPresent", false);
+                commands.add(new CommandAPDU(Hex.decode(apdu)));
+            } catch (IllegalArgumentException e) {
+                return createErrorResponse("Invalid APDU " + i + ": " + e.getMessage());
+            }
+            if (!expect.matches("[0-9A-Fa-fXx]{4}")) {
+                return createErrorResponse("Invalid expected status word for APDU " + i + ": " + expect);
+            }
+            expected.add(expect.toUpperCase());
+        }
+
+        CardReader cardReader = null;
+        boolean temporary = false;
+        try {
+            String[] readers = readerManager.listReaders();
+            JsonElement selector = command.has("readerName") ? command.get("readerName") : command.get("readerIndex");
+            int readerIndex = selector != null ? resolveReaderIndex(readers, selector) : -1;
+            if (readerIndex < 0) {
+                return createErrorResponse("Invalid reader: " + selector);
+            }
+
+            // A reader being listened on already has the card's session open
+            cardReader = findListeningReader(readers[readerIndex]);
+            if (cardReader == null) {
+                cardReader = new CardReader(readerManager, readerIndex);
+                temporary = true;
+            }
+
+            List<ResponseAPDU> responses = cardReader.getSession().transmitBatch(commands,
+                (index, response) -> statusWordMatches(response.getSW(), expected.get(index)));
+
+            List<Map<String, Object>> results = new ArrayList<>();
+            int matched = 0;
+            for (int i = 0; i < responses.size(); i++) {
+                ResponseAPDU response = responses.get(i);
+                boolean ok = statusWordMatches(response.getSW(), expected.get(i));
+                matched += ok ? 1 : 0;
+                Map<String, Object> result = new HashMap<>();
+                result.put("sw", String.format("%04X", response.getSW()));
+                result.put("data", Hex.encode(response.getData()));
+                result.put("matched", ok);
+                results.add(result);
+            }
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", matched == commands.size());
+            response.put("readerIndex", readerIndex);
+            response.put("readerName", readers[readerIndex]);
+            response.put("completed", matched);
+            response.put("total", commands.size());
+            response.put("responses", results);
+            if (matched < commands.size()) {
+                response.put("error", "APDU " + matched + " returned "
+                    + results.get(matched).get("sw") + ", expected " + expected.get(matched));
+            }
+
+            return gson.toJson(response);
+
+        } catch (CardException | IllegalStateException e) {
+            return createErrorResponse("Transmit failed: " + e.getMessage());
+        } finally {
+            if (temporary && cardReader != null) {
+                // Nothing tracks card removal on a reader that is not listened on
+                cardReader.endSession();
             }
-        } else {
-            response.put("cardPresent", false);
         }
+    }
+
+    private CardReader findListeningReader(String readerName) {
+        ListenerScheduler activeScheduler = scheduler;
+        if (activeScheduler != null) {
+            for (CardReader cardReader : activeScheduler.getReaders()) {
+                if (cardReader.getReaderName().equals(readerName)) {
+                    return cardReader;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param sw      Status word
+     * @param pattern Four hex digits, X matching any digit
+     * @return true if the status word matches
+     */
+    static boolean statusWordMatches(int sw, String pattern) {
+        String actual = String.format("%04X", sw);
+        for (int i = 0; i < 4; i++) {
+            char expected = pattern.charAt(i);
+            if (expected != 'X' && expected != actual.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports the latency histograms of every reader used so far and of
+     * the way to the browser. All times are in microseconds.
+     * 
+     * @return JSON response with metrics
+     */
+    public String handleGetMetrics() {
+        List<Map<String, Object>> readers = new ArrayList<>();
+        for (Map.Entry<String, ReaderMetrics> entry : readerManager.getAllReaderMetrics().entrySet()) {
+            ReaderMetrics metrics = entry.getValue();
+            Map<String, Object> reader = new HashMap<>();
+            reader.put("name", entry.getKey());
+            reader.put("reads", metrics.getReads());
+            reader.put("retries", metrics.getRetries());
+            reader.put("failures", metrics.getFailures());
+            reader.put("reconnects", metrics.getReconnects());
+            reader.put("wake", describeHistogram(metrics.getWake()));
+            reader.put("connect", describeHistogram(metrics.getConnect()));
+            reader.put("transmit", describeHistogram(metrics.getTransmit()));
+            reader.put("read", describeHistogram(metrics.getRead()));
+            readers.add(reader);
+        }
+
+        MessageWriter output = NativeMessagingHost.getOutput();
+        Map<String, Object> host = new HashMap<>();
+        host.put("serialize", describeHistogram(eventSerialization));
+        host.put("write", describeHistogram(output.getWriteLatency()));
+        host.put("queued", output.getQueuedCount());
+        host.put("dropped", output.getDroppedCount());
+
+        List<Map<String, Object>> subscribers = new ArrayList<>();
+        for (EventBus.Subscription subscription : eventBus.getSubscriptions()) {
+            Map<String, Object> subscriber = new HashMap<>();
+            subscriber.put("name", subscription.getName());
+            subscriber.put("delivered", subscription.getDelivered());
+            subscriber.put("dropped", subscription.getDropped());
+            subscriber.put("deliver", describeHistogram(subscription.getDeliveryLatency()));
+            subscribers.add(subscriber);
+        }
+        host.put("subscribers", subscribers);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("readers", readers);
+        response.put("host", host);
 
         return gson.toJson(response);
     }
 
+    private Map<String, Object> describeHistogram(LatencyHistogram histogram) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("count", histogram.getCount());
+        result.put("p50", histogram.getPercentileMicros(50));
+        result.put("p90", histogram.getPercentileMicros(90));
+        result.put("p99", histogram.getPercentileMicros(99));
+        result.put("max", histogram.getMaxMicros());
+        result.put("mean", histogram.getMeanMicros());
+        return result;
+    }
+
     /**
-     * Stops the listening thread and cleans up resources.
+     * Stops the card monitor and cleans up resources.
      */
     private void stopListening() {
         isListening = false;
+        session = null;
+        status.set(status.get().stopped());
 
-        if (listeningThread != null) {
-            listeningThread.interrupt();
+        if (cardMonitor != null) {
+            cardMonitor.stop();
+            cardMonitor = null;
+        }
+
+        if (scheduler != null) {
+            scheduler.stop();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * One party starting and stopping its own listening, with the readers and
+     * settings of its latest start-listening.
+     */
+    final class ListeningClient {
+
+        // Number of the client's latest start or stop request
+        private final AtomicLong latestRequest = new AtomicLong();
+
+        // Written under the listening lock, read by event delivery and get-status; null when not listening
+        private volatile List<CardReader> readers;
+        private volatile SessionSettings settings = SessionSettings.defaults();
+        // Names of the readers of the client's latest listening, kept after it stops
+        private volatile List<String> listenedReaders = Collections.emptyList();
+        // Readers dropped from the client's listening after failing, until its next start or stop
+        private volatile Set<String> failedReaders = Collections.emptySet();
+        private volatile boolean watchesReaders;
+
+        private ListeningClient() {
+        }
+
+        private long claim() {
+            long request = listeningRequests.incrementAndGet();
+            latestRequest.set(request);
+            return request;
+        }
+
+        boolean listensOn(String readerName) {
+            List<CardReader> current = readers;
+            if (current == null) {
+                return false;
+            }
+            for (CardReader reader : current) {
+                if (reader.getReaderName().equals(readerName)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Reader changes go to the clients watching the readers or listening,
+         * other reader-less events (errors) to every client; the events of a
+         * reader only to the clients listening on it, and NDEF events only to
+         * those that asked for them. The error that stopped a failing reader
+         * also reaches the clients it was dropped from.
+         */
+        boolean receives(EventBus.Event event) {
+            if (event.getName().equals("readers-changed")) {
+                return watchesReaders || readers != null;
+            }
+            if (event.getReaderName() == null) {
+                return true;
+            }
+            if (event.getName().startsWith("ndef") && !settings.readNdef) {
+                return false;
+            }
+            if (event.getName().equals("error") && failedReaders.contains(event.getReaderName())) {
+                return true;
+            }
+            return listensOn(event.getReaderName());
+        }
+    }
+
+    /**
+     * Options of a start-listening command.
+     */
+    private static class SessionSettings {
+
+        final long latencyTargetMs;
+        final long coalesceWindowMs;
+        final boolean readNdef;
+
+        SessionSettings(long latencyTargetMs, long coalesceWindowMs, boolean readNdef) {
+            this.latencyTargetMs = latencyTargetMs;
+            this.coalesceWindowMs = coalesceWindowMs;
+            this.readNdef = readNdef;
+        }
+
+        static SessionSettings defaults() {
+            return new SessionSettings(TimingModel.defaultLatencyTarget(), defaultCoalesceWindow(), false);
+        }
+    }
+
+    /**
+     * Forwards insertions from the card monitor to the per-reader listeners
+     * and turns their results into events.
+     */
+    private class ListeningSession implements CardMonitor.Listener, ListenerScheduler.TapHandler {
+
+        // Consecutive failed reads per reader, and consecutive failed waits for cards
+        private final Map<String, AtomicInteger> readerErrors = new ConcurrentHashMap<>();
+        private final AtomicInteger monitorErrors = new AtomicInteger();
+        // Changed by applyListening() when the listening clients change
+        private volatile boolean readNdef;
+        private CardMonitor monitor;
+        private ListenerScheduler listeners;
+
+        ListeningSession(boolean readNdef) {
+            this.readNdef = readNdef;
+        }
+
+        @Override
+        public void cardInserted(CardTerminal terminal) {
+            updateStatus(this, current -> current.withCard(terminal.getName(), true));
+            ListenerScheduler activeScheduler = scheduler;
+            if (activeScheduler != null) {
+                activeScheduler.cardInserted(terminal.getName());
+            }
+        }
+
+        @Override
+        public void cardRemoved(CardTerminal terminal) {
+            // The next insertion is reported as a new tap and opens a new session
+            updateStatus(this, current -> current.withCard(terminal.getName(), false));
+            ListenerScheduler activeScheduler = scheduler;
+            if (activeScheduler != null) {
+                activeScheduler.cardRemoved(terminal.getName());
+            }
+        }
+
+        @Override
+        public void monitorError(Exception e) {
+            updateStatus(this, current -> current.withError(null, e.getMessage()));
+            if (!isListening || !monitor.isRunning()) {
+                return;
+            }
+            int errors = monitorErrors.incrementAndGet();
+            // Send error only once, then stop listening to prevent spam
+            if (errors == 1) {
+                sendErrorEvent(null, "Error reading card: " + e.getMessage());
+            }
+            // Waiting for cards failed on every reader; stop the whole session
+            if (errors == MAX_CONSECUTIVE_ERRORS) {
+                isListening = false;
+                monitor.stop();
+                listeners.stop();
+                updateStatus(this, ListenerStatus::stopped);
+                // The watcher holds the monitor's lock, which applyListening() takes after the listening lock
+                Thread release = new Thread(this::releaseClients, "nfc-listening-release");
+                release.setDaemon(true);
+                release.start();
+            }
+        }
+
+        /**
+         * Ends the listening of every client after the session stopped itself,
+         * unless a later start already replaced the session.
+         */
+        private void releaseClients() {
+            synchronized (listeningLock) {
+                if (session != this) {
+                    return;
+                }
+                for (ListeningClient client : listeningClients) {
+                    client.readers = null;
+                }
+                listeningClients.clear();
+                applyListening();
+            }
+        }
+
+        @Override
+        public void cardRead(CardReader reader, Uid uid) {
+            if (journal != null) {
+                journal.append(System.currentTimeMillis(), reader.getReaderIndex(), uid, TapJournal.Outcome.READ);
+            }
+            updateStatus(this, current -> current.withRead(reader.getReaderName(), uid));
+            if (isListening && monitor.isRunning()) {
+                sendCardDetectedEvent(reader, uid);
+                // Reset error counters on successful read
+                readerErrors.remove(reader.getReaderName());
+                monitorErrors.set(0);
+                if (readNdef) {
+                    sendNdefEvents(reader, uid);
+                }
+            }
+        }
+
+        /**
+         * Streams the tag's NDEF message as ndef events, one per fetched range.
+         * The UID has already been sent, so a failure here (usually the tag
+         * leaving the field mid-read) is reported as an ndef-error event, which
+         * neither counts towards stopping the listener nor reads as a reader error.
+         */
+        private void sendNdefEvents(CardReader reader, Uid uid) {
             try {
-                listeningThread.join(1000);
-            } catch (InterruptedException e) {
-                // Ignore
+                reader.readNdef((data, offset, total) -> {
+                    if (isListening && monitor.isRunning()) {
+                        eventBus.publish(new EventBus.Event("ndef", reader.getReaderName(), uid,
+                            createNdefEvent(reader, uid, data, offset, total), false));
+                    }
+                });
+            } catch (CardException | IllegalStateException e) {
+                if (isListening && monitor.isRunning()) {
+                    sendNdefErrorEvent(reader, uid, "Error reading NDEF: " + e.getMessage());
+                }
             }
-            listeningThread = null;
         }
 
-        activeCardReader = null;
+        @Override
+        public void readError(CardReader reader, Exception e) {
+            if (journal != null) {
+                journal.append(System.currentTimeMillis(), reader.getReaderIndex(), null, TapJournal.Outcome.FAILED);
+            }
+            updateStatus(this, current -> current.withError(reader.getReaderName(), e.getMessage()));
+            if (!isListening || !monitor.isRunning()) {
+                return;
+            }
+            int errors = readerErrors.computeIfAbsent(reader.getReaderName(), name -> new AtomicInteger())
+                .incrementAndGet();
+            // Send error only once, then stop listening to prevent spam
+            if (errors == 1) {
+                sendErrorEvent(reader, "Error reading card: " + e.getMessage());
+            }
+            // Stop listening on the reader after consecutive errors (likely disconnected);
+            // the other readers keep listening
+            if (errors == MAX_CONSECUTIVE_ERRORS) {
+                stopReader(reader);
+            }
+        }
+
+        /**
+         * Drops a failing reader from the listening of every client on it.
+         * Clients left without readers stop listening.
+         */
+        private void stopReader(CardReader reader) {
+            String name = reader.getReaderName();
+            synchronized (listeningLock) {
+                if (session != this) {
+                    return;
+                }
+                readerErrors.remove(name);
+                for (Iterator<ListeningClient> it = listeningClients.iterator(); it.hasNext();) {
+                    ListeningClient client = it.next();
+                    if (!client.listensOn(name)) {
+                        continue;
+                    }
+                    List<CardReader> remaining = new ArrayList<>();
+                    for (CardReader listened : client.readers) {
+                        if (!listened.getReaderName().equals(name)) {
+                            remaining.add(listened);
+                        }
+                    }
+                    Set<String> failed = new HashSet<>(client.failedReaders);
+                    failed.add(name);
+                    client.failedReaders = Collections.unmodifiableSet(failed);
+                    if (remaining.isEmpty()) {
+                        client.readers = null;
+                        it.remove();
+                    } else {
+                        client.readers = Collections.unmodifiableList(remaining);
+                    }
+                }
+                applyListening();
+            }
+            sendErrorEvent(reader, "Stopped listening on " + name + " after "
+                + MAX_CONSECUTIVE_ERRORS + " failed reads");
+        }
     }
 
     /**
-     * Sends a card detected event to the browser extension.
+     * Applies a change to the status snapshot, unless a later session replaced it.
      * 
-     * @param uid Card UID
+     * @param session Session reporting the change
+     * @param change  Change to apply
      */
-    private void sendCardDetectedEvent(String uid) {
+    private void updateStatus(ListeningSession session, UnaryOperator<ListenerStatus> change) {
+        ListenerStatus current;
+        do {
+            current = status.get();
+            if (current.getOwner() != session) {
+                return;
+            }
+        } while (!status.compareAndSet(current, change.apply(current)));
+    }
+
+    /**
+     * Publishes a card detected event.
+     * 
+     * @param reader Reader the card was read on
+     * @param uid    Card UID
+     */
+    private void sendCardDetectedEvent(CardReader reader, Uid uid) {
+        long started = System.nanoTime();
+        String event = createCardDetectedEvent(reader, uid);
+        eventSerialization.recordSince(started);
+        eventBus.publish(new EventBus.Event("card-detected", reader.getReaderName(), uid, event, false));
+    }
+
+    /**
+     * Serializes a card detected event.
+     * Carries the UID in every configured format, so the extension only
+     * picks the one the user selected.
+     * 
+     * @param reader Reader the card was read on
+     * @param uid    Card UID
+     * @return Event JSON
+     */
+    String createCardDetectedEvent(CardReader reader, Uid uid) {
         Map<String, Object> event = new HashMap<>();
         event.put("event", "card-detected");
-        event.put("uid", uid);
-        event.put("uidType", CardReader.getUIDType(uid));
+        event.put("uid", uid.toHex());
+        event.put("uidType", uid.getTypeDescription());
+        event.put("uidLength", uid.length());
+        event.put("formats", uid.formats());
+        event.put("readerIndex", reader.getReaderIndex());
+        event.put("readerName", reader.getReaderName());
 
-        String eventJson = gson.toJson(event);
-        NativeMessagingHost.sendMessage(eventJson);
+        return gson.toJson(event);
     }
 
     /**
-     * Sends an error event to the browser extension.
+     * Serializes one chunk of a tag's NDEF message.
+     * The extension concatenates the data of a tag's chunks until last is true.
      * 
-     * @param error Error message
+     * @param reader Reader the tag was read on
+     * @param uid    Tag UID
+     * @param data   Chunk of the NDEF message
+     * @param offset Offset of the chunk within the message
+     * @param total  Length of the whole message
+     * @return Event JSON
      */
-    private void sendErrorEvent(String error) {
+    String createNdefEvent(CardReader reader, Uid uid, byte[] data, int offset, int total) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", "ndef");
+        event.put("uid", uid.toHex());
+        event.put("readerIndex", reader.getReaderIndex());
+        event.put("readerName", reader.getReaderName());
+        event.put("offset", offset);
+        event.put("length", total);
+        event.put("data", Hex.encode(data));
+        event.put("last", offset + data.length == total);
+
+        return gson.toJson(event);
+    }
+
+    /**
+     * Publishes an NDEF error event, telling the browser that the NDEF message
+     * of a tag whose UID was sent will not arrive (completely).
+     * 
+     * @param reader Reader the tag was read on
+     * @param uid    Tag UID
+     * @param error  Error message
+     */
+    private void sendNdefErrorEvent(CardReader reader, Uid uid, String error) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", "ndef-error");
+        event.put("uid", uid.toHex());
+        event.put("readerIndex", reader.getReaderIndex());
+        event.put("readerName", reader.getReaderName());
+        event.put("error", error);
+
+        eventBus.publish(new EventBus.Event("ndef-error", reader.getReaderName(), uid, gson.toJson(event), false));
+    }
+
+    /**
+     * Publishes an error event.
+     * Error events are status messages and may be dropped if the browser falls behind.
+     * 
+     * @param reader Reader that failed, or null if the error concerns all readers
+     * @param error  Error message
+     */
+    private void sendErrorEvent(CardReader reader, String error) {
         Map<String, Object> event = new HashMap<>();
         event.put("event", "error");
         event.put("error", error);
+        if (reader != null) {
+            event.put("readerIndex", reader.getReaderIndex());
+            event.put("readerName", reader.getReaderName());
+        }
 
         String eventJson = gson.toJson(event);
-        NativeMessagingHost.sendMessage(eventJson);
+        eventBus.publish(new EventBus.Event("error", reader != null ? reader.getReaderName() : null, null,
+            eventJson, true));
+    }
+
+    /**
+     * Publishes a readers changed event.
+     * 
+     * @param readers Reader names now, in the order of list-readers
+     * @param added   Readers attached
+     * @param removed Readers detached
+     */
+    private void sendReadersChangedEvent(List<String> readers, List<String> added, List<String> removed) {
+        Map<String, Object> event = new HashMap<>();
+        event.put("event", "readers-changed");
+        event.put("readers", readers);
+        event.put("count", readers.size());
+        event.put("added", added);
+        event.put("removed", removed);
+
+        eventBus.publish(new EventBus.Event("readers-changed", null, null, gson.toJson(event), false));
     }
 
     /**
@@ -276,7 +1395,7 @@ public class CommandHandler {
      * @param errorMessage Error message
      * @return JSON error response
      */
-    private String createErrorResponse(String errorMessage) {
+    String createErrorResponse(String errorMessage) {
         Map<String, Object> response = new HashMap<>();
         response.put("success", false);
         response.put("error", errorMessage);
@@ -288,6 +1407,18 @@ public class CommandHandler {
      * Cleanup method to be called on shutdown.
      */
     public void cleanup() {
-        stopListening();
+        synchronized (listeningLock) {
+            cancelledRequests = listeningRequests.incrementAndGet();
+            for (ListeningClient client : listeningClients) {
+                client.readers = null;
+            }
+            listeningClients.clear();
+            for (ListeningClient client : readerWatchers) {
+                client.watchesReaders = false;
+            }
+            readerWatchers.clear();
+            updateReadersWatched();
+            stopListening();
+        }
     }
 }
@@ -0,0 +1,136 @@
+package info.nfcreader.host;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Recording of the commands a browser sent, for replay by {@code loadgen}.
+ *
+ * One command per line: milliseconds since the host started reading, a
+ * space, and the command JSON. Lines starting with {@code #} are comments.
+ * <pre>
+ * 0 {"action":"get-version","id":1}
+ * 12 {"action":"list-readers","id":2}
+ * 15 {"action":"start-listening","readerIndex":0,"id":3}
+ * </pre>
+ */
+public class CommandTrace {
+
+    /** System property naming a file the native messaging host records its commands to. */
+    public static final String RECORD_PROPERTY = "nfcreader.trace";
+
+    /**
+     * One recorded command.
+     */
+    public static final class Entry {
+        private final long offsetMillis;
+        private final JsonObject command;
+
+        Entry(long offsetMillis, JsonObject command) {
+            this.offsetMillis = offsetMillis;
+            this.command = command;
+        }
+
+        /**
+         * @return Time of the command, ms since the first one was read
+         */
+        public long getOffsetMillis() {
+            return offsetMillis;
+        }
+
+        public JsonObject getCommand() {
+            return command;
+        }
+    }
+
+    private final BufferedWriter writer;
+    private final long startedNanos = System.nanoTime();
+
+    private CommandTrace(BufferedWriter writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Starts recording to the file named by {@value #RECORD_PROPERTY}.
+     * Failures are reported and leave the host running without a recording.
+     * @return Recorder, or null if not configured or unavailable
+     */
+    static CommandTrace openConfigured() {
+        String file = System.getProperty(RECORD_PROPERTY);
+        if (file == null || file.isEmpty()) {
+            return null;
+        }
+        try {
+            return new CommandTrace(Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            System.err.println("Command trace disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Appends a command received now. Called from the reading thread only.
+     * @param command Command as received
+     */
+    void record(JsonObject command) {
+        try {
+            writer.write(Long.toString((System.nanoTime() - startedNanos) / 1_000_000));
+            writer.write(' ');
+            writer.write(Json.GSON.toJson(command));
+            writer.newLine();
+            // A browser usually ends the host by killing it
+            writer.flush();
+        } catch (IOException e) {
+            System.err.println("Cannot record command: " + e.getMessage());
+        }
+    }
+
+    void close() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // Everything recorded has been flushed
+        }
+    }
+
+    /**
+     * Reads a recorded trace.
+     * @param file Trace file
+     * @return Commands in the order they were recorded
+     * @throws IllegalArgumentException on malformed lines
+     */
+    public static List<Entry> read(Path file) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                int space = line.indexOf(' ');
+                try {
+                    entries.add(new Entry(Long.parseLong(line.substring(0, space)),
+                        Json.GSON.fromJson(line.substring(space + 1), JsonObject.class)));
+                } catch (RuntimeException e) {
+                    // Covers a missing space, a bad offset and JsonParseException
+                    throw new IllegalArgumentException("Line " + number + " of " + file + ": " + e.getMessage(), e);
+                }
+            }
+        }
+        return entries;
+    }
+}
@@ -0,0 +1,201 @@
+package info.nfcreader.host;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Native messaging entry point in front of a {@link HostDaemon}.
+ *
+ * Connects to the user's daemon, starting it first if none is running, and
+ * copies the browser's frames to it and its frames back unchanged. When the
+ * browser closes stdin the daemon finishes the pending commands and closes
+ * the connection, which ends the forwarder.
+ */
+class DaemonForwarder {
+
+    /** System property to turn the daemon off; the host then serves the browser in-process. */
+    static final String ENABLED_PROPERTY = "nfcreader.daemon";
+
+    // How long to wait for a freshly started daemon to accept connections
+    private static final long START_TIMEOUT_MS = 5000;
+    private static final long CONNECT_RETRY_MS = 50;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private DaemonForwarder() {
+    }
+
+    /**
+     * The daemon is not used while recording a command trace, which records
+     * the commands of one browser session.
+     * @return true unless turned off, recording or not supported by this JVM
+     */
+    static boolean isEnabled() {
+        return HostDaemon.isSupported() && Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"))
+            && System.getProperty(CommandTrace.RECORD_PROPERTY) == null;
+    }
+
+    /**
+     * Connects to the daemon on the given socket, starting one if needed.
+     * @param socketPath Path of the daemon's socket
+     * @return Connected channel, or null if no daemon could be reached
+     */
+    static SocketChannel connectOrStart(Path socketPath) {
+        try {
+            HostDaemon.preparePrivateDirectory(socketPath.toAbsolutePath().getParent());
+        } catch (IOException e) {
+            // Someone else's directory; serve the browser in-process instead
+            System.err.println("Not using the host daemon: " + e.getMessage());
+            return null;
+        }
+        try {
+            return HostDaemon.connect(socketPath);
+        } catch (IOException e) {
+            // No daemon yet
+        }
+
+        Process daemon;
+        try {
+            daemon = new ProcessBuilder(daemonCommand(socketPath))
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+            daemon.getOutputStream().close();
+        } catch (IOException | IllegalStateException e) {
+            System.err.println("Cannot start host daemon: " + e.getMessage());
+            return null;
+        }
+
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                return HostDaemon.connect(socketPath);
+            } catch (IOException e) {
+                // Not listening yet; another forwarder's daemon may win the lock, which is fine too
+            }
+            try {
+                Thread.sleep(CONNECT_RETRY_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        System.err.println("Host daemon did not start within " + START_TIMEOUT_MS + " ms");
+        return null;
+    }
+
+    /**
+     * Builds the command line starting a daemon from the same installation,
+     * with the same settings as this host. Uses the jpackage launcher or the
+     * native executable when running from one of them, this JVM and class
+     * path otherwise. The jpackage launcher takes its JVM options from its
+     * configuration and the inherited environment, as this host did.
+     */
+    static List<String> daemonCommand(Path socketPath) {
+        List<String> command = new ArrayList<>();
+        String launcher = System.getProperty("jpackage.app-path");
+        if (launcher != null) {
+            command.add(launcher);
+        } else if (System.getProperty("org.graalvm.nativeimage.imagecode") != null) {
+            command.add(ProcessHandle.current().info().command()
+                .orElseThrow(() -> new IllegalStateException("Unknown executable path")));
+            command.addAll(settingOptions());
+        } else {
+            command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+            command.addAll(jvmOptions());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(Main.class.getName());
+        }
+        command.add("daemon");
+        command.add(socketPath.toString());
+        return command;
+    }
+
+    /**
+     * Options of this JVM, such as the PC/SC library or the heap size, and
+     * the host's settings. Agents are left out: the daemon's debugger or
+     * profiler would clash with the one attached to this JVM.
+     */
+    private static List<String> jvmOptions() {
+        List<String> options = new ArrayList<>();
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (!argument.startsWith("-Dnfcreader.") && !argument.startsWith("-agentlib:")
+                    && !argument.startsWith("-agentpath:") && !argument.startsWith("-javaagent:")
+                    && !argument.startsWith("-Xrunjdwp")) {
+                options.add(argument);
+            }
+        }
+        options.addAll(settingOptions());
+        return options;
+    }
+
+    /**
+     * @return The {@link HostDaemon#settings()} as -D options
+     */
+    private static List<String> settingOptions() {
+        List<String> options = new ArrayList<>();
+        for (Map.Entry<String, String> setting : HostDaemon.settings().entrySet()) {
+            options.add("-D" + setting.getKey() + "=" + setting.getValue());
+        }
+        return options;
+    }
+
+    /**
+     * Forwards stdin to the daemon and its messages to stdout until the daemon closes the connection.
+     * @param daemon Connected channel
+     */
+    static void forward(SocketChannel daemon) throws IOException {
+        forward(daemon, new FileInputStream(FileDescriptor.in).getChannel(), new FileOutputStream(FileDescriptor.out));
+    }
+
+    /**
+     * @param daemon Connected channel
+     * @param in     Frames from the browser
+     * @param out    Frames to the browser
+     */
+    static void forward(SocketChannel daemon, ReadableByteChannel in, OutputStream out) throws IOException {
+        Thread commands = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            try {
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        daemon.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                // Lets the daemon drain the pending commands and close the connection
+                daemon.shutdownOutput();
+            } catch (IOException e) {
+                // Daemon gone; the message loop below ends as well
+            }
+        }, "nfc-forward-commands");
+        commands.setDaemon(true);
+        commands.start();
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try {
+            int read;
+            while ((read = daemon.read(buffer)) != -1) {
+                out.write(buffer.array(), 0, read);
+                out.flush();
+                buffer.clear();
+            }
+        } finally {
+            daemon.close();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package info.nfcreader.host;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publish/subscribe fan-out of the host's card and status events.
+ *
+ * A tap is read once by its listener and published into a ring buffer. Every
+ * subscriber (the browser, a console listener, a daemon client, a logger)
+ * reads the ring through its own cursor on its own delivery thread, so any
+ * number of consumers share one read without further PC/SC traffic, and a
+ * slow consumer only holds up itself.
+ *
+ * Publishing is lock-free: producers claim a sequence number and store the
+ * event in its slot, nothing is copied per subscriber. A subscriber that
+ * falls a whole ring behind is handled by its overflow policy.
+ */
+public class EventBus {
+
+    static final int DEFAULT_CAPACITY = 1024;
+
+    // How long a producer waits between checks of a blocking subscriber that is a full ring behind
+    private static final long BLOCKED_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    /**
+     * What happens when a subscriber is a full ring behind the producers.
+     */
+    public enum Overflow {
+        /** The subscriber skips to the oldest event still in the ring; the skipped ones are counted as dropped. */
+        DROP_OLDEST,
+        /**
+         * Producers wait for the subscriber. For consumers that must see every
+         * event and hand it off without blocking, such as a message writer.
+         */
+        BLOCK
+    }
+
+    /**
+     * Receives the events of a subscription, on its delivery thread.
+     */
+    public interface Subscriber {
+        void onEvent(Event event);
+    }
+
+    /**
+     * One published event: the serialized message and what consumers filter on.
+     */
+    public static final class Event {
+        private final String name;
+        private final String readerName;
+        private final Uid uid;
+        private final String json;
+        private final boolean status;
+        private final long publishedAtNanos = System.nanoTime();
+
+        /**
+         * @param name       Event name, e.g. card-detected
+         * @param readerName Reader the event is about, or null
+         * @param uid        Card UID, or null
+         * @param json       Serialized event as sent to the browser
+         * @param status     true for status messages, which message writers may drop
+         */
+        Event(String name, String readerName, Uid uid, String json, boolean status) {
+            this.name = name;
+            this.readerName = readerName;
+            this.uid = uid;
+            this.json = json;
+            this.status = status;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getReaderName() {
+            return readerName;
+        }
+
+        public Uid getUid() {
+            return uid;
+        }
+
+        public String getJson() {
+            return json;
+        }
+
+        public boolean isStatus() {
+            return status;
+        }
+    }
+
+    /** Immutable slot content, so a reader never sees a sequence with another slot's event. */
+    private static final class Slot {
+        final long sequence;
+        final Event event;
+
+        Slot(long sequence, Event event) {
+            this.sequence = sequence;
+            this.event = event;
+        }
+    }
+
+    private final AtomicReferenceArray<Slot> ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    public EventBus() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity Number of events kept in the ring; a power of two
+     */
+    public EventBus(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Starts delivering events published from now on.
+     * @param name       Name of the subscriber, for metrics and thread names
+     * @param overflow   Policy for when the subscriber falls a full ring behind
+     * @param subscriber Receiver of the events
+     * @return Subscription, to close when done
+     */
+    public Subscription subscribe(String name, Overflow overflow, Subscriber subscriber) {
+        Subscription subscription = new Subscription(name, overflow, subscriber, claimed.get());
+        subscriptions.add(subscription);
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Gets the current subscriptions.
+     * @return Subscriptions in the order they were made
+     */
+    public List<Subscription> getSubscriptions() {
+        return subscriptions;
+    }
+
+    /**
+     * Publishes an event to every subscriber. Never blocks unless a
+     * {@link Overflow#BLOCK} subscriber is a full ring behind.
+     * @param event Event
+     */
+    public void publish(Event event) {
+        long sequence = claimed.getAndIncrement();
+        awaitBlockingSubscribers(sequence);
+
+        int index = (int) sequence & mask;
+        Slot slot = new Slot(sequence, event);
+        Slot current;
+        do {
+            current = ring.get(index);
+            if (current != null && current.sequence > sequence) {
+                // This producer stalled for a whole ring; a later event already took the slot
+                return;
+            }
+        } while (!ring.compareAndSet(index, current, slot));
+
+        for (Subscription subscription : subscriptions) {
+            if (subscription.waiting) {
+                LockSupport.unpark(subscription.thread);
+            }
+        }
+    }
+
+    private void awaitBlockingSubscribers(long sequence) {
+        // The slot still holds the event published one ring earlier
+        long previous = sequence - ring.length();
+        for (Subscription subscription : subscriptions) {
+            if (subscription.overflow != Overflow.BLOCK) {
+                continue;
+            }
+            while (subscription.next <= previous && !subscription.closed) {
+                LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+            }
+        }
+    }
+
+    /**
+     * One subscriber's cursor into the ring and its delivery thread.
+     */
+    public final class Subscription {
+
+        private final String name;
+        private final Overflow overflow;
+        private final Subscriber subscriber;
+        private final Thread thread;
+        private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+        // Next sequence to deliver; written by the delivery thread only
+        private volatile long next;
+        private volatile long delivered;
+        private volatile long dropped;
+        private volatile boolean waiting;
+        private volatile boolean closed;
+
+        private Subscription(String name, Overflow overflow, Subscriber subscriber, long next) {
+            this.name = name;
+            this.overflow = overflow;
+            this.subscriber = subscriber;
+            this.next = next;
+            this.thread = new Thread(this::run, "nfc-events-" + name);
+            this.thread.setDaemon(true);
+        }
+
+        private void run() {
+            while (!closed) {
+                Slot slot = ring.get((int) next & mask);
+                if (slot == null || slot.sequence < next) {
+                    // Producers check the flag after publishing, so an event
+                    // published right before parking still wakes us up
+                    waiting = true;
+                    Slot recheck = ring.get((int) next & mask);
+                    if ((recheck == null || recheck.sequence < next) && !closed) {
+                        LockSupport.park(this);
+                    }
+                    waiting = false;
+                    continue;
+                }
+
+                if (slot.sequence > next) {
+                    // Overwritten before we got to it (DROP_OLDEST only)
+                    long oldest = slot.sequence - ring.length() + 1;
+                    dropped += oldest - next;
+                    next = oldest;
+                    continue;
+                }
+
+                try {
+                    subscriber.onEvent(slot.event);
+                } catch (RuntimeException e) {
+                    System.err.println("Event subscriber " + name + " failed: " + e.getMessage());
+                }
+                deliveryLatency.recordSince(slot.event.publishedAtNanos);
+                delivered++;
+                // Frees the slot for producers waiting on a BLOCK subscriber
+                next++;
+            }
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Overflow getOverflow() {
+            return overflow;
+        }
+
+        /**
+         * @return Number of events handed to the subscriber
+         */
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /**
+         * @return Number of events skipped because the subscriber fell a full ring behind
+         */
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * Gets the time from publishing an event until the subscriber returned from it.
+         * @return Delivery latency histogram
+         */
+        public LatencyHistogram getDeliveryLatency() {
+            return deliveryLatency;
+        }
+
+        /**
+         * Stops delivery. Events already being delivered complete; may be
+         * called from the subscriber itself.
+         */
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+            LockSupport.unpark(thread);
+        }
+
+        /**
+         * Waits until every event published so far has been delivered.
+         * @param timeoutMs Maximum time to wait
+         * @return false on timeout
+         */
+        public boolean awaitDelivered(long timeoutMs) {
+            long target = claimed.get();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            while (next < target && !closed) {
+                if (System.nanoTime() - deadline >= 0) {
+                    return false;
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+            return true;
+        }
+    }
+}
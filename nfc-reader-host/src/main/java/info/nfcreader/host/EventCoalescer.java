@@ -0,0 +1,126 @@
+package info.nfcreader.host;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Groups card-detected events that arrive within a short window into one
+ * cards-detected message, so a burst of taps on several readers (a badge and
+ * a wristband, a tag seen by two adjacent antennas) costs the browser one
+ * message instead of one per reader.
+ *
+ * The first card opens the window; the batch is sent when the window ends,
+ * or as soon as every listened reader has a card in it, so a lone tap on a
+ * single reader is never held back; repeated taps on one reader count once.
+ * Cards keep their arrival order and their reader fields. Other events of the
+ * window (NDEF chunks) follow the batch in their order; status events are
+ * never held.
+ * <pre>
+ * {"event":"cards-detected","cards":[{"event":"card-detected",...},{"event":"card-detected",...}]}
+ * </pre>
+ */
+class EventCoalescer implements EventBus.Subscriber {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nfc-event-coalescer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final EventBus.Subscriber downstream;
+    private final LongSupplier windowMs;
+    private final IntSupplier readerCount;
+
+    // Guarded by this
+    private final List<EventBus.Event> cards = new ArrayList<>();
+    private final List<EventBus.Event> held = new ArrayList<>();
+    private final Set<String> readers = new HashSet<>();
+    private ScheduledFuture<?> flush;
+    // Number of the open window, so a timer that fires after an early flush leaves the next window alone
+    private long window;
+
+    /**
+     * @param downstream  Receiver of the single and batched events
+     * @param windowMs    Current window, 0 to pass every event through
+     * @param readerCount Current number of listened readers
+     */
+    EventCoalescer(EventBus.Subscriber downstream, LongSupplier windowMs, IntSupplier readerCount) {
+        this.downstream = downstream;
+        this.windowMs = windowMs;
+        this.readerCount = readerCount;
+    }
+
+    @Override
+    public synchronized void onEvent(EventBus.Event event) {
+        boolean open = !cards.isEmpty();
+        if (event.isStatus() || (!open && (windowMs.getAsLong() <= 0 || !isCard(event)))) {
+            downstream.onEvent(event);
+            return;
+        }
+        if (!isCard(event)) {
+            held.add(event);
+            return;
+        }
+
+        cards.add(event);
+        readers.add(event.getReaderName());
+        if (readers.size() >= readerCount.getAsInt()) {
+            flush();
+        } else if (!open) {
+            long current = window;
+            flush = TIMER.schedule(() -> flushWindow(current), windowMs.getAsLong(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static boolean isCard(EventBus.Event event) {
+        return event.getName().equals("card-detected");
+    }
+
+    private synchronized void flushWindow(long expected) {
+        if (window == expected) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        window++;
+        if (flush != null) {
+            flush.cancel(false);
+            flush = null;
+        }
+        if (cards.size() == 1) {
+            downstream.onEvent(cards.get(0));
+        } else if (!cards.isEmpty()) {
+            downstream.onEvent(batch(cards));
+        }
+        cards.clear();
+        readers.clear();
+        for (EventBus.Event event : held) {
+            downstream.onEvent(event);
+        }
+        held.clear();
+    }
+
+    /**
+     * Joins the serialized events, without parsing them again.
+     */
+    static EventBus.Event batch(List<EventBus.Event> cards) {
+        StringBuilder json = new StringBuilder("{\"event\":\"cards-detected\",\"cards\":[");
+        for (int i = 0; i < cards.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(cards.get(i).getJson());
+        }
+        json.append("]}");
+        return new EventBus.Event("cards-detected", null, null, json.toString(), false);
+    }
+}
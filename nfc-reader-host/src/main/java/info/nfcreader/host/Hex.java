@@ -0,0 +1,71 @@
+package info.nfcreader.host;
+
+/**
+ * Uppercase hex encoding through a lookup table, for UIDs and APDUs.
+ */
+final class Hex {
+
+    // Two hex digits per byte value
+    static final char[] PAIRS = new char[512];
+
+    static {
+        char[] digits = "0123456789ABCDEF".toCharArray();
+        for (int i = 0; i < 256; i++) {
+            PAIRS[2 * i] = digits[i >>> 4];
+            PAIRS[2 * i + 1] = digits[i & 0x0F];
+        }
+    }
+
+    private Hex() {
+    }
+
+    /**
+     * Writes the two hex digits of a byte.
+     * @param b     Byte to encode
+     * @param chars Destination
+     * @param pos   Position of the first digit
+     */
+    static void put(byte b, char[] chars, int pos) {
+        int pair = 2 * (b & 0xFF);
+        chars[pos] = PAIRS[pair];
+        chars[pos + 1] = PAIRS[pair + 1];
+    }
+
+    /**
+     * @param bytes Bytes to encode
+     * @return Uppercase hex without separators
+     */
+    static String encode(byte[] bytes) {
+        char[] chars = new char[2 * bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            put(bytes[i], chars, 2 * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Decodes hex; whitespace, colons and dashes between the bytes are ignored.
+     * @param hex Hex string such as "FF CA 00 00 00"
+     * @return Decoded bytes
+     */
+    static byte[] decode(String hex) {
+        char[] digits = new char[hex.length()];
+        int count = 0;
+        for (int i = 0; i < hex.length(); i++) {
+            char c = hex.charAt(i);
+            if (Character.digit(c, 16) >= 0) {
+                digits[count++] = c;
+            } else if (!Character.isWhitespace(c) && c != ':' && c != '-') {
+                throw new IllegalArgumentException("Invalid hex character '" + c + "' in: " + hex);
+            }
+        }
+        if (count % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+        }
+        byte[] bytes = new byte[count / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (Character.digit(digits[2 * i], 16) << 4 | Character.digit(digits[2 * i + 1], 16));
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,528 @@
+package info.nfcreader.host;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+/**
+ * Long-lived host shared by every browser profile of a user.
+ *
+ * Each browser spawns its own native messaging host; with the daemon they all
+ * become thin forwarders (see {@link DaemonForwarder}) connected to one
+ * process over a Unix domain socket. That process owns the reader manager and
+ * the listeners, so the readers are not fought over and reconnects skip the
+ * JVM and PC/SC startup.
+ *
+ * Clients speak the native messaging framing. Responses go to the client that
+ * sent the command; each client subscribes to the card events on the
+ * handler's {@link EventBus}. Listening is per client: a client's
+ * start-listening and stop-listening only change its own readers, it receives
+ * the card events of those readers only, and its listening ends when it
+ * disconnects. Without clients the daemon exits after an idle timeout.
+ *
+ * The socket lives in a directory only the user can access, and both sides
+ * check that the other end belongs to the same user, so other local users can
+ * neither receive the browser's commands nor inject card events.
+ *
+ * Unix domain socket channels are Java 16+ and are looked up reflectively,
+ * so the same jar still runs on Java 11, without the daemon.
+ */
+public class HostDaemon {
+
+    /** System property overriding the socket path. */
+    public static final String SOCKET_PROPERTY = "nfcreader.daemon.socket";
+
+    /** How long the daemon stays up without clients. */
+    static final long DEFAULT_IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+    // How long to wait for a disconnected client's commands and messages
+    private static final long DRAIN_TIMEOUT_MS = 2000;
+
+    private static final ProtocolFamily UNIX = unixProtocolFamily();
+
+    private final CommandHandler commandHandler;
+    private final Path socketPath;
+    private final long idleTimeoutMs;
+    private final Set<Client> clients = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService idleTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "nfc-daemon-idle");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final CountDownLatch terminated = new CountDownLatch(1);
+
+    private FileChannel lockFile;
+    private ServerSocketChannel server;
+    private ScheduledFuture<?> idleExit;
+    private boolean stopped;
+
+    /**
+     * @param commandHandler Command handler shared by all clients
+     * @param socketPath     Path of the Unix domain socket
+     * @param idleTimeoutMs  Time without clients before the daemon stops
+     */
+    public HostDaemon(CommandHandler commandHandler, Path socketPath, long idleTimeoutMs) {
+        this.commandHandler = commandHandler;
+        this.socketPath = socketPath;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Checks whether this JVM supports Unix domain socket channels.
+     * @return true on Java 16+
+     */
+    public static boolean isSupported() {
+        return UNIX != null;
+    }
+
+    private static ProtocolFamily unixProtocolFamily() {
+        try {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets the socket path of the current user, host version and settings.
+     * The socket lives in a directory private to the user, under
+     * $XDG_RUNTIME_DIR when set and the temporary directory otherwise. The
+     * version is part of the name, so an upgraded host does not talk to a
+     * daemon left over from the previous version, and so is a hash of the
+     * {@link #settings()}, so a host started with other settings gets a
+     * daemon of its own.
+     * @return Socket path, or the value of {@value #SOCKET_PROPERTY}
+     */
+    public static Path defaultSocketPath() {
+        String configured = System.getProperty(SOCKET_PROPERTY);
+        if (configured != null && !configured.isEmpty()) {
+            return Paths.get(configured);
+        }
+        String runtimeDir = System.getenv("XDG_RUNTIME_DIR");
+        Path directory = runtimeDir != null && !runtimeDir.isEmpty()
+            ? Paths.get(runtimeDir, "nfc-reader-host")
+            : Paths.get(System.getProperty("java.io.tmpdir"), "nfc-reader-host-" + System.getProperty("user.name"));
+        return directory.resolve("host-" + Main.VERSION + settingsSuffix() + ".sock");
+    }
+
+    /**
+     * Gets the nfcreader.* system properties a daemon has to share with the
+     * hosts forwarding to it, such as the journal, timing and virtual reader
+     * settings. The daemon switch and socket path are not among them.
+     * @return Property values by name, sorted by name
+     */
+    static SortedMap<String, String> settings() {
+        SortedMap<String, String> settings = new TreeMap<>();
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("nfcreader.") && !name.equals(SOCKET_PROPERTY)
+                    && !name.equals(DaemonForwarder.ENABLED_PROPERTY)) {
+                settings.put(name, System.getProperty(name));
+            }
+        }
+        return settings;
+    }
+
+    /**
+     * @return Empty without settings, a dash and a hash of the settings otherwise
+     */
+    private static String settingsSuffix() {
+        SortedMap<String, String> settings = settings();
+        if (settings.isEmpty()) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> setting : settings.entrySet()) {
+            text.append(setting.getKey()).append('=').append(setting.getValue()).append('\n');
+        }
+        return String.format("-%08x", text.toString().hashCode());
+    }
+
+    /**
+     * Connects to a daemon, after checking that its socket and the directory
+     * holding it belong to the current user and, where the JVM can tell, that
+     * the process accepting the connection runs as the current user too.
+     * @param socketPath Path of the daemon's socket
+     * @return Connected blocking channel
+     * @throws IOException if no daemon is listening, the socket belongs to
+     *         someone else, or Unix domain sockets are not supported
+     */
+    public static SocketChannel connect(Path socketPath) throws IOException {
+        checkPrivateDirectory(socketPath.toAbsolutePath().getParent());
+        checkOwner(socketPath);
+        SocketChannel channel = open(SocketChannel.class);
+        try {
+            channel.connect(address(socketPath));
+            checkPeer(channel);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates the directory for the socket, readable only by the current user,
+     * or checks that an existing one is.
+     * @param directory Directory of the socket
+     * @throws IOException if it belongs to someone else or others can access it
+     */
+    static void preparePrivateDirectory(Path directory) throws IOException {
+        try {
+            if (isPosix()) {
+                Files.createDirectory(directory,
+                    PosixFilePermissions.asFileAttribute(EnumSet.of(PosixFilePermission.OWNER_READ,
+                        PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_EXECUTE)));
+            } else {
+                Files.createDirectory(directory);
+            }
+        } catch (FileAlreadyExistsException e) {
+            // Checked below
+        }
+        checkPrivateDirectory(directory);
+    }
+
+    /**
+     * Checks that a directory is no symbolic link, belongs to the current
+     * user and grants no permissions to group or others.
+     * @throws IOException if it does not
+     */
+    static void checkPrivateDirectory(Path directory) throws IOException {
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            throw new IOException("Not a directory: " + directory);
+        }
+        checkOwner(directory);
+        if (isPosix()) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory, LinkOption.NOFOLLOW_LINKS);
+            for (PosixFilePermission permission : permissions) {
+                if (!permission.name().startsWith("OWNER_")) {
+                    throw new IOException("Daemon directory " + directory + " is accessible by other users ("
+                        + PosixFilePermissions.toString(permissions) + ")");
+                }
+            }
+        }
+    }
+
+    private static void checkOwner(Path path) throws IOException {
+        UserPrincipal owner = Files.getOwner(path, LinkOption.NOFOLLOW_LINKS);
+        if (!owner.equals(currentUser())) {
+            throw new IOException(path + " belongs to " + owner.getName() + ", not to the current user");
+        }
+    }
+
+    private static UserPrincipal currentUser() throws IOException {
+        return FileSystems.getDefault().getUserPrincipalLookupService()
+            .lookupPrincipalByName(System.getProperty("user.name"));
+    }
+
+    private static boolean isPosix() {
+        return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+    }
+
+    /**
+     * Checks the user of the process at the other end of a connection, using
+     * SO_PEERCRED (Linux, macOS). Looked up reflectively like the channels; a
+     * JVM without it relies on the private directory alone.
+     * @throws IOException if the peer runs as another user
+     */
+    static void checkPeer(SocketChannel channel) throws IOException {
+        UserPrincipal peer;
+        try {
+            SocketOption<?> option = (SocketOption<?>) Class.forName("jdk.net.ExtendedSocketOptions")
+                .getField("SO_PEERCRED").get(null);
+            if (!channel.supportedOptions().contains(option)) {
+                return;
+            }
+            Object principal = channel.getOption(option);
+            peer = (UserPrincipal) principal.getClass().getMethod("user").invoke(principal);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return;
+        }
+        if (!peer.equals(currentUser())) {
+            throw new IOException("Peer runs as " + peer.getName() + ", not as the current user");
+        }
+    }
+
+    private static <T> T open(Class<T> type) throws IOException {
+        if (UNIX == null) {
+            throw new IOException("Unix domain sockets need Java 16+");
+        }
+        try {
+            return type.cast(type.getMethod("open", ProtocolFamily.class).invoke(null, UNIX));
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Cannot open a Unix domain socket: " + e, e);
+        }
+    }
+
+    private static SocketAddress address(Path socketPath) throws IOException {
+        try {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                .getMethod("of", Path.class).invoke(null, socketPath);
+        } catch (ReflectiveOperationException e) {
+            throw new IOException("Unix domain sockets need Java 16+", e);
+        }
+    }
+
+    /**
+     * Binds the socket and starts accepting clients.
+     * A lock file next to the socket makes sure only one daemon serves it;
+     * a socket file left behind by a daemon that died is replaced.
+     * @return false if another daemon already serves the socket
+     * @throws IOException if the socket's directory is not private to the user
+     */
+    public synchronized boolean start() throws IOException {
+        preparePrivateDirectory(socketPath.toAbsolutePath().getParent());
+        Path lockPath = Paths.get(socketPath + ".lock");
+        lockFile = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockFile.tryLock();
+        } catch (OverlappingFileLockException e) {
+            // Held by another daemon in this JVM
+            lock = null;
+        }
+        if (lock == null) {
+            lockFile.close();
+            return false;
+        }
+
+        server = open(ServerSocketChannel.class);
+        if (isPosix()) {
+            // The JVM cannot set a umask for bind(), so the socket is bound under a
+            // temporary name, restricted, and only then moved to where clients look
+            Path bound = socketPath.resolveSibling(socketPath.getFileName() + "." + ProcessHandle.current().pid());
+            Files.deleteIfExists(bound);
+            server.bind(address(bound));
+            Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            Files.move(bound, socketPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            // Windows: the directory is in the user's own temporary directory
+            Files.deleteIfExists(socketPath);
+            server.bind(address(socketPath));
+        }
+
+        // Card events from the shared listeners go to every client, through its own subscription
+        commandHandler.detachStandardOutput();
+        scheduleIdleExit();
+
+        Thread acceptThread = new Thread(this::acceptClients, "nfc-daemon-accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        return true;
+    }
+
+    /**
+     * Waits until the daemon has stopped.
+     */
+    public void awaitStop() throws InterruptedException {
+        terminated.await();
+    }
+
+    /**
+     * Disconnects all clients, stops listening and removes the socket.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (server == null || stopped) {
+                return;
+            }
+            stopped = true;
+            if (idleExit != null) {
+                idleExit.cancel(false);
+            }
+            try {
+                server.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+        for (Client client : clients) {
+            client.close();
+        }
+        commandHandler.cleanup();
+        idleTimer.shutdown();
+        try {
+            Files.deleteIfExists(socketPath);
+            lockFile.close();
+        } catch (IOException e) {
+            System.err.println("Error removing daemon socket: " + e.getMessage());
+        }
+        terminated.countDown();
+    }
+
+    /**
+     * @return Number of connected clients
+     */
+    int getClientCount() {
+        return clients.size();
+    }
+
+    private void acceptClients() {
+        try {
+            while (true) {
+                SocketChannel channel = server.accept();
+                try {
+                    checkPeer(channel);
+                } catch (IOException e) {
+                    System.err.println("Refusing daemon client: " + e.getMessage());
+                    channel.close();
+                    continue;
+                }
+                Client client = new Client(channel);
+                synchronized (this) {
+                    clients.add(client);
+                    if (idleExit != null) {
+                        idleExit.cancel(false);
+                        idleExit = null;
+                    }
+                }
+                client.start();
+            }
+        } catch (ClosedChannelException e) {
+            // Stopped
+        } catch (IOException e) {
+            System.err.println("Error accepting daemon client: " + e.getMessage());
+        } finally {
+            stop();
+        }
+    }
+
+    private void disconnected(Client client) {
+        // Ends the client's listening; the other clients' readers keep listening
+        commandHandler.release(client.listening);
+        synchronized (this) {
+            if (clients.remove(client) && clients.isEmpty()) {
+                scheduleIdleExit();
+            }
+        }
+    }
+
+    private synchronized void scheduleIdleExit() {
+        if (!stopped) {
+            idleExit = idleTimer.schedule(this::stop, idleTimeoutMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * One connected forwarder: reads its commands and writes their responses.
+     */
+    private final class Client {
+
+        private final SocketChannel channel;
+        private final CommandHandler.ListeningClient listening = commandHandler.newClient();
+        private final MessageWriter responses;
+        private final CommandDispatcher dispatcher;
+        private final EventBus.Subscription events;
+        private final Thread thread;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+            this.responses = MessageWriter.start(new MessageCodec(null, new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    write(new byte[] { (byte) b }, 0, 1);
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    Client.this.write(bytes, offset, length);
+                }
+            }));
+            this.dispatcher = new CommandDispatcher(commandHandler, listening, responses::send);
+            // The writer never blocks, so a stalled client only grows its own queue
+            this.events = commandHandler.getEventBus().subscribe("daemon-client", EventBus.Overflow.BLOCK,
+                commandHandler.coalescing(listening, event -> {
+                    if (event.isStatus()) {
+                        responses.sendStatus(event.getJson());
+                    } else {
+                        responses.send(event.getJson());
+                    }
+                }));
+            this.thread = new Thread(this::run, "nfc-daemon-client");
+            this.thread.setDaemon(true);
+        }
+
+        void start() {
+            thread.start();
+        }
+
+        private void run() {
+            MessageCodec input = new MessageCodec(channel, null);
+            try {
+                while (true) {
+                    JsonObject message;
+                    try {
+                        message = input.readMessage();
+                    } catch (JsonParseException e) {
+                        responses.send(commandHandler.createErrorResponse("Error processing command: " + e.getMessage()));
+                        continue;
+                    }
+                    if (message == null) {
+                        break;
+                    }
+                    dispatcher.dispatch(message);
+                }
+            } catch (IOException e) {
+                // Forwarder went away or sent a broken frame
+            } finally {
+                events.close();
+                dispatcher.shutdown(DRAIN_TIMEOUT_MS);
+                responses.close(DRAIN_TIMEOUT_MS);
+                close();
+                disconnected(this);
+            }
+        }
+
+        /**
+         * Writes whole frames from the client's message writer.
+         */
+        void write(byte[] bytes, int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package info.nfcreader.host;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * The host's shared Gson instance.
+ *
+ * Gson builds its type adapters on first use. The class initializer
+ * serializes a response of every shape the host sends, so the adapters are
+ * cached up front; in the native image this class is initialized at build
+ * time and the warmed instance is part of the image heap.
+ */
+final class Json {
+
+    /** Thread-safe; used for all responses and events. */
+    static final Gson GSON = new Gson();
+
+    static {
+        List<Object> readers = new ArrayList<>();
+        Map<String, Object> reader = new LinkedHashMap<>();
+        reader.put("index", 0);
+        reader.put("name", "");
+        reader.put("settleMs", 0L);
+        reader.put("p95Ms", 0.0);
+        readers.add(reader);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("readers", new String[0]);
+        response.put("listeningReaders", readers);
+        response.put("formats", new LinkedHashMap<String, String>());
+        GSON.toJson(response);
+        GSON.fromJson("{\"action\":\"get-version\"}", JsonObject.class);
+    }
+
+    private Json() {
+    }
+}
@@ -0,0 +1,260 @@
+package info.nfcreader.host;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs one lightweight listener per card reader.
+ * The card monitor only signals insertions; each reader's listener performs
+ * its own UID read, so a slow reader never delays taps on the others.
+ * On Java 21+ the listeners run on virtual threads.
+ */
+public class ListenerScheduler {
+
+    /**
+     * Receives the results of the per-reader listeners.
+     * Called concurrently from the listener threads.
+     */
+    public interface TapHandler {
+
+        /**
+         * Called when a UID was read from a card.
+         */
+        void cardRead(CardReader reader, Uid uid);
+
+        /**
+         * Called when reading a card failed.
+         */
+        void readError(CardReader reader, Exception e);
+    }
+
+    private static final ThreadFactory THREAD_FACTORY = createThreadFactory();
+
+    // Replaced as a whole under the scheduler's lock, so signals read it without locking
+    private volatile Map<String, ReaderListener> listeners;
+    private final TapHandler handler;
+    private volatile boolean running = false;
+
+    /**
+     * @param readers Readers to listen on
+     * @param handler Receiver of read results
+     */
+    public ListenerScheduler(List<CardReader> readers, TapHandler handler) {
+        this.handler = handler;
+        Map<String, ReaderListener> initial = new LinkedHashMap<>();
+        for (CardReader reader : readers) {
+            initial.put(reader.getReaderName(), new ReaderListener(reader));
+        }
+        this.listeners = initial;
+    }
+
+    /**
+     * Starts one listener thread per reader.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        for (ReaderListener listener : listeners.values()) {
+            startListener(listener);
+        }
+    }
+
+    /**
+     * Adds a reader, starting its listener if the scheduler runs.
+     * The other readers' listeners and card sessions are left alone.
+     * @param reader Reader to listen on
+     */
+    public synchronized void addReader(CardReader reader) {
+        if (listeners.containsKey(reader.getReaderName())) {
+            return;
+        }
+        ReaderListener listener = new ReaderListener(reader);
+        Map<String, ReaderListener> changed = new LinkedHashMap<>(listeners);
+        changed.put(reader.getReaderName(), listener);
+        listeners = changed;
+        if (running) {
+            startListener(listener);
+        }
+    }
+
+    /**
+     * Stops listening on a reader and closes its card session. Returns
+     * without waiting, like {@link #stop()}.
+     * @param readerName Name of the reader
+     */
+    public synchronized void removeReader(String readerName) {
+        if (!listeners.containsKey(readerName)) {
+            return;
+        }
+        Map<String, ReaderListener> changed = new LinkedHashMap<>(listeners);
+        ReaderListener listener = changed.remove(readerName);
+        listeners = changed;
+        listener.removed = true;
+        if (listener.thread != null) {
+            listener.thread.interrupt();
+            listener.thread = null;
+        }
+        listener.reader.endSession();
+    }
+
+    private void startListener(ReaderListener listener) {
+        listener.thread = THREAD_FACTORY.newThread(listener);
+        listener.thread.setName("nfc-listener-" + listener.reader.getReaderIndex());
+        listener.thread.start();
+    }
+
+    /**
+     * Signals that a card was placed on the named reader.
+     * Returns immediately; the read happens on the reader's listener.
+     * @param readerName Name of the reader
+     */
+    public void cardInserted(String readerName) {
+        ReaderListener listener = listeners.get(readerName);
+        if (listener != null && running) {
+            listener.detectedAtNanos = System.nanoTime();
+            listener.taps.release();
+        }
+    }
+
+    /**
+     * Signals that the card left the named reader, ending its card session.
+     * @param readerName Name of the reader
+     */
+    public void cardRemoved(String readerName) {
+        ReaderListener listener = listeners.get(readerName);
+        if (listener != null) {
+            listener.reader.endSession();
+        }
+    }
+
+    /**
+     * Stops all listeners and closes their card sessions. Returns without
+     * waiting; a listener in the middle of a read finishes it without
+     * reporting the result, closes its session again and exits.
+     */
+    public synchronized void stop() {
+        running = false;
+        for (ReaderListener listener : listeners.values()) {
+            if (listener.thread != null) {
+                listener.thread.interrupt();
+                listener.thread = null;
+            }
+            listener.reader.endSession();
+        }
+    }
+
+    /**
+     * @return Readers handled by this scheduler, in start order
+     */
+    public List<CardReader> getReaders() {
+        List<CardReader> readers = new ArrayList<>();
+        for (ReaderListener listener : listeners.values()) {
+            readers.add(listener.reader);
+        }
+        return Collections.unmodifiableList(readers);
+    }
+
+    /**
+     * @return Names of the readers handled by this scheduler
+     */
+    public List<String> getReaderNames() {
+        return new ArrayList<>(listeners.keySet());
+    }
+
+    /**
+     * @return true if the listeners run on virtual threads
+     */
+    public static boolean usesVirtualThreads() {
+        return !(THREAD_FACTORY instanceof PlatformThreadFactory);
+    }
+
+    private class ReaderListener implements Runnable {
+
+        private final CardReader reader;
+        private final Semaphore taps = new Semaphore(0);
+        private volatile long detectedAtNanos;
+        private volatile boolean removed;
+        private Thread thread;
+
+        ReaderListener(CardReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public void run() {
+            try {
+                listen();
+            } finally {
+                // A read that overlapped stop() may have reopened the session
+                reader.endSession();
+            }
+        }
+
+        private boolean isActive() {
+            return running && !removed;
+        }
+
+        private void listen() {
+            while (isActive()) {
+                try {
+                    taps.acquire();
+                    // Coalesce insertions that arrived while the previous read was running
+                    taps.drainPermits();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                if (!isActive()) {
+                    break;
+                }
+                reader.getMetrics().getWake().recordSince(detectedAtNanos);
+                try {
+                    // Time spent before the listener woke up counts towards the settle time
+                    Uid uid = reader.readCard(detectedAtNanos);
+                    if (uid != null && isActive()) {
+                        handler.cardRead(reader, uid);
+                    }
+                } catch (Exception e) {
+                    if (isActive()) {
+                        handler.readError(reader, e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Uses Thread.ofVirtual() when running on Java 21+, platform daemon threads otherwise.
+     * Looked up reflectively so the same jar runs on Java 11.
+     */
+    private static ThreadFactory createThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return new PlatformThreadFactory();
+        }
+    }
+
+    private static class PlatformThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "nfc-listener-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package info.nfcreader.host;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What get-status reports about the listener: whether it runs, which readers
+ * hold a card, the last UID read on each reader and whether it is healthy.
+ *
+ * Instances are immutable. The listening session replaces the whole snapshot
+ * on every insertion, removal, read and error, so a status request reads one
+ * consistent view without a PC/SC round trip, however many UIs ask.
+ *
+ * Everything is kept per reader, so each client can be told about its own
+ * readers only. Readers that are no longer listened keep their last UID.
+ */
+final class ListenerStatus {
+
+    /** Status before the first start-listening. */
+    static final ListenerStatus IDLE = new ListenerStatus(null, false, Collections.emptyList(), Collections.emptyMap());
+
+    /**
+     * One listened reader.
+     */
+    static final class Reader {
+        private final int index;
+        private final String name;
+        private final TimingModel timing;
+        private final boolean cardPresent;
+        private final String error;
+        private final String lastUid;
+        private final long lastUidMillis;
+        private final long lastEventMillis;
+
+        private Reader(int index, String name, TimingModel timing, boolean cardPresent, String error,
+                String lastUid, long lastUidMillis, long lastEventMillis) {
+            this.index = index;
+            this.name = name;
+            this.timing = timing;
+            this.cardPresent = cardPresent;
+            this.error = error;
+            this.lastUid = lastUid;
+            this.lastUidMillis = lastUidMillis;
+            this.lastEventMillis = lastEventMillis;
+        }
+
+        private Reader withCard(boolean present, long now) {
+            return new Reader(index, name, timing, present, error, lastUid, lastUidMillis, now);
+        }
+
+        private Reader withRead(Uid uid, long now) {
+            return new Reader(index, name, timing, true, null, uid.toHex(), now, now);
+        }
+
+        private Reader withError(String message, long now) {
+            return new Reader(index, name, timing, cardPresent, message, lastUid, lastUidMillis, now);
+        }
+
+        /**
+         * @return The reader as listened by a new session: no card or error known yet
+         */
+        private Reader restarted(CardReader reader) {
+            return new Reader(reader.getReaderIndex(), name, reader.getTimingModel(), false, null,
+                lastUid, lastUidMillis, lastEventMillis);
+        }
+
+        int getIndex() {
+            return index;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return Live timing model; reading it does not touch PC/SC
+         */
+        TimingModel getTiming() {
+            return timing;
+        }
+
+        boolean isCardPresent() {
+            return cardPresent;
+        }
+
+        /**
+         * @return Last error since the last successful read, or null if the reader is healthy
+         */
+        String getError() {
+            return error;
+        }
+
+        /**
+         * @return Hex UID of the last card read on this reader, or null
+         */
+        String getLastUid() {
+            return lastUid;
+        }
+
+        /**
+         * @return Wall clock time the last UID was read, 0 if none was
+         */
+        long getLastUidMillis() {
+            return lastUidMillis;
+        }
+
+        /**
+         * @return Wall clock time of the last card event on this reader, 0 if there was none
+         */
+        long getLastEventMillis() {
+            return lastEventMillis;
+        }
+    }
+
+    // Session the snapshot belongs to; callbacks of a replaced session must not touch it
+    private final Object owner;
+    private final boolean listening;
+    private final List<Reader> readers;
+    // Readers listened earlier, by name, for their last UID
+    private final Map<String, Reader> past;
+    private final long createdNanos = System.nanoTime();
+
+    private ListenerStatus(Object owner, boolean listening, List<Reader> readers, Map<String, Reader> past) {
+        this.owner = owner;
+        this.listening = listening;
+        this.readers = readers;
+        this.past = past;
+    }
+
+    /**
+     * @param owner   Listening session
+     * @param readers Listened readers
+     * @return Status of a session that just started, or of this session now
+     *         listening on other readers. Readers the session already listened
+     *         keep their state; the others start without a card, keeping
+     *         their last UID.
+     */
+    ListenerStatus started(Object owner, List<CardReader> readers) {
+        Map<String, Reader> earlier = new LinkedHashMap<>(past);
+        for (Reader reader : this.readers) {
+            earlier.put(reader.name, reader);
+        }
+        List<Reader> listened = new ArrayList<>();
+        for (CardReader reader : readers) {
+            Reader previous = earlier.remove(reader.getReaderName());
+            if (previous != null && owner == this.owner && this.readers.contains(previous)) {
+                listened.add(previous);
+            } else if (previous != null) {
+                listened.add(previous.restarted(reader));
+            } else {
+                listened.add(new Reader(reader.getReaderIndex(), reader.getReaderName(), reader.getTimingModel(),
+                    false, null, null, 0, 0));
+            }
+        }
+        return new ListenerStatus(owner, true, Collections.unmodifiableList(listened),
+            Collections.unmodifiableMap(earlier));
+    }
+
+    /**
+     * @return Status after listening stopped; the readers keep their last UID
+     */
+    ListenerStatus stopped() {
+        Map<String, Reader> earlier = new LinkedHashMap<>(past);
+        for (Reader reader : readers) {
+            earlier.put(reader.name, reader);
+        }
+        return new ListenerStatus(null, false, Collections.emptyList(), Collections.unmodifiableMap(earlier));
+    }
+
+    /**
+     * @param readerName Reader a card was placed on or removed from
+     * @param present    Whether the reader holds a card now
+     */
+    ListenerStatus withCard(String readerName, boolean present) {
+        long now = System.currentTimeMillis();
+        List<Reader> changed = new ArrayList<>(readers.size());
+        for (Reader reader : readers) {
+            changed.add(reader.name.equals(readerName) ? reader.withCard(present, now) : reader);
+        }
+        return new ListenerStatus(owner, listening, Collections.unmodifiableList(changed), past);
+    }
+
+    /**
+     * @param readerName Reader the card was read on; it is healthy again
+     * @param uid        Card UID
+     */
+    ListenerStatus withRead(String readerName, Uid uid) {
+        long now = System.currentTimeMillis();
+        List<Reader> changed = new ArrayList<>(readers.size());
+        for (Reader reader : readers) {
+            changed.add(reader.name.equals(readerName) ? reader.withRead(uid, now) : reader);
+        }
+        return new ListenerStatus(owner, listening, Collections.unmodifiableList(changed), past);
+    }
+
+    /**
+     * @param readerName Reader that failed, or null if waiting for cards failed on all of them
+     * @param error      Error message
+     */
+    ListenerStatus withError(String readerName, String error) {
+        long now = System.currentTimeMillis();
+        List<Reader> changed = new ArrayList<>(readers.size());
+        for (Reader reader : readers) {
+            changed.add(readerName == null || reader.name.equals(readerName) ? reader.withError(error, now) : reader);
+        }
+        return new ListenerStatus(owner, listening, Collections.unmodifiableList(changed), past);
+    }
+
+    Object getOwner() {
+        return owner;
+    }
+
+    boolean isListening() {
+        return listening;
+    }
+
+    /**
+     * @return Listened readers in the order they were requested; empty when not listening
+     */
+    List<Reader> getReaders() {
+        return readers;
+    }
+
+    /**
+     * @param name Reader name
+     * @return The reader, listened now or earlier; null if it never was
+     */
+    Reader getReader(String name) {
+        for (Reader reader : readers) {
+            if (reader.name.equals(name)) {
+                return reader;
+            }
+        }
+        return past.get(name);
+    }
+
+    /**
+     * @return Time since this snapshot was published, in ms
+     */
+    long getAgeMillis() {
+        return (System.nanoTime() - createdNanos) / 1_000_000;
+    }
+}
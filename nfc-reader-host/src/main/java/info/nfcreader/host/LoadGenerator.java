@@ -0,0 +1,539 @@
+package info.nfcreader.host;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Pipe;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+import info.nfcreader.host.virtual.VirtualReader;
+
+/**
+ * Drives the command and event pipeline at production-like rates, in-process.
+ *
+ * Framed commands go through a pipe into a {@link NativeMessagingHost}, the
+ * same codec, dispatcher, handler and message writer that serve a browser,
+ * while virtual readers produce taps that travel the full listener path.
+ * Commands are sent open-loop on a schedule, a linear rate ramp or a recorded
+ * {@link CommandTrace}, and response latency is measured from the scheduled
+ * time, so a pipeline that falls behind shows it in the percentiles instead
+ * of slowing the load down.
+ *
+ * Every second a line with the offered and sustained rates, the response and
+ * tap-to-event latencies and the GC pause time is printed. The summary names
+ * the first second in which the pipeline fell more than a second of commands
+ * behind.
+ */
+class LoadGenerator {
+
+    // Commands of a generated load, cycled; the control lane and the reader lane both get work
+    private static final String[] COMMAND_MIX = {
+        ",\"action\":\"get-status\"}",
+        ",\"action\":\"get-version\"}",
+        ",\"action\":\"get-status\"}",
+        ",\"action\":\"list-readers\"}"
+    };
+
+    private static final byte[] ID_PREFIX = "{\"id\":".getBytes(StandardCharsets.UTF_8);
+    private static final String CARD_DETECTED = "\"event\":\"card-detected\"";
+    private static final String READER_INDEX = "\"readerIndex\":";
+
+    // How long a tap may take to show up as an event before it counts as missed
+    private static final long TAP_TIMEOUT_MS = 2000;
+    // How long to wait for the last responses once the schedule is done
+    private static final long DRAIN_TIMEOUT_MS = 5000;
+
+    /**
+     * Commands to send and when.
+     */
+    static final class Load {
+        private final long[] offsetsNanos;
+        private final String[] bodies;
+
+        /**
+         * @param offsetsNanos Send time of each command, from the start, ascending
+         * @param bodies       Each command's JSON after the id the generator puts first
+         */
+        private Load(long[] offsetsNanos, String[] bodies) {
+            this.offsetsNanos = offsetsNanos;
+            this.bodies = bodies;
+        }
+
+        /**
+         * Creates a load whose rate rises linearly.
+         * @param startRate Commands per second at the start
+         * @param endRate   Commands per second at the end
+         * @param seconds   Duration
+         * @return Load
+         */
+        static Load ramp(double startRate, double endRate, int seconds) {
+            if (startRate < 0 || endRate < 0 || startRate + endRate == 0 || seconds <= 0) {
+                throw new IllegalArgumentException("Rates must not be negative and the load must not be empty");
+            }
+            int total = (int) Math.round((startRate + endRate) / 2 * seconds);
+            long[] offsets = new long[total];
+            String[] bodies = new String[total];
+            // Command k is sent when the integral of the rate reaches k
+            double slope = (endRate - startRate) / (2.0 * seconds);
+            for (int k = 0; k < total; k++) {
+                double at = slope == 0 ? k / startRate
+                    : (-startRate + Math.sqrt(startRate * startRate + 4 * slope * k)) / (2 * slope);
+                offsets[k] = (long) (at * 1e9);
+                bodies[k] = COMMAND_MIX[k % COMMAND_MIX.length];
+            }
+            return new Load(offsets, bodies);
+        }
+
+        /**
+         * Creates a load replaying a recorded trace.
+         * @param entries Recorded commands
+         * @param speed   Replay speed, 2 sends the commands twice as fast as recorded
+         * @return Load
+         */
+        static Load replay(List<CommandTrace.Entry> entries, double speed) {
+            if (entries.isEmpty() || speed <= 0) {
+                throw new IllegalArgumentException("Trace is empty or speed is not positive");
+            }
+            long[] offsets = new long[entries.size()];
+            String[] bodies = new String[entries.size()];
+            long first = entries.get(0).getOffsetMillis();
+            for (int k = 0; k < offsets.length; k++) {
+                // Trace files may be edited by hand; never schedule backwards
+                long offset = (long) ((entries.get(k).getOffsetMillis() - first) * 1e6 / speed);
+                offsets[k] = k > 0 ? Math.max(offset, offsets[k - 1]) : Math.max(offset, 0);
+                JsonObject command = entries.get(k).getCommand().deepCopy();
+                command.remove("id");
+                String json = Json.GSON.toJson(command);
+                bodies[k] = command.size() == 0 ? "}" : "," + json.substring(1);
+            }
+            return new Load(offsets, bodies);
+        }
+
+        int size() {
+            return offsetsNanos.length;
+        }
+
+        /**
+         * @return Number of commands due before the given time since the start
+         */
+        int dueBefore(long offsetNanos) {
+            int index = Arrays.binarySearch(offsetsNanos, offsetNanos);
+            if (index < 0) {
+                return -index - 1;
+            }
+            // First of equal offsets
+            while (index > 0 && offsetsNanos[index - 1] == offsetNanos) {
+                index--;
+            }
+            return index;
+        }
+
+        long durationNanos() {
+            return offsetsNanos.length > 0 ? offsetsNanos[offsetsNanos.length - 1] : 0;
+        }
+    }
+
+    /**
+     * Totals of a run.
+     */
+    static final class Result {
+        long sent;
+        long responses;
+        long taps;
+        long events;
+        long missedTaps;
+        // Offered rate in the first second the pipeline fell behind, or -1
+        long saturatedRate = -1;
+        long maxSustainedRate;
+    }
+
+    private final int readerCount;
+    private final double tapsPerSecond;
+    private final PrintStream out;
+
+    private final VirtualPcsc pcsc;
+    private final CommandHandler handler;
+
+    private long[] scheduledNanos = new long[0];
+    private final LongAdder responses = new LongAdder();
+    private final LongAdder events = new LongAdder();
+    private final LongAdder otherMessages = new LongAdder();
+    private final LongAdder taps = new LongAdder();
+    private final LongAdder missedTaps = new LongAdder();
+    private volatile long sent;
+
+    private final LatencyHistogram responseLatency = new LatencyHistogram();
+    private final LatencyHistogram intervalResponseLatency = new LatencyHistogram();
+    private final LatencyHistogram eventLatency = new LatencyHistogram();
+    private final LatencyHistogram intervalEventLatency = new LatencyHistogram();
+
+    // The tap each reader is waiting to see as an event
+    private final AtomicReferenceArray<CountDownLatch> pendingTaps;
+
+    /**
+     * @param readerCount   Number of virtual readers to listen on
+     * @param tapsPerSecond Taps across all readers; 0 for commands only
+     * @param out           Where the report goes
+     */
+    LoadGenerator(int readerCount, double tapsPerSecond, PrintStream out) {
+        if (readerCount <= 0 || tapsPerSecond < 0) {
+            throw new IllegalArgumentException("Need at least one reader and a tap rate of 0 or more");
+        }
+        this.readerCount = readerCount;
+        this.tapsPerSecond = tapsPerSecond;
+        this.out = out;
+        this.pcsc = new VirtualPcsc(readerCount);
+        this.handler = new CommandHandler(new ReaderManager(pcsc.terminalFactory()));
+        this.pendingTaps = new AtomicReferenceArray<>(readerCount);
+    }
+
+    /**
+     * Sends the load through the pipeline and reports on it.
+     * Replaces the native messaging output for the duration of the run.
+     * @param load Commands to send
+     * @return Totals
+     */
+    Result run(Load load) throws IOException, InterruptedException {
+        scheduledNanos = new long[load.size()];
+        NativeMessagingHost.setOutputStream(new Sink());
+
+        JsonObject start = new JsonObject();
+        start.addProperty("action", "start-listening");
+        JsonArray readers = new JsonArray();
+        for (int i = 0; i < readerCount; i++) {
+            readers.add(i);
+        }
+        start.add("readers", readers);
+        handler.handleCommand(start);
+
+        Pipe pipe = Pipe.open();
+        NativeMessagingHost host = new NativeMessagingHost(handler,
+            new MessageCodec(pipe.source(), OutputStream.nullOutputStream()));
+        Thread hostThread = new Thread(() -> {
+            try {
+                host.run();
+            } catch (IOException e) {
+                System.err.println("Load generator host failed: " + e.getMessage());
+            }
+        }, "nfc-loadgen-host");
+        hostThread.start();
+
+        long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+        long endNanos = startNanos + load.durationNanos();
+        Thread feeder = new Thread(() -> feed(load, pipe.sink(), startNanos), "nfc-loadgen-commands");
+        feeder.start();
+        List<Thread> tappers = new ArrayList<>();
+        if (tapsPerSecond > 0) {
+            for (int i = 0; i < readerCount; i++) {
+                int index = i;
+                Thread tapper = new Thread(() -> tap(index, startNanos, endNanos), "nfc-loadgen-taps-" + i);
+                tapper.setDaemon(true);
+                tapper.start();
+                tappers.add(tapper);
+            }
+        }
+
+        Result result = report(load, startNanos, feeder);
+        for (Thread tapper : tappers) {
+            tapper.join(TAP_TIMEOUT_MS);
+        }
+        pipe.sink().close();
+        hostThread.join(DRAIN_TIMEOUT_MS);
+
+        result.sent = sent;
+        result.responses = responses.sum();
+        result.taps = taps.sum();
+        result.events = events.sum();
+        result.missedTaps = missedTaps.sum();
+        printSummary(result);
+        return result;
+    }
+
+    private void feed(Load load, Pipe.SinkChannel commands, long startNanos) {
+        ByteBuffer frame = ByteBuffer.allocate(4096).order(ByteOrder.nativeOrder());
+        try {
+            for (int k = 0; k < load.size(); k++) {
+                long due = startNanos + load.offsetsNanos[k];
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                scheduledNanos[k] = due;
+
+                byte[] body = ("{\"id\":" + k + load.bodies[k]).getBytes(StandardCharsets.UTF_8);
+                if (frame.capacity() < 4 + body.length) {
+                    frame = ByteBuffer.allocate(4 + body.length).order(ByteOrder.nativeOrder());
+                }
+                frame.clear();
+                frame.putInt(body.length).put(body).flip();
+                while (frame.hasRemaining()) {
+                    commands.write(frame);
+                }
+                sent = k + 1;
+            }
+        } catch (IOException e) {
+            System.err.println("Load generator cannot send: " + e.getMessage());
+        }
+    }
+
+    private void tap(int index, long startNanos, long endNanos) {
+        VirtualReader reader = pcsc.getReader(index);
+        long period = (long) (readerCount * 1e9 / tapsPerSecond);
+        // Readers take turns, so taps are spread evenly over each period
+        long due = startNanos + period * index / readerCount;
+        byte[] uid = { 0x04, (byte) index, 0, 0, 0, 0, 0 };
+        int count = 0;
+        while (due <= endNanos) {
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            count++;
+            uid[2] = (byte) (count >> 16);
+            uid[3] = (byte) (count >> 8);
+            uid[4] = (byte) count;
+
+            CountDownLatch seen = new CountDownLatch(1);
+            pendingTaps.set(index, seen);
+            reader.insertCard(uid);
+            taps.increment();
+            try {
+                if (!seen.await(TAP_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    pendingTaps.set(index, null);
+                    missedTaps.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            reader.removeCard();
+            // A reader that fell behind does not try to catch up with a burst
+            due = Math.max(due + period, System.nanoTime());
+        }
+    }
+
+    /**
+     * Prints a line per second until every command was sent and answered.
+     */
+    private Result report(Load load, long startNanos, Thread feeder) throws InterruptedException {
+        Result result = new Result();
+        out.println(String.format("%5s %9s %9s %9s %9s %9s %7s %9s %9s %7s",
+            "sec", "offered/s", "sent/s", "msgs/s", "resp p50", "resp p99", "taps/s", "event p50", "event p99", "gc ms"));
+
+        long[] gc = gcTotals();
+        long lastEnd = startNanos;
+        int lastDue = 0;
+        long lastSent = 0;
+        long lastMessages = 0;
+        long lastTaps = 0;
+        long drainDeadline = Long.MAX_VALUE;
+        for (int second = 1; ; second++) {
+            long intervalEnd = startNanos + TimeUnit.SECONDS.toNanos(second);
+            while (System.nanoTime() < intervalEnd && !isFinished(feeder)) {
+                Thread.sleep(10);
+            }
+            // The last line may cover a partial second
+            intervalEnd = Math.min(intervalEnd, System.nanoTime());
+            double intervalSeconds = Math.max(intervalEnd - lastEnd, 1) / 1e9;
+            int due = load.dueBefore(intervalEnd - startNanos);
+            long offered = Math.round((due - lastDue) / intervalSeconds);
+
+            long sentNow = sent;
+            long messages = responses.sum() + events.sum() + otherMessages.sum();
+            long tapsNow = taps.sum();
+            long[] gcNow = gcTotals();
+            long sustained = Math.round((messages - lastMessages) / intervalSeconds);
+            out.println(String.format("%5d %9d %9d %9d %9.3f %9.3f %7d %9.3f %9.3f %7d",
+                second, offered, Math.round((sentNow - lastSent) / intervalSeconds), sustained,
+                intervalResponseLatency.getPercentileMicros(50) / 1000.0,
+                intervalResponseLatency.getPercentileMicros(99) / 1000.0,
+                Math.round((tapsNow - lastTaps) / intervalSeconds),
+                intervalEventLatency.getPercentileMicros(50) / 1000.0,
+                intervalEventLatency.getPercentileMicros(99) / 1000.0,
+                gcNow[1] - gc[1]));
+
+            result.maxSustainedRate = Math.max(result.maxSustainedRate, sustained);
+            // More than a second of commands unanswered or not even sent yet
+            long backlog = due - responses.sum();
+            if (result.saturatedRate < 0 && offered > 0 && backlog > offered) {
+                result.saturatedRate = offered;
+                out.println("      fell behind: " + backlog + " commands unanswered");
+            }
+            intervalResponseLatency.reset();
+            intervalEventLatency.reset();
+            lastEnd = intervalEnd;
+            lastDue = due;
+            lastSent = sentNow;
+            lastMessages = messages;
+            lastTaps = tapsNow;
+            gc = gcNow;
+
+            if (!feeder.isAlive() && drainDeadline == Long.MAX_VALUE) {
+                drainDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MS);
+            }
+            if (isFinished(feeder) || System.nanoTime() > drainDeadline) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    private boolean isFinished(Thread feeder) {
+        return !feeder.isAlive() && responses.sum() >= sent;
+    }
+
+    private void printSummary(Result result) {
+        out.println();
+        out.println("Commands: " + result.sent + " sent, " + result.responses + " answered, "
+            + result.maxSustainedRate + " messages/s sustained at most");
+        out.println(String.format("Response latency ms: p50 %.3f, p99 %.3f, p99.9 %.3f, max %.3f",
+            responseLatency.getPercentileMicros(50) / 1000.0, responseLatency.getPercentileMicros(99) / 1000.0,
+            responseLatency.getPercentileMicros(99.9) / 1000.0, responseLatency.getMaxMicros() / 1000.0));
+        if (result.taps > 0) {
+            out.println("Taps: " + result.taps + " taps, " + result.events + " card events, "
+                + result.missedTaps + " missed");
+            out.println(String.format("Tap-to-event latency ms: p50 %.3f, p99 %.3f, max %.3f",
+                eventLatency.getPercentileMicros(50) / 1000.0, eventLatency.getPercentileMicros(99) / 1000.0,
+                eventLatency.getMaxMicros() / 1000.0));
+        }
+        long[] gc = gcTotals();
+        out.println("GC: " + gc[0] + " collections, " + gc[1] + " ms paused in total");
+        out.println("Status messages dropped: " + NativeMessagingHost.getOutput().getDroppedCount());
+        if (result.saturatedRate >= 0) {
+            out.println("Pipeline fell behind at " + result.saturatedRate + " commands/s");
+        } else {
+            out.println("Pipeline kept up with the whole load");
+        }
+    }
+
+    /**
+     * Gets the collections and their pause time so far. Collectors that
+     * report concurrent cycles separately (G1, ZGC, Shenandoah) only count
+     * with their pauses.
+     * @return Collection count and time in ms
+     */
+    private static long[] gcTotals() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            String name = collector.getName();
+            if (name.contains("Concurrent") || name.contains("Cycles")) {
+                continue;
+            }
+            totals[0] += Math.max(0, collector.getCollectionCount());
+            totals[1] += Math.max(0, collector.getCollectionTime());
+        }
+        return totals;
+    }
+
+    /**
+     * Receives the host's framed output on the message writer thread and
+     * matches responses and card events to what caused them.
+     */
+    private final class Sink extends OutputStream {
+
+        private byte[] pending = new byte[64 * 1024];
+        private ByteBuffer view = ByteBuffer.wrap(pending).order(ByteOrder.nativeOrder());
+        private int length;
+
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (length + len > pending.length) {
+                pending = Arrays.copyOf(pending, Math.max(2 * pending.length, length + len));
+                view = ByteBuffer.wrap(pending).order(ByteOrder.nativeOrder());
+            }
+            System.arraycopy(b, off, pending, length, len);
+            length += len;
+
+            int position = 0;
+            while (length - position >= 4) {
+                int size = view.getInt(position);
+                if (length - position - 4 < size) {
+                    break;
+                }
+                received(position + 4, size);
+                position += 4 + size;
+            }
+            System.arraycopy(pending, position, pending, 0, length - position);
+            length -= position;
+        }
+
+        private void received(int offset, int size) {
+            long now = System.nanoTime();
+            long id = responseId(offset, size);
+            if (id >= 0 && id < scheduledNanos.length) {
+                long latency = now - scheduledNanos[(int) id];
+                responseLatency.recordNanos(latency);
+                intervalResponseLatency.recordNanos(latency);
+                responses.increment();
+                return;
+            }
+
+            String json = new String(pending, offset, size, StandardCharsets.UTF_8);
+            int readerIndex = json.indexOf(READER_INDEX);
+            if (!json.contains(CARD_DETECTED) || readerIndex < 0) {
+                otherMessages.increment();
+                return;
+            }
+            events.increment();
+            int index = 0;
+            for (int i = readerIndex + READER_INDEX.length(); i < json.length() && Character.isDigit(json.charAt(i)); i++) {
+                index = index * 10 + json.charAt(i) - '0';
+            }
+            if (index < readerCount) {
+                CountDownLatch tap = pendingTaps.getAndSet(index, null);
+                if (tap != null) {
+                    long latency = now - pcsc.getReader(index).getLastTapNanos();
+                    eventLatency.recordNanos(latency);
+                    intervalEventLatency.recordNanos(latency);
+                    tap.countDown();
+                }
+            }
+        }
+
+        /**
+         * @return Numeric id a response starts with, or -1
+         */
+        private long responseId(int offset, int size) {
+            if (size <= ID_PREFIX.length) {
+                return -1;
+            }
+            for (int i = 0; i < ID_PREFIX.length; i++) {
+                if (pending[offset + i] != ID_PREFIX[i]) {
+                    return -1;
+                }
+            }
+            long id = 0;
+            int i = offset + ID_PREFIX.length;
+            int end = offset + size;
+            if (i == end || pending[i] < '0' || pending[i] > '9') {
+                return -1;
+            }
+            while (i < end && pending[i] >= '0' && pending[i] <= '9') {
+                id = id * 10 + pending[i] - '0';
+                i++;
+            }
+            return id;
+        }
+    }
+}
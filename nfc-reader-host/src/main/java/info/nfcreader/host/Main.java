@@ -1,8 +1,36 @@
 package info.nfcreader.host;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Properties;
 
+import javax.smartcardio.CardException;
+import javax.smartcardio.TerminalFactory;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+import info.nfcreader.host.virtual.VirtualReader;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
 /**
  * Main entry point for the NFC Reader Native Messaging Host.
  * Supports multiple commands: list-readers, listen, native-messaging
@@ -65,6 +93,26 @@ public class Main {
                     handleNativeMessaging();
                     break;
 
+                case "stats":
+                    handleStats(args.length > 1 ? Integer.parseInt(args[1]) : 30);
+                    break;
+
+                case "train":
+                    handleTrain();
+                    break;
+
+                case "daemon":
+                    handleDaemon(args.length > 1 ? Paths.get(args[1]) : HostDaemon.defaultSocketPath());
+                    break;
+
+                case "journal":
+                    handleJournal(args);
+                    break;
+
+                case "loadgen":
+                    handleLoadgen(args);
+                    break;
+
                 case "help":
                 case "--help":
                 case "-h":
@@ -140,37 +188,323 @@ public class Main {
             System.exit(1);
         }
 
-        CardReader cardReader = new CardReader(readerManager, readerIndex);
+        // Same pipeline as native messaging, with the console subscribed instead of stdout frames
         CommandHandler handler = new CommandHandler(readerManager);
+        handler.detachStandardOutput();
+        handler.getEventBus().subscribe("console", EventBus.Overflow.DROP_OLDEST, event -> {
+            if (event.getName().equals("card-detected")) {
+                System.out.println("Card detected - UID: " + event.getUid());
+            } else if (event.getName().equals("error")) {
+                System.err.println(Json.GSON.fromJson(event.getJson(), JsonObject.class).get("error").getAsString());
+            }
+        });
+
+        JsonObject response = Json.GSON.fromJson(handler.handleStartListening(readerIndex), JsonObject.class);
+        if (!response.get("success").getAsBoolean()) {
+            System.err.println("Error: " + response.get("error").getAsString());
+            System.exit(1);
+        }
 
         System.out.println("Listening for NFC cards on reader: " + readers[readerIndex]);
         System.out.println("Press Ctrl+C to stop");
 
-        // Continuous listening mode
-        while (true) {
+        // Keep the main thread alive until interrupted
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Listens on all readers through the full event pipeline for a while and
+     * prints the per-stage latencies, to tell slow hardware, a slow pcscd
+     * and a slow browser apart.
+     */
+    private static void handleStats(int seconds) throws Exception {
+        ReaderManager readerManager = new ReaderManager();
+        String[] readers = readerManager.listReaders();
+        if (readers.length == 0) {
+            System.err.println("No readers found.");
+            System.exit(1);
+        }
+
+        // Events are serialized and written as usual, just not to a browser
+        NativeMessagingHost.setOutputStream(OutputStream.nullOutputStream());
+        CommandHandler handler = new CommandHandler(readerManager);
+        JsonArray all = new JsonArray();
+        for (int i = 0; i < readers.length; i++) {
+            all.add(i);
+        }
+        JsonObject start = new JsonObject();
+        start.addProperty("action", "start-listening");
+        start.add("readers", all);
+        handler.handleCommand(start);
+
+        System.out.println("Collecting latencies on " + readers.length + " reader(s) for " + seconds
+                + " seconds, tap some cards...");
+        Thread.sleep(seconds * 1000L);
+        handler.cleanup();
+        NativeMessagingHost.drainOutput();
+
+        JsonObject metrics = Json.GSON.fromJson(handler.handleGetMetrics(), JsonObject.class);
+        for (JsonElement element : metrics.getAsJsonArray("readers")) {
+            JsonObject reader = element.getAsJsonObject();
+            System.out.println();
+            System.out.println(reader.get("name").getAsString() + ": " + reader.get("reads") + " reads, "
+                    + reader.get("retries") + " 6300 retries, " + reader.get("failures") + " failures, "
+                    + reader.get("reconnects") + " reconnects");
+            printStatsHeader();
+            for (String stage : new String[] { "wake", "connect", "transmit", "read" }) {
+                printStatsRow(stage, reader.getAsJsonObject(stage));
+            }
+        }
+        JsonObject host = metrics.getAsJsonObject("host");
+        System.out.println();
+        System.out.println("Host: " + host.get("dropped") + " status messages dropped");
+        printStatsHeader();
+        for (String stage : new String[] { "serialize", "write" }) {
+            printStatsRow(stage, host.getAsJsonObject(stage));
+        }
+    }
+
+    private static void printStatsHeader() {
+        System.out.println(String.format("  %-10s %8s %10s %10s %10s", "stage", "count", "p50 ms", "p99 ms", "max ms"));
+    }
+
+    private static void printStatsRow(String stage, JsonObject histogram) {
+        System.out.println(String.format("  %-10s %8d %10.3f %10.3f %10.3f", stage,
+                histogram.get("count").getAsLong(),
+                histogram.get("p50").getAsLong() / 1000.0,
+                histogram.get("p99").getAsLong() / 1000.0,
+                histogram.get("max").getAsLong() / 1000.0));
+    }
+
+    /**
+     * Runs the workload the AppCDS archive is recorded from: the commands the
+     * extension sends on startup and a few taps on a virtual reader, through
+     * the same codec, dispatcher, writer and card paths as a browser session.
+     * Run with -XX:ArchiveClassesAtExit, the classes it loads are archived.
+     */
+    private static void handleTrain() throws Exception {
+        NativeMessagingHost.setOutputStream(OutputStream.nullOutputStream());
+        VirtualPcsc pcsc = new VirtualPcsc(1);
+        ReaderManager readerManager = new ReaderManager(pcsc.terminalFactory());
+        CommandHandler commandHandler = new CommandHandler(readerManager);
+
+        PipedOutputStream commands = new PipedOutputStream();
+        MessageCodec input = new MessageCodec(Channels.newChannel(new PipedInputStream(commands, 65536)),
+                OutputStream.nullOutputStream());
+        NativeMessagingHost host = new NativeMessagingHost(commandHandler, input);
+        Thread hostThread = new Thread(() -> {
             try {
-                String uid = cardReader.waitForCard();
-                if (uid != null) {
-                    System.out.println("Card detected - UID: " + uid);
-                }
-            } catch (Exception e) {
-                System.err.println("Error reading card: " + e.getMessage());
+                host.run();
+            } catch (IOException e) {
+                System.err.println("Training host failed: " + e.getMessage());
             }
+        }, "nfc-train-host");
+        hostThread.start();
+
+        writeFrame(commands, "{\"action\":\"get-version\"}");
+        writeFrame(commands, "{\"action\":\"list-readers\"}");
+        writeFrame(commands, "{\"action\":\"start-listening\",\"readerIndex\":0,\"readNdef\":true}");
 
-            // Small delay to prevent CPU spinning
-            Thread.sleep(100);
+        // Taps of an NTAG with a short URI record
+        VirtualReader reader = pcsc.getReader(0);
+        ReaderMetrics metrics = readerManager.getReaderMetrics(reader.getName());
+        byte[] tag = new byte[64];
+        byte[] header = Hex.decode("00000000 00000000 00000000 E1100600 030DD1010955036E66632E696E666FFE");
+        System.arraycopy(header, 0, tag, 0, header.length);
+        for (int tap = 1; tap <= 3; tap++) {
+            reader.insertTag(new byte[] { 0x04, (byte) tap, 0x22, 0x33, 0x44, 0x55, 0x66 }, tag);
+            long deadline = System.currentTimeMillis() + 2000;
+            while (metrics.getReads() < tap && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            reader.removeCard();
         }
+
+        // Load the PC/SC provider as well; listing fails harmlessly where pcscd is not running
+        try {
+            TerminalFactory.getDefault().terminals().list();
+        } catch (CardException | RuntimeException e) {
+            // Classes are loaded either way
+        }
+
+        writeFrame(commands, "{\"action\":\"get-status\"}");
+        writeFrame(commands, "{\"action\":\"get-metrics\"}");
+        writeFrame(commands, "{\"action\":\"stop-listening\"}");
+        commands.close();
+        hostThread.join();
+    }
+
+    private static void writeFrame(OutputStream out, String message) throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        out.write(ByteBuffer.allocate(4 + body.length).order(ByteOrder.nativeOrder())
+                .putInt(body.length).put(body).array());
+        out.flush();
     }
 
     private static void handleNativeMessaging() throws Exception {
-        ReaderManager readerManager = new ReaderManager();
-        CommandHandler commandHandler = new CommandHandler(readerManager);
+        if (DaemonForwarder.isEnabled()) {
+            SocketChannel daemon = DaemonForwarder.connectOrStart(HostDaemon.defaultSocketPath());
+            if (daemon != null) {
+                DaemonForwarder.forward(daemon);
+                return;
+            }
+            // Nothing was read from stdin yet, so the host can still serve the browser itself
+        }
+
+        // get-version and other control commands don't wait for PC/SC
+        ReaderManager readerManager = ReaderManager.initializeInBackground();
+        CommandHandler commandHandler = new CommandHandler(readerManager, openJournal());
         NativeMessagingHost host = new NativeMessagingHost(commandHandler);
 
         // Run the native messaging protocol loop
         host.run();
     }
 
+    /**
+     * Serves all browser profiles of the user from this process until it has
+     * been idle for a while (see {@link HostDaemon}).
+     */
+    private static void handleDaemon(Path socketPath) throws Exception {
+        CommandHandler commandHandler = new CommandHandler(ReaderManager.initializeInBackground(), openJournal());
+        HostDaemon daemon = new HostDaemon(commandHandler, socketPath, HostDaemon.DEFAULT_IDLE_TIMEOUT_MS);
+        if (!daemon.start()) {
+            System.err.println("A host daemon is already running on " + socketPath);
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::stop));
+        daemon.awaitStop();
+    }
+
+    /**
+     * Opens the tap journal and writes it back when the host exits.
+     */
+    private static TapJournal openJournal() {
+        TapJournal journal = TapJournal.openConfigured();
+        if (journal != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(journal::close));
+        }
+        return journal;
+    }
+
+    /**
+     * Prints the journaled taps in a time range, optionally of one UID.
+     * Times are ISO instants, local date-times or dates; a --to date includes the whole day.
+     */
+    private static void handleJournal(String[] args) throws IOException {
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        Uid uid = null;
+        Path directory = TapJournal.defaultDirectory();
+        for (int i = 1; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "--from":
+                    from = parseTime(value, false);
+                    break;
+                case "--to":
+                    to = parseTime(value, true);
+                    break;
+                case "--uid":
+                    uid = Uid.parse(value.replaceAll("[\\s:-]", ""));
+                    break;
+                case "--dir":
+                    directory = Paths.get(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown journal option: " + args[i - 1]);
+            }
+        }
+
+        if (!Files.isDirectory(directory)) {
+            System.err.println("No journal in " + directory + " (taps are journaled with -D" + TapJournal.ENABLED_PROPERTY + "=true)");
+            return;
+        }
+        DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+        long[] matched = new long[1];
+        long read = TapJournal.scan(directory, from, to, uid, record -> {
+            matched[0]++;
+            System.out.println(String.format("%s  reader %d  %-20s  %s",
+                    format.format(Instant.ofEpochMilli(record.getTimestampMillis())),
+                    record.getReaderIndex(),
+                    record.getUid() != null ? record.getUid().toHex() : "-",
+                    record.getOutcome().name().toLowerCase()));
+        });
+        System.err.println(matched[0] + " of " + read + " scanned taps matched");
+    }
+
+    /**
+     * Drives the in-process pipeline with a generated or recorded load and
+     * virtual taps (see {@link LoadGenerator}).
+     */
+    private static void handleLoadgen(String[] args) throws Exception {
+        double rate = 1000;
+        double toRate = -1;
+        int seconds = 10;
+        int readers = 4;
+        double taps = 20;
+        Path trace = null;
+        double speed = 1;
+        for (int i = 1; i < args.length; i++) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[++i];
+            switch (args[i - 1]) {
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--to-rate":
+                    toRate = Double.parseDouble(value);
+                    break;
+                case "--seconds":
+                    seconds = Integer.parseInt(value);
+                    break;
+                case "--readers":
+                    readers = Integer.parseInt(value);
+                    break;
+                case "--taps":
+                    taps = Double.parseDouble(value);
+                    break;
+                case "--trace":
+                    trace = Paths.get(value);
+                    break;
+                case "--speed":
+                    speed = Double.parseDouble(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown loadgen option: " + args[i - 1]);
+            }
+        }
+
+        LoadGenerator.Load load = trace != null
+            ? LoadGenerator.Load.replay(CommandTrace.read(trace), speed)
+            : LoadGenerator.Load.ramp(rate, toRate >= 0 ? toRate : rate, seconds);
+        System.out.println("Sending " + load.size() + " commands" + (trace != null ? " from " + trace : "")
+                + " with " + taps + " taps/s on " + readers + " virtual reader(s)");
+        new LoadGenerator(readers, taps, System.out).run(load);
+    }
+
+    private static long parseTime(String value, boolean endOfRange) {
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // Not an instant
+        }
+        try {
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            // Not a local date-time
+        }
+        LocalDate date = LocalDate.parse(value);
+        if (endOfRange) {
+            return date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli() - 1;
+        }
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
     private static void printUsage() {
         System.out.println("NFC Reader Native Messaging Host v" + VERSION);
         System.out.println();
@@ -179,11 +513,22 @@ public class Main {
         System.out.println("  nfc-reader-host list-readers              List all available NFC readers");
         System.out.println("  nfc-reader-host listen <reader-index>     Listen for cards on specified reader");
         System.out.println("  nfc-reader-host native-messaging          Run as native messaging host");
+        System.out.println("  nfc-reader-host stats [seconds]           Listen on all readers and print tap latencies");
+        System.out.println("  nfc-reader-host train                     Run the workload for the AppCDS archive");
+        System.out.println("  nfc-reader-host daemon [socket]           Serve all browser profiles from one process");
+        System.out.println("  nfc-reader-host journal [--from <time>] [--to <time>] [--uid <hex>] [--dir <path>]");
+        System.out.println("                                            Print journaled taps by time range or UID");
+        System.out.println("  nfc-reader-host loadgen [--rate <n>] [--to-rate <n>] [--seconds <n>] [--taps <n>] [--readers <n>]");
+        System.out.println("  nfc-reader-host loadgen --trace <file> [--speed <x>] [--taps <n>] [--readers <n>]");
+        System.out.println("                                            Drive the pipeline with commands/s and taps/s, report latencies");
         System.out.println("  nfc-reader-host help                      Show this help message");
         System.out.println();
         System.out.println("Examples:");
         System.out.println("  nfc-reader-host list-readers");
         System.out.println("  nfc-reader-host listen 0");
+        System.out.println("  nfc-reader-host stats 60");
+        System.out.println("  nfc-reader-host journal --from 2026-10-01 --uid 04A1B2C3");
+        System.out.println("  nfc-reader-host loadgen --rate 1000 --to-rate 50000 --seconds 30 --taps 200");
         System.out.println();
     }
 }
@@ -0,0 +1,412 @@
+package info.nfcreader.host;
+
+import java.io.EOFException;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Native messaging framing codec with reusable buffers.
+ * Incoming frames are read from an NIO channel into direct buffers. Outgoing
+ * messages are encoded into one reusable frame buffer and leave in a single
+ * write, header and body together; several appended frames share one write.
+ * JSON is decoded from and encoded into the buffers directly, without
+ * intermediate byte arrays or strings.
+ *
+ * Output stays on a stream: a FileChannel on stdout is closed, together with
+ * file descriptor 1, when a writing thread is interrupted.
+ *
+ * Reading and writing are independent; callers serialize access to each side.
+ */
+public class MessageCodec {
+
+    /** Largest message accepted from the browser. */
+    static final int MAX_MESSAGE_LENGTH = 1024 * 1024;
+
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+
+    private final ReadableByteChannel in;
+    private final OutputStream out;
+
+    private final ByteBuffer readHeader = ByteBuffer.allocateDirect(4).order(ByteOrder.nativeOrder());
+    private ByteBuffer readBody = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+    private CharBuffer readChars = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private final CharBufferReader reader = new CharBufferReader();
+
+    // Frames waiting to be written: 4-byte length header followed by the body
+    private byte[] writeFrame = new byte[INITIAL_BUFFER_SIZE];
+    private int writePosition;
+    private int frameStart;
+    private final BodyWriter writer = new BodyWriter();
+
+    /**
+     * @param in  Channel to read framed messages from, or null if write-only
+     * @param out Stream to write framed messages to, or null if read-only
+     */
+    public MessageCodec(ReadableByteChannel in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /**
+     * Creates a codec reading from the process's stdin file channel.
+     * @return Read-only codec for native messaging
+     */
+    public static MessageCodec forStandardInput() {
+        return new MessageCodec(new FileInputStream(FileDescriptor.in).getChannel(), null);
+    }
+
+    /**
+     * Creates a codec writing to the process's stdout.
+     * @return Write-only codec for native messaging
+     */
+    public static MessageCodec forStandardOutput() {
+        return new MessageCodec(null, new FileOutputStream(FileDescriptor.out));
+    }
+
+    /**
+     * Reads the next message and parses it as a JSON object.
+     * @return Parsed message, or null on EOF
+     * @throws JsonParseException if the frame is not valid UTF-8 or not a JSON object;
+     *         the frame is still consumed
+     */
+    public JsonObject readMessage() throws IOException {
+        if (!readFrame()) {
+            return null;
+        }
+        JsonReader jsonReader = new JsonReader(reader);
+        JsonElement element = JsonParser.parseReader(jsonReader);
+        if (!element.isJsonObject()) {
+            throw new JsonParseException("Message is not a JSON object");
+        }
+        return element.getAsJsonObject();
+    }
+
+    /**
+     * Reads the next message as text.
+     * @return Message string, or null on EOF
+     * @throws JsonParseException if the frame is not valid UTF-8; the frame is still consumed
+     */
+    public String readMessageText() throws IOException {
+        if (!readFrame()) {
+            return null;
+        }
+        return readChars.toString();
+    }
+
+    /**
+     * Reads one frame and decodes its body into the reusable char buffer.
+     * @return false on EOF before the header
+     */
+    private boolean readFrame() throws IOException {
+        readHeader.clear();
+        if (!readFully(readHeader, true)) {
+            return false;
+        }
+        readHeader.flip();
+
+        // Convert to integer (native byte order)
+        int messageLength = readHeader.getInt();
+
+        // Validate message length
+        if (messageLength <= 0 || messageLength > MAX_MESSAGE_LENGTH) {
+            throw new IOException("Invalid message length: " + messageLength);
+        }
+
+        if (readBody.capacity() < messageLength) {
+            readBody = ByteBuffer.allocateDirect(grow(readBody.capacity(), messageLength));
+        }
+        readBody.clear().limit(messageLength);
+        readFully(readBody, false);
+        readBody.flip();
+
+        // UTF-8 never yields more chars than bytes
+        if (readChars.capacity() < messageLength) {
+            readChars = CharBuffer.allocate(grow(readChars.capacity(), messageLength));
+        }
+        readChars.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(readBody, readChars, true);
+        if (result.isError()) {
+            // The whole body has been read, so the stream is still in sync
+            try {
+                result.throwException();
+            } catch (CharacterCodingException e) {
+                throw new JsonParseException("Invalid UTF-8 in message", e);
+            }
+        }
+        decoder.flush(readChars);
+        readChars.flip();
+        return true;
+    }
+
+    private boolean readFully(ByteBuffer buffer, boolean eofAllowed) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1) {
+                if (eofAllowed && buffer.position() == 0) {
+                    return false; // EOF at start
+                }
+                throw new EOFException(buffer == readHeader ? "Incomplete length header" : "Incomplete message body");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a message whose JSON text is already available.
+     * @param json JSON text
+     */
+    public void writeMessage(CharSequence json) throws IOException {
+        appendMessage(json);
+        flush();
+    }
+
+    /**
+     * Serializes a value straight into the frame buffer and writes it.
+     * @param value Value to serialize
+     * @param gson  Gson instance to serialize with
+     */
+    public void writeMessage(Object value, Gson gson) throws IOException {
+        startFrame();
+        JsonWriter jsonWriter = new JsonWriter(writer);
+        gson.toJson(value, value.getClass(), jsonWriter);
+        jsonWriter.flush();
+        finishFrame();
+        flush();
+    }
+
+    /**
+     * Frames a message into the write buffer without writing it yet.
+     * Frames accumulate until {@link #flush()}.
+     * @param json JSON text
+     */
+    public void appendMessage(CharSequence json) {
+        startFrame();
+        writer.append(json);
+        writer.flush();
+        finishFrame();
+    }
+
+    /**
+     * @return Number of bytes framed but not yet written
+     */
+    public int pendingBytes() {
+        return writePosition;
+    }
+
+    /**
+     * Writes all framed messages in a single write and flushes the stream.
+     */
+    public void flush() throws IOException {
+        if (writePosition == 0) {
+            return;
+        }
+        try {
+            out.write(writeFrame, 0, writePosition);
+            out.flush();
+        } finally {
+            writePosition = 0;
+        }
+    }
+
+    private void startFrame() {
+        ensureWritable(4);
+        frameStart = writePosition;
+        writePosition += 4;
+    }
+
+    private void finishFrame() {
+        int length = writePosition - frameStart - 4;
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            writeFrame[frameStart] = (byte) length;
+            writeFrame[frameStart + 1] = (byte) (length >> 8);
+            writeFrame[frameStart + 2] = (byte) (length >> 16);
+            writeFrame[frameStart + 3] = (byte) (length >> 24);
+        } else {
+            writeFrame[frameStart] = (byte) (length >> 24);
+            writeFrame[frameStart + 1] = (byte) (length >> 16);
+            writeFrame[frameStart + 2] = (byte) (length >> 8);
+            writeFrame[frameStart + 3] = (byte) length;
+        }
+    }
+
+    /**
+     * Makes room for at least the given number of bytes in the frame buffer.
+     */
+    private void ensureWritable(int bytes) {
+        if (writeFrame.length - writePosition >= bytes) {
+            return;
+        }
+        byte[] larger = new byte[grow(writeFrame.length, writePosition + bytes)];
+        System.arraycopy(writeFrame, 0, larger, 0, writePosition);
+        writeFrame = larger;
+    }
+
+    private static int grow(int capacity, int required) {
+        int size = capacity;
+        while (size < required) {
+            size *= 2;
+        }
+        return size;
+    }
+
+    /**
+     * Encodes characters as UTF-8 directly into the frame buffer.
+     * Reserves the worst case (3 bytes per char) up front, so the loops
+     * below write without per-character capacity checks.
+     */
+    private class BodyWriter extends Writer {
+
+        private char pendingHighSurrogate;
+        private char[] scratch = new char[INITIAL_BUFFER_SIZE];
+
+        @Override
+        public void write(int c) {
+            ensureWritable(4);
+            encode((char) c);
+        }
+
+        @Override
+        public void write(char[] chars, int offset, int length) {
+            ensureWritable(length * 3 + 1);
+            byte[] bytes = writeFrame;
+            int position = writePosition;
+            int end = offset + length;
+            int i = offset;
+
+            // ASCII fast path
+            if (pendingHighSurrogate == 0) {
+                while (i < end) {
+                    char c = chars[i];
+                    if (c >= 0x80) {
+                        break;
+                    }
+                    bytes[position++] = (byte) c;
+                    i++;
+                }
+            }
+            writePosition = position;
+
+            for (; i < end; i++) {
+                encode(chars[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int offset, int length) {
+            // Bulk-copy the chars first; String.getChars is an intrinsic
+            if (scratch.length < length) {
+                scratch = new char[grow(scratch.length, length)];
+            }
+            str.getChars(offset, offset + length, scratch, 0);
+            write(scratch, 0, length);
+        }
+
+        @Override
+        public Writer append(CharSequence csq) {
+            if (csq instanceof String) {
+                write((String) csq, 0, csq.length());
+                return this;
+            }
+            int length = csq.length();
+            ensureWritable(length * 3 + 1);
+            for (int i = 0; i < length; i++) {
+                encode(csq.charAt(i));
+            }
+            return this;
+        }
+
+        /**
+         * Encodes one char; the caller has reserved at least 4 bytes.
+         */
+        private void encode(char c) {
+            byte[] bytes = writeFrame;
+            if (pendingHighSurrogate != 0) {
+                char high = pendingHighSurrogate;
+                pendingHighSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    // The high surrogate reserved 3 bytes and wrote none
+                    int codePoint = Character.toCodePoint(high, c);
+                    bytes[writePosition++] = (byte) (0xF0 | (codePoint >> 18));
+                    bytes[writePosition++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    bytes[writePosition++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    bytes[writePosition++] = (byte) (0x80 | (codePoint & 0x3F));
+                    return;
+                }
+                // Unpaired surrogate
+                bytes[writePosition++] = (byte) '?';
+            }
+
+            if (c < 0x80) {
+                bytes[writePosition++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[writePosition++] = (byte) (0xC0 | (c >> 6));
+                bytes[writePosition++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                pendingHighSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                bytes[writePosition++] = (byte) '?';
+            } else {
+                bytes[writePosition++] = (byte) (0xE0 | (c >> 12));
+                bytes[writePosition++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[writePosition++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (pendingHighSurrogate != 0) {
+                pendingHighSurrogate = 0;
+                ensureWritable(1);
+                writeFrame[writePosition++] = (byte) '?';
+            }
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+
+    /**
+     * Reads the decoded characters of the current message.
+     */
+    private class CharBufferReader extends Reader {
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (!readChars.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, readChars.remaining());
+            readChars.get(buffer, offset, count);
+            return count;
+        }
+
+        @Override
+        public void close() {
+            // The buffer is reused for the next message
+        }
+    }
+}
@@ -0,0 +1,292 @@
+package info.nfcreader.host;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Dedicated writer thread for outgoing native messages.
+ *
+ * Producers (the command loop and listener threads) enqueue pre-serialized
+ * JSON on a lock-free queue and return immediately; they never wait for
+ * stdout. The writer thread frames everything queued at that moment and
+ * hands it to the browser in one write and flush.
+ *
+ * The queue is bounded for status messages only. When it is full the
+ * overflow policy drops either the stale (oldest) or the incoming status
+ * message. Responses and card events are never dropped: they are always
+ * admitted, and are bounded in practice by the single command loop and by
+ * how fast cards can be tapped.
+ */
+public class MessageWriter {
+
+    /** System property for the queue capacity. */
+    public static final String CAPACITY_PROPERTY = "nfcreader.output.capacity";
+
+    /** System property for the overflow policy: drop-oldest or drop-newest. */
+    public static final String OVERFLOW_PROPERTY = "nfcreader.output.overflow";
+
+    static final int DEFAULT_CAPACITY = 256;
+
+    // Flush mid-batch once this much is framed, so one huge backlog is not one huge write
+    private static final int MAX_BATCH_BYTES = 64 * 1024;
+
+    /**
+     * What to do with a status message when the queue is full.
+     */
+    public enum Overflow {
+        /** Drop the oldest queued status message to make room. */
+        DROP_OLDEST,
+        /** Drop the incoming status message. */
+        DROP_NEWEST
+    }
+
+    private static final int QUEUED = 0;
+    private static final int TAKEN = 1;
+    private static final int DROPPED = 2;
+
+    private static final class Entry {
+        static final AtomicIntegerFieldUpdater<Entry> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+        final String json;
+        final boolean droppable;
+        final long queuedAtNanos = System.nanoTime();
+        volatile int state = QUEUED;
+
+        Entry(String json, boolean droppable) {
+            this.json = json;
+            this.droppable = droppable;
+        }
+
+        /** Claims the entry for writing or dropping; only one side wins. */
+        boolean claim(int newState) {
+            return STATE.compareAndSet(this, QUEUED, newState);
+        }
+    }
+
+    private final MessageCodec codec;
+    private final int capacity;
+    private final Overflow overflow;
+
+    private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger queuedStatus = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+
+    // Queue times of the messages framed but not yet flushed; writer thread only
+    private long[] batchQueuedAt = new long[64];
+
+    private final Thread thread;
+    private volatile boolean waiting;
+    private volatile boolean closed;
+
+    /**
+     * @param codec    Codec to write frames with; used only by the writer thread
+     * @param capacity Maximum number of queued status messages
+     * @param overflow Policy for status messages once the queue is full
+     */
+    public MessageWriter(MessageCodec codec, int capacity, Overflow overflow) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.codec = codec;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.thread = new Thread(this::run, "nfc-message-writer");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Creates a writer configured from the system properties.
+     * @param codec Codec to write frames with
+     * @return Started writer
+     */
+    public static MessageWriter start(MessageCodec codec) {
+        int capacity = Integer.getInteger(CAPACITY_PROPERTY, DEFAULT_CAPACITY);
+        String policy = System.getProperty(OVERFLOW_PROPERTY, "drop-oldest");
+        Overflow overflow = Overflow.valueOf(policy.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+
+        MessageWriter writer = new MessageWriter(codec, capacity, overflow);
+        writer.start();
+        return writer;
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Queues a response or card event. Never dropped, never blocks.
+     * @param json Message JSON
+     */
+    public void send(String json) {
+        enqueue(new Entry(json, false));
+    }
+
+    /**
+     * Queues a status message, subject to the overflow policy. Never blocks.
+     * @param json Message JSON
+     * @return false if the message was dropped
+     */
+    public boolean sendStatus(String json) {
+        if (queuedStatus.incrementAndGet() > capacity) {
+            if (overflow == Overflow.DROP_NEWEST || !dropOldestStatus()) {
+                queuedStatus.decrementAndGet();
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        enqueue(new Entry(json, true));
+        return true;
+    }
+
+    /**
+     * Drops the oldest status message still queued.
+     * Its slot in the status count is handed over to the caller.
+     */
+    private boolean dropOldestStatus() {
+        Iterator<Entry> it = queue.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.droppable && entry.claim(DROPPED)) {
+                queue.remove(entry);
+                queued.decrementAndGet();
+                dropped.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void enqueue(Entry entry) {
+        // Counted before it becomes visible, so the count never runs behind the writer
+        queued.incrementAndGet();
+        queue.offer(entry);
+        if (waiting) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Waits until every message queued so far has been written.
+     * @param timeoutMs Maximum time to wait
+     * @return false on timeout
+     */
+    public boolean awaitDrained(long timeoutMs) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        for (int spins = 0; queued.get() > 0; spins++) {
+            if (System.nanoTime() - deadline >= 0 || !thread.isAlive()) {
+                return false;
+            }
+            // A short backlog drains within microseconds, a stalled pipe takes longer
+            if (spins < 1000) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of messages queued or framed and not yet written
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return Number of status messages dropped on overflow
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Gets the time from queuing a message until it was flushed to the browser.
+     * Long times with an empty queue mean the browser reads slowly.
+     * @return Write latency histogram
+     */
+    public LatencyHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * Writes everything queued so far and stops the writer thread.
+     * @param timeoutMs Maximum time to wait for the queue to drain
+     */
+    public void close(long timeoutMs) {
+        closed = true;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        int batch = 0;
+        while (true) {
+            Entry entry = queue.poll();
+            if (entry == null) {
+                flush(batch);
+                queued.addAndGet(-batch);
+                batch = 0;
+                if (closed && queue.isEmpty()) {
+                    return;
+                }
+                // Producers check the flag after offering and close() always
+                // unparks, so a message queued right before parking still wakes
+                // us up; spurious wake-ups just go round the loop again
+                waiting = true;
+                if (queue.isEmpty() && !closed) {
+                    LockSupport.park(this);
+                }
+                waiting = false;
+                continue;
+            }
+
+            if (!entry.claim(TAKEN)) {
+                continue; // Dropped by the overflow policy
+            }
+            if (entry.droppable) {
+                queuedStatus.decrementAndGet();
+            }
+
+            codec.appendMessage(entry.json);
+            if (batch == batchQueuedAt.length) {
+                batchQueuedAt = Arrays.copyOf(batchQueuedAt, 2 * batch);
+            }
+            batchQueuedAt[batch++] = entry.queuedAtNanos;
+            if (codec.pendingBytes() >= MAX_BATCH_BYTES) {
+                flush(batch);
+                queued.addAndGet(-batch);
+                batch = 0;
+            }
+        }
+    }
+
+    private void flush(int batch) {
+        try {
+            codec.flush();
+        } catch (IOException e) {
+            System.err.println("Error sending message: " + e.getMessage());
+        }
+        for (int i = 0; i < batch; i++) {
+            writeLatency.recordSince(batchQueuedAt[i]);
+        }
+    }
+}
@@ -1,8 +1,11 @@
 package info.nfcreader.host;
 
-import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 
 /**
  * Implements the Chrome/Firefox Native Messaging protocol.
@@ -15,39 +18,61 @@ import java.nio.ByteOrder;
 public class NativeMessagingHost {
     
     private final CommandHandler commandHandler;
-    private static OutputStream outputStream = System.out;
+    private final CommandDispatcher dispatcher;
+    private final MessageCodec input;
+    private static MessageWriter output = MessageWriter.start(MessageCodec.forStandardOutput());
+    
+    // How long to wait for queued commands and messages on exit
+    private static final long DRAIN_TIMEOUT_MS = 2000;
     
     public NativeMessagingHost(CommandHandler commandHandler) {
+        this(commandHandler, MessageCodec.forStandardInput());
+    }
+    
+    /**
+     * Creates a host reading commands through the given codec.
+     * @param commandHandler Command handler
+     * @param input Codec to read framed commands from
+     */
+    public NativeMessagingHost(CommandHandler commandHandler, MessageCodec input) {
         this.commandHandler = commandHandler;
+        this.dispatcher = new CommandDispatcher(commandHandler);
+        this.input = input;
     }
     
     /**
      * Runs the native messaging protocol loop.
-     * Reads messages from stdin and processes them until EOF.
+     * Reads messages from stdin until EOF and hands them to the dispatcher,
+     * so reading never waits for a command to complete.
      */
     public void run() throws IOException {
-        // Use binary streams for precise byte handling
-        InputStream input = System.in;
-        
         // Add shutdown hook for cleanup
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             commandHandler.cleanup();
         }));
+        CommandTrace trace = CommandTrace.openConfigured();
         
         try {
             while (true) {
                 // Read message
-                String message = readMessage(input);
+                JsonObject message;
+                try {
+                    message = input.readMessage();
+                } catch (JsonParseException e) {
+                    // The frame was consumed, so the stream is still in sync
+                    sendMessage(commandHandler.createErrorResponse("Error processing command: " + e.getMessage()));
+                    continue;
+                }
                 if (message == null) {
                     // EOF reached, exit gracefully
                     break;
                 }
+                if (trace != null) {
+                    trace.record(message);
+                }
                 
-                // Process command
-                String response = commandHandler.handleCommand(message);
-                
-                // Send response
-                sendMessage(response);
+                // Process command; the response is sent when it completes
+                dispatcher.dispatch(message);
             }
         } catch (EOFException e) {
             // Normal termination
@@ -55,111 +80,57 @@ public class NativeMessagingHost {
             System.err.println("I/O error in native messaging: " + e.getMessage());
             throw e;
         } finally {
+            dispatcher.shutdown(DRAIN_TIMEOUT_MS);
             commandHandler.cleanup();
+            drainOutput();
+            if (trace != null) {
+                trace.close();
+            }
         }
     }
     
     /**
-     * Reads a message from the input stream.
-     * @param input Input stream
-     * @return Message string, or null if EOF
+     * Queues a message for the writer thread. Responses and card events
+     * go through here and are never dropped.
+     * @param message Message string
      */
-    private String readMessage(InputStream input) throws IOException {
-        // Read 4-byte length header
-        byte[] lengthBytes = new byte[4];
-        int bytesRead = readFully(input, lengthBytes);
-        
-        if (bytesRead == -1) {
-            return null; // EOF
-        }
-        
-        if (bytesRead != 4) {
-            throw new IOException("Incomplete length header");
-        }
-        
-        // Convert to integer (native byte order)
-        int messageLength = ByteBuffer.wrap(lengthBytes)
-            .order(ByteOrder.nativeOrder())
-            .getInt();
-        
-        // Validate message length
-        if (messageLength <= 0 || messageLength > 1024 * 1024) {
-            throw new IOException("Invalid message length: " + messageLength);
-        }
-        
-        // Read message body
-        byte[] messageBytes = new byte[messageLength];
-        bytesRead = readFully(input, messageBytes);
-        
-        if (bytesRead != messageLength) {
-            throw new IOException("Incomplete message body");
-        }
-        
-        // Convert to string
-        return new String(messageBytes, "UTF-8");
+    public static void sendMessage(String message) {
+        output.send(message);
     }
     
     /**
-     * Sends a message to the output stream.
+     * Queues a status message, which may be dropped if the browser
+     * falls behind (see {@link MessageWriter.Overflow}).
      * @param message Message string
+     * @return false if the message was dropped
      */
-    public static synchronized void sendMessage(String message) {
-        try {
-            // Convert message to bytes
-            byte[] messageBytes = message.getBytes("UTF-8");
-            
-            // Create length header (4 bytes, native byte order)
-            byte[] lengthBytes = ByteBuffer.allocate(4)
-                .order(ByteOrder.nativeOrder())
-                .putInt(messageBytes.length)
-                .array();
-            
-            // Write length header
-            outputStream.write(lengthBytes);
-            
-            // Write message body
-            outputStream.write(messageBytes);
-            
-            // Flush to ensure immediate delivery
-            outputStream.flush();
-            
-        } catch (IOException e) {
-            System.err.println("Error sending message: " + e.getMessage());
-        }
+    public static boolean sendStatus(String message) {
+        return output.sendStatus(message);
     }
     
     /**
-     * Reads exactly the specified number of bytes from the input stream.
-     * @param input Input stream
-     * @param buffer Buffer to read into
-     * @return Number of bytes read, or -1 if EOF reached before any bytes
+     * Gets the writer currently sending messages to the browser.
+     * @return Message writer
      */
-    private int readFully(InputStream input, byte[] buffer) throws IOException {
-        int totalRead = 0;
-        int length = buffer.length;
-        
-        while (totalRead < length) {
-            int read = input.read(buffer, totalRead, length - totalRead);
-            
-            if (read == -1) {
-                if (totalRead == 0) {
-                    return -1; // EOF at start
-                } else {
-                    throw new EOFException("Unexpected EOF");
-                }
-            }
-            
-            totalRead += read;
-        }
-        
-        return totalRead;
+    static MessageWriter getOutput() {
+        return output;
+    }
+    
+    /**
+     * Waits until everything queued so far has been written.
+     */
+    static void drainOutput() {
+        output.awaitDrained(DRAIN_TIMEOUT_MS);
     }
     
     /**
      * Sets the output stream for testing purposes.
+     * Messages still queued for the previous stream are written first.
      * @param stream Output stream
      */
-    public static void setOutputStream(OutputStream stream) {
-        outputStream = stream;
+    public static synchronized void setOutputStream(OutputStream stream) {
+        MessageWriter previous = output;
+        output = MessageWriter.start(new MessageCodec(null, stream));
+        previous.close(DRAIN_TIMEOUT_MS);
     }
 }
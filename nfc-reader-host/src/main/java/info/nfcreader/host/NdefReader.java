@@ -0,0 +1,193 @@
+package info.nfcreader.host;
+
+import java.util.Arrays;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * Reads the NDEF message of an NFC Forum Type 2 tag (NTAG21x, MIFARE Ultralight).
+ *
+ * Pages are fetched with the NTAG FAST_READ command over whole page ranges,
+ * wrapped in the ACR122U direct-transmit pseudo-APDU, so an NTAG216 is read in
+ * a few exchanges instead of one READ BINARY per 4 pages. Readers or tags that
+ * reject FAST_READ fall back to READ BINARY. The capability container and the
+ * TLVs are parsed as the pages arrive, only the pages up to the end of the
+ * NDEF message are fetched, and the message is handed out range by range.
+ */
+public class NdefReader {
+
+    /**
+     * Receives an NDEF message while it is read.
+     */
+    public interface ChunkListener {
+
+        /**
+         * Called once per fetched range, in order; at least once for an empty message.
+         * @param data   Next bytes of the message
+         * @param offset Offset of the chunk within the message
+         * @param total  Length of the whole message
+         */
+        void chunk(byte[] data, int offset, int total);
+    }
+
+    // 240 data bytes per FAST_READ stay within the PN533 frame along with its headers
+    static final int MAX_FAST_READ_PAGES = 60;
+
+    private static final int PAGE_SIZE = 4;
+    private static final int CC_PAGE = 3;
+    private static final int DATA_PAGE = 4;
+    // The first exchange reads the CC and the start of the data area; page 15 exists on every Type 2 tag
+    private static final int FIRST_LAST_PAGE = 15;
+
+    private static final int CC_MAGIC = 0xE1;
+    private static final int TLV_NULL = 0x00;
+    private static final int TLV_NDEF = 0x03;
+    private static final int TLV_TERMINATOR = 0xFE;
+
+    private final CardSession session;
+    private boolean fastRead = true;
+    private byte[] area;    // data area, starting at page 4
+    private int fetched;    // bytes of the data area read so far
+    private int exchanges;
+
+    /**
+     * @param session Session of the card to read
+     */
+    public NdefReader(CardSession session) {
+        this.session = session;
+    }
+
+    /**
+     * Reads the first NDEF message on the tag.
+     * @param listener Receives the message as it is read
+     * @return Length of the message, -1 if the card is not a Type 2 tag or holds no NDEF message
+     */
+    public int read(ChunkListener listener) throws CardException {
+        byte[] first = readPages(CC_PAGE, FIRST_LAST_PAGE);
+        if (first == null || (first[0] & 0xFF) != CC_MAGIC) {
+            return -1;
+        }
+        // CC byte 2 is the size of the data area in units of 8 bytes
+        area = new byte[(first[2] & 0xFF) * 8];
+        fetched = Math.min(area.length, first.length - PAGE_SIZE);
+        System.arraycopy(first, PAGE_SIZE, area, 0, fetched);
+
+        int pos = 0;
+        while (pos < area.length) {
+            int type = byteAt(pos++);
+            if (type == TLV_NULL) {
+                continue;
+            }
+            if (type == TLV_TERMINATOR || pos >= area.length) {
+                return -1;
+            }
+            int length = byteAt(pos++);
+            if (length == 0xFF) {
+                // Three-byte length format
+                length = byteAt(pos) << 8 | byteAt(pos + 1);
+                pos += 2;
+            }
+            if (type == TLV_NDEF) {
+                if (pos + length > area.length) {
+                    throw new CardException("NDEF message of " + length + " bytes exceeds the tag's data area");
+                }
+                stream(pos, length, listener);
+                return length;
+            }
+            pos += length;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Number of read commands sent to the card so far
+     */
+    public int getExchangeCount() {
+        return exchanges;
+    }
+
+    /**
+     * @return true while FAST_READ works on this reader and tag
+     */
+    public boolean usesFastRead() {
+        return fastRead;
+    }
+
+    private void stream(int start, int length, ChunkListener listener) throws CardException {
+        if (length == 0) {
+            listener.chunk(new byte[0], 0, 0);
+            return;
+        }
+        int emitted = 0;
+        while (true) {
+            int available = Math.min(fetched - start, length);
+            if (available > emitted) {
+                listener.chunk(Arrays.copyOfRange(area, start + emitted, start + available), emitted, length);
+                emitted = available;
+            }
+            if (emitted == length) {
+                return;
+            }
+            fetchNext(start + length);
+        }
+    }
+
+    private int byteAt(int pos) throws CardException {
+        if (pos >= area.length) {
+            throw new CardException("TLV exceeds the tag's data area");
+        }
+        while (fetched <= pos) {
+            fetchNext(pos + 1);
+        }
+        return area[pos] & 0xFF;
+    }
+
+    /**
+     * Fetches the next range of the data area, up to the page holding byte end - 1.
+     */
+    private void fetchNext(int end) throws CardException {
+        int page = DATA_PAGE + fetched / PAGE_SIZE;
+        int lastPage = Math.min(DATA_PAGE + (end - 1) / PAGE_SIZE, page + MAX_FAST_READ_PAGES - 1);
+        byte[] pages = readPages(page, lastPage);
+        if (pages == null) {
+            throw new CardException("Failed to read page " + page + " of the tag");
+        }
+        int count = Math.min(pages.length, area.length - fetched);
+        System.arraycopy(pages, 0, area, fetched, count);
+        fetched += count;
+    }
+
+    /**
+     * Reads a page range, or as much of its start as a READ BINARY returns.
+     * @return Page bytes, null if the card rejected the read
+     */
+    private byte[] readPages(int firstPage, int lastPage) throws CardException {
+        if (fastRead) {
+            exchanges++;
+            // Direct transmit of PN533 InCommunicateThru carrying FAST_READ
+            ResponseAPDU response = session.transmit(new CommandAPDU(new byte[] {
+                (byte) 0xFF, 0x00, 0x00, 0x00, 0x05,
+                (byte) 0xD4, 0x42, 0x3A, (byte) firstPage, (byte) lastPage
+            }));
+            byte[] data = response.getData();
+            int expected = (lastPage - firstPage + 1) * PAGE_SIZE;
+            if (response.getSW() == 0x9000 && data.length == 3 + expected
+                    && data[0] == (byte) 0xD5 && data[1] == 0x43 && data[2] == 0x00) {
+                return Arrays.copyOfRange(data, 3, data.length);
+            }
+            // Not an ACR122U-style reader, or a tag without FAST_READ such as an Ultralight
+            fastRead = false;
+        }
+
+        exchanges++;
+        ResponseAPDU response = session.transmit(new CommandAPDU(0xFF, 0xB0, 0x00, firstPage, 16));
+        byte[] data = response.getData();
+        if (response.getSW() != 0x9000 || data.length < PAGE_SIZE) {
+            return null;
+        }
+        int pages = Math.min(data.length / PAGE_SIZE, lastPage - firstPage + 1);
+        return Arrays.copyOf(data, pages * PAGE_SIZE);
+    }
+}
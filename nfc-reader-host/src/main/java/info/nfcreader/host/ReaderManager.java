@@ -1,8 +1,17 @@
 package info.nfcreader.host;
 
+import info.nfcreader.host.virtual.VirtualPcsc;
+
 import javax.smartcardio.*;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Manages smart card readers and provides access to connected terminals.
@@ -10,28 +19,199 @@ import java.util.List;
  */
 public class ReaderManager {
     
-    private TerminalFactory factory;
-    private CardTerminals terminals;
+    /**
+     * Receives reader attach and detach notifications.
+     */
+    public interface ReadersListener {
+        /**
+         * Called when readers were attached, detached or reordered.
+         * @param readers Reader names now, in PC/SC order
+         * @param added   Readers attached since the last notification
+         * @param removed Readers detached since the last notification
+         */
+        void readersChanged(List<String> readers, List<String> added, List<String> removed);
+    }
+    
+    // Completed once PC/SC is set up; see initializeInBackground()
+    private final CompletableFuture<TerminalFactory> factory;
+    private final CompletableFuture<TerminalRegistry> registry;
+    private final CardWatcher cardWatcher = new CardWatcher(this);
+    private final Map<String, TimingModel> timingModels = new ConcurrentHashMap<>();
+    private final Map<String, ReaderMetrics> readerMetrics = new ConcurrentHashMap<>();
+    private final List<ReadersListener> readersListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean readersWatched;
     
     public ReaderManager() throws CardException {
+        this(createTerminalFactory());
+    }
+    
+    /**
+     * Creates a reader manager on top of a specific terminal factory.
+     * @param factory Terminal factory (PC/SC or virtual)
+     */
+    public ReaderManager(TerminalFactory factory) {
+        this(CompletableFuture.completedFuture(factory));
+    }
+    
+    /**
+     * Creates a reader manager whose terminal factory is still being set up.
+     * Reader operations wait for it; a failed setup fails them with its CardException.
+     * @param factory Future terminal factory
+     */
+    ReaderManager(CompletableFuture<TerminalFactory> factory) {
+        this.factory = factory;
+        this.registry = factory.thenApply(ready -> new TerminalRegistry(ready.terminals(), ready::terminals,
+            (readers, added, removed) -> {
+                for (ReadersListener listener : readersListeners) {
+                    listener.readersChanged(readers, added, removed);
+                }
+            }));
+    }
+    
+    /**
+     * Creates a reader manager and sets up PC/SC on a background thread.
+     * Loading the PC/SC library and establishing its context takes a noticeable
+     * part of startup, so the native messaging loop starts serving right away
+     * and only reader commands wait for the setup. The thread also lists the
+     * readers once, so PC/SC has its reader list ready for the first list-readers.
+     * @return Reader manager, returned before PC/SC is ready
+     */
+    public static ReaderManager initializeInBackground() {
+        CompletableFuture<TerminalFactory> factory = new CompletableFuture<>();
+        ReaderManager readerManager = new ReaderManager(factory);
+        
+        Thread thread = new Thread(() -> {
+            try {
+                factory.complete(createTerminalFactory());
+            } catch (Throwable e) {
+                // Includes a missing PC/SC library (UnsatisfiedLinkError)
+                factory.completeExceptionally(e);
+                return;
+            }
+            try {
+                readerManager.listReaders();
+            } catch (CardException e) {
+                // No readers yet; list-readers will ask again
+            }
+        }, "nfc-pcsc-init");
+        thread.setDaemon(true);
+        thread.start();
+        
+        return readerManager;
+    }
+    
+    /**
+     * Selects the terminal factory at startup.
+     * Uses the virtual PC/SC subsystem when configured, the default (PC/SC) otherwise.
+     * @return Terminal factory
+     */
+    private static TerminalFactory createTerminalFactory() throws CardException {
+        String virtualSpec = VirtualPcsc.configuredSpec();
+        if (virtualSpec != null) {
+            try {
+                return VirtualPcsc.fromSpec(virtualSpec).terminalFactory();
+            } catch (IOException | IllegalArgumentException e) {
+                throw new CardException("Invalid virtual reader configuration: " + e.getMessage(), e);
+            }
+        }
+        
         // Get the default terminal factory (PC/SC)
-        factory = TerminalFactory.getDefault();
-        terminals = factory.terminals();
+        return TerminalFactory.getDefault();
+    }
+    
+    /**
+     * Creates an independent view of the terminals.
+     * Each view tracks its own card state for {@link CardTerminals#waitForChange(long)}.
+     * @return New CardTerminals instance
+     */
+    CardTerminals newTerminals() {
+        // Only called for card monitors, which are created after the readers were listed
+        return factory.join().terminals();
+    }
+    
+    /**
+     * Creates a monitor that reports card insertions and removals.
+     * @param readerNames Names of the readers to watch, or null for all
+     * @param listener Receiver of card events
+     * @return CardMonitor instance (not yet started)
+     */
+    public CardMonitor createMonitor(Collection<String> readerNames, CardMonitor.Listener listener) {
+        return new CardMonitor(this, readerNames, listener);
+    }
+    
+    /**
+     * Gets the thread shared by all card monitors of this reader manager.
+     * @return Card watcher
+     */
+    CardWatcher getCardWatcher() {
+        return cardWatcher;
+    }
+    
+    /**
+     * Gets the current reader list with its terminals.
+     * @return Reader snapshot, served from the registry
+     */
+    TerminalRegistry.Snapshot getReaderSnapshot() throws CardException {
+        return awaitRegistry().snapshot();
+    }
+    
+    /**
+     * Adds a receiver of reader attach and detach notifications. They are
+     * only reported while the readers are watched.
+     * @param listener Listener, called on the watcher thread
+     */
+    public void addReadersListener(ReadersListener listener) {
+        readersListeners.add(listener);
+    }
+    
+    /**
+     * Turns watching for reader changes on or off, once PC/SC is set up.
+     * The watcher blocks in PC/SC between changes, keeps the reader list
+     * cached and notifies the readers listeners; it is only worth running
+     * while someone listens for cards or for reader changes.
+     * @param watched Whether to watch
+     */
+    public void setReadersWatched(boolean watched) {
+        readersWatched = watched;
+        // Applies the latest value, whichever order the callbacks run in
+        registry.thenAccept(ready -> ready.setWatched(readersWatched));
+    }
+    
+    /**
+     * Drops the cached reader list, e.g. after an operation found a reader gone.
+     * The registry watcher does this on its own when PC/SC reports a reader change.
+     */
+    void invalidateReaders() {
+        if (registry.isDone() && !registry.isCompletedExceptionally()) {
+            registry.join().invalidate();
+        }
+    }
+    
+    /**
+     * Waits for PC/SC setup to finish.
+     * @return Reader registry
+     */
+    private TerminalRegistry awaitRegistry() throws CardException {
+        try {
+            return registry.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CardException("Interrupted while waiting for PC/SC", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CardException) {
+                throw (CardException) e.getCause();
+            }
+            throw new CardException("PC/SC is not available: " + e.getCause(), e.getCause());
+        }
     }
     
     /**
      * Lists all available card readers.
+     * Served from the registry; PC/SC is only asked again after a reader change.
      * @return Array of reader names
      */
     public String[] listReaders() throws CardException {
-        List<CardTerminal> terminalList = terminals.list();
-        List<String> readerNames = new ArrayList<>();
-        
-        for (CardTerminal terminal : terminalList) {
-            readerNames.add(terminal.getName());
-        }
-        
-        return readerNames.toArray(new String[0]);
+        return awaitRegistry().snapshot().getNames();
     }
     
     /**
@@ -40,13 +220,13 @@ public class ReaderManager {
      * @return CardTerminal instance
      */
     public CardTerminal getReader(int index) throws CardException {
-        List<CardTerminal> terminalList = terminals.list();
+        TerminalRegistry.Snapshot readers = awaitRegistry().snapshot();
         
-        if (index < 0 || index >= terminalList.size()) {
+        if (index < 0 || index >= readers.size()) {
             throw new IllegalArgumentException("Invalid reader index: " + index);
         }
         
-        return terminalList.get(index);
+        return readers.get(index);
     }
     
     /**
@@ -55,15 +235,39 @@ public class ReaderManager {
      * @return CardTerminal instance or null if not found
      */
     public CardTerminal getReaderByName(String name) throws CardException {
-        List<CardTerminal> terminalList = terminals.list();
-        
-        for (CardTerminal terminal : terminalList) {
-            if (terminal.getName().equals(name)) {
-                return terminal;
-            }
-        }
+        TerminalRegistry.Snapshot readers = awaitRegistry().snapshot();
+        int index = readers.indexOf(name);
         
-        return null;
+        return index >= 0 ? readers.get(index) : null;
+    }
+
+    
+    /**
+     * Gets the read timing learned for a reader.
+     * Kept for the lifetime of the manager, so it survives restarts of listening.
+     * @param readerName Name of the reader
+     * @return Timing model of the reader
+     */
+    public TimingModel getTimingModel(String readerName) {
+        return timingModels.computeIfAbsent(readerName, name -> new TimingModel());
+    }
+    
+    /**
+     * Gets the latency metrics of a reader.
+     * Kept for the lifetime of the manager, like the timing model.
+     * @param readerName Name of the reader
+     * @return Metrics of the reader
+     */
+    public ReaderMetrics getReaderMetrics(String readerName) {
+        return readerMetrics.computeIfAbsent(readerName, name -> new ReaderMetrics());
+    }
+    
+    /**
+     * Gets the metrics of every reader that has been used so far.
+     * @return Metrics by reader name, sorted by name
+     */
+    public Map<String, ReaderMetrics> getAllReaderMetrics() {
+        return new TreeMap<>(readerMetrics);
     }
     
     /**
@@ -0,0 +1,93 @@
+package info.nfcreader.host;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms and counters of one reader, for telling slow hardware
+ * (many 6300 retries, long reads) apart from a slow pcscd (long connects
+ * and transmits).
+ */
+public class ReaderMetrics {
+
+    private final LatencyHistogram wake = new LatencyHistogram();
+    private final LatencyHistogram connect = new LatencyHistogram();
+    private final LatencyHistogram transmit = new LatencyHistogram();
+    private final LatencyHistogram read = new LatencyHistogram();
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder reconnects = new LongAdder();
+
+    /**
+     * @return Time from the insertion event until the reader's listener started the read
+     */
+    public LatencyHistogram getWake() {
+        return wake;
+    }
+
+    /**
+     * @return Time to connect to the card
+     */
+    public LatencyHistogram getConnect() {
+        return connect;
+    }
+
+    /**
+     * @return Time for one APDU round trip
+     */
+    public LatencyHistogram getTransmit() {
+        return transmit;
+    }
+
+    /**
+     * @return Time from the insertion event until the UID was read, including settle and retries
+     */
+    public LatencyHistogram getRead() {
+        return read;
+    }
+
+    void readSucceeded() {
+        reads.increment();
+    }
+
+    void readRetried() {
+        retries.increment();
+    }
+
+    void readFailed() {
+        failures.increment();
+    }
+
+    void reconnected() {
+        reconnects.increment();
+    }
+
+    /**
+     * @return Number of UIDs read
+     */
+    public long getReads() {
+        return reads.sum();
+    }
+
+    /**
+     * @return Number of 6300 (card not ready) retries
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * @return Number of reads that failed even after retries
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return Number of reconnects after a reset or stale card handle
+     */
+    public long getReconnects() {
+        return reconnects.sum();
+    }
+}
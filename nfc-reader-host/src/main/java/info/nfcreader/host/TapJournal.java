@@ -0,0 +1,435 @@
+package info.nfcreader.host;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Durable, append-only record of every tap, so a tap is not lost when the
+ * browser side is gone. Off unless {@value #ENABLED_PROPERTY} is set to true,
+ * as it keeps the UIDs on disk.
+ *
+ * Records have a fixed size and are written into memory-mapped segment files,
+ * so an append is a few stores into the page cache and never a synchronous
+ * file write on the tap path; the OS writes the pages back, and they survive
+ * a crash of the host. A full segment is rotated and only the newest segments
+ * are kept.
+ *
+ * Each segment has a sparse index holding the timestamp of every
+ * {@value #INDEX_INTERVAL}th record, which a time range scan binary searches
+ * to skip to its start. Timestamps never decrease within the journal: a wall
+ * clock that steps back is recorded as the previous timestamp.
+ *
+ * The reader index is the reader's position in the host's reader list at the
+ * time of the tap. It only identifies the reader within that host session:
+ * replugging a reader or adding another one can give it a different index.
+ *
+ * Record layout (32 bytes, big-endian):
+ * <pre>
+ *  0  long   timestamp, ms since the epoch
+ *  8  long   UID bytes 0-7, left aligned
+ * 16  short  UID bytes 8-9, left aligned
+ * 18  byte   UID length, 0 if no UID was read
+ * 19  byte   outcome
+ * 20  short  reader index
+ * 22  short  reserved
+ * 24  int    reserved
+ * 28  int    marker, written last; a record without it is incomplete
+ * </pre>
+ */
+public class TapJournal {
+
+    /** System property for the journal directory. */
+    public static final String DIRECTORY_PROPERTY = "nfcreader.journal.dir";
+
+    /** System property to turn the journal on; off by default. */
+    public static final String ENABLED_PROPERTY = "nfcreader.journal";
+
+    static final int RECORD_SIZE = 32;
+    static final int INDEX_INTERVAL = 256;
+
+    /** 1 MiB segments. */
+    static final int DEFAULT_SEGMENT_RECORDS = 32768;
+    static final int DEFAULT_MAX_SEGMENTS = 16;
+
+    private static final int RECORD_MARKER = 0x4E464354; // "NFCT"
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final String INDEX_SUFFIX = ".index";
+
+    /**
+     * What came of a tap.
+     */
+    public enum Outcome {
+        /** The UID was read. */
+        READ,
+        /** A card was seen but could not be read. */
+        FAILED
+    }
+
+    /**
+     * One journaled tap.
+     */
+    public static final class Record {
+        private final long timestampMillis;
+        private final int readerIndex;
+        private final Uid uid;
+        private final Outcome outcome;
+
+        Record(long timestampMillis, int readerIndex, Uid uid, Outcome outcome) {
+            this.timestampMillis = timestampMillis;
+            this.readerIndex = readerIndex;
+            this.uid = uid;
+            this.outcome = outcome;
+        }
+
+        public long getTimestampMillis() {
+            return timestampMillis;
+        }
+
+        /**
+         * @return Index of the reader in the host session that journaled the tap
+         */
+        public int getReaderIndex() {
+            return readerIndex;
+        }
+
+        /**
+         * @return UID, or null if none was read
+         */
+        public Uid getUid() {
+            return uid;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+    }
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final int maxSegments;
+    private final FileChannel lockFile;
+
+    private long segmentNumber;
+    private MappedByteBuffer segment;
+    private MappedByteBuffer index;
+    private int count;
+    private long lastTimestamp;
+    private boolean failed;
+
+    /**
+     * Opens the journal in a directory, continuing its newest segment.
+     * @param directory      Journal directory, created if missing
+     * @param segmentRecords Records per segment; a multiple of {@value #INDEX_INTERVAL}
+     * @param maxSegments    Number of segments kept
+     * @throws IOException if the journal cannot be opened, or another host is writing it
+     */
+    public TapJournal(Path directory, int segmentRecords, int maxSegments) throws IOException {
+        if (segmentRecords <= 0 || segmentRecords % INDEX_INTERVAL != 0) {
+            throw new IllegalArgumentException("Segment size must be a multiple of " + INDEX_INTERVAL);
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.maxSegments = maxSegments;
+
+        Files.createDirectories(directory);
+        lockFile = FileChannel.open(directory.resolve("journal.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockFile.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockFile.close();
+            throw new IOException("Journal " + directory + " is in use by another host");
+        }
+
+        List<Long> segments = listSegments(directory);
+        if (segments.isEmpty()) {
+            openSegment(1);
+        } else {
+            openSegment(segments.get(segments.size() - 1));
+            count = countRecords(segment, segmentRecords);
+            if (count > 0) {
+                lastTimestamp = segment.getLong((count - 1) * RECORD_SIZE);
+            }
+            // Entries of records written right before a crash may be missing
+            for (int i = 0; i < count; i += INDEX_INTERVAL) {
+                index.putLong(i / INDEX_INTERVAL * 8, segment.getLong(i * RECORD_SIZE));
+            }
+        }
+    }
+
+    /**
+     * Opens the journal configured by the system properties.
+     * Failures are reported and leave the host running without a journal.
+     * @return Journal, or null if not turned on or unavailable
+     */
+    public static TapJournal openConfigured() {
+        if (!Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "false"))) {
+            return null;
+        }
+        try {
+            return new TapJournal(defaultDirectory(), DEFAULT_SEGMENT_RECORDS, DEFAULT_MAX_SEGMENTS);
+        } catch (IOException e) {
+            System.err.println("Tap journal disabled: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Gets the journal directory: the value of {@value #DIRECTORY_PROPERTY},
+     * otherwise $XDG_STATE_HOME/nfc-reader-host/journal or
+     * ~/.nfc-reader-host/journal.
+     * @return Journal directory
+     */
+    public static Path defaultDirectory() {
+        String configured = System.getProperty(DIRECTORY_PROPERTY);
+        if (configured != null && !configured.isEmpty()) {
+            return Paths.get(configured);
+        }
+        String stateHome = System.getenv("XDG_STATE_HOME");
+        if (stateHome != null && !stateHome.isEmpty()) {
+            return Paths.get(stateHome, "nfc-reader-host", "journal");
+        }
+        return Paths.get(System.getProperty("user.home"), ".nfc-reader-host", "journal");
+    }
+
+    /**
+     * Appends a tap. Never blocks on I/O; a failure to rotate is reported once
+     * and turns the journal off.
+     * @param timestampMillis Time of the tap, ms since the epoch
+     * @param readerIndex     Index of the reader in this host session
+     * @param uid             UID read, or null
+     * @param outcome         Outcome of the tap
+     */
+    public synchronized void append(long timestampMillis, int readerIndex, Uid uid, Outcome outcome) {
+        if (failed) {
+            return;
+        }
+        if (count == segmentRecords) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                System.err.println("Tap journal disabled: " + e.getMessage());
+                failed = true;
+                return;
+            }
+        }
+
+        long timestamp = Math.max(timestampMillis, lastTimestamp);
+        int offset = count * RECORD_SIZE;
+        segment.putLong(offset, timestamp);
+        segment.putLong(offset + 8, uid != null ? uid.packedHigh() : 0);
+        segment.putShort(offset + 16, uid != null ? uid.packedLow() : 0);
+        segment.put(offset + 18, (byte) (uid != null ? uid.length() : 0));
+        segment.put(offset + 19, (byte) outcome.ordinal());
+        segment.putShort(offset + 20, (short) readerIndex);
+        segment.putInt(offset + 28, RECORD_MARKER);
+        if (count % INDEX_INTERVAL == 0) {
+            index.putLong(count / INDEX_INTERVAL * 8, timestamp);
+        }
+        count++;
+        lastTimestamp = timestamp;
+    }
+
+    /**
+     * Writes the mapped pages back and releases the journal.
+     */
+    public synchronized void close() {
+        if (segment != null) {
+            segment.force();
+            index.force();
+        }
+        failed = true;
+        try {
+            lockFile.close();
+        } catch (IOException e) {
+            // Released with the process anyway
+        }
+    }
+
+    private void rotate() throws IOException {
+        segment.force();
+        index.force();
+        openSegment(segmentNumber + 1);
+        count = 0;
+
+        List<Long> segments = listSegments(directory);
+        for (int i = 0; i < segments.size() - maxSegments; i++) {
+            try {
+                Files.deleteIfExists(segmentPath(directory, segments.get(i), SEGMENT_SUFFIX));
+                Files.deleteIfExists(segmentPath(directory, segments.get(i), INDEX_SUFFIX));
+            } catch (IOException e) {
+                // Windows keeps files mapped by this process; removed on a later rotation
+            }
+        }
+    }
+
+    private void openSegment(long number) throws IOException {
+        segmentNumber = number;
+        segment = map(segmentPath(directory, number, SEGMENT_SUFFIX), (long) segmentRecords * RECORD_SIZE);
+        index = map(segmentPath(directory, number, INDEX_SUFFIX), (long) segmentRecords / INDEX_INTERVAL * 8);
+    }
+
+    private static MappedByteBuffer map(Path path, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static Path segmentPath(Path directory, long number, String suffix) {
+        return directory.resolve(String.format("taps-%08d%s", number, suffix));
+    }
+
+    /**
+     * @return Segment numbers in the directory, oldest first
+     */
+    private static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> numbers = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return numbers;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "taps-*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Long.parseLong(name.substring(5, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not a segment
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    /**
+     * Counts the complete records; they form a prefix of the segment.
+     */
+    private static int countRecords(ByteBuffer segment, int capacity) {
+        int low = 0;
+        int high = Math.min(capacity, segment.capacity() / RECORD_SIZE);
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (segment.getInt(middle * RECORD_SIZE + 28) == RECORD_MARKER) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Receives the records of a scan in journal order.
+     */
+    public interface Visitor {
+        void visit(Record record);
+    }
+
+    /**
+     * Scans the journal in a directory for taps in a time range.
+     * Safe while a host is appending to it.
+     * @param directory  Journal directory
+     * @param fromMillis Start of the range, inclusive
+     * @param toMillis   End of the range, inclusive
+     * @param uid        Only taps of this UID, or null for all
+     * @param visitor    Receiver of the matching records
+     * @return Number of records read, matching or not
+     */
+    public static long scan(Path directory, long fromMillis, long toMillis, Uid uid, Visitor visitor)
+            throws IOException {
+        List<Long> segments = listSegments(directory);
+        List<ByteBuffer> mapped = new ArrayList<>();
+        for (long number : segments) {
+            mapped.add(mapReadOnly(segmentPath(directory, number, SEGMENT_SUFFIX)));
+        }
+
+        long read = 0;
+        for (int s = 0; s < mapped.size(); s++) {
+            ByteBuffer segment = mapped.get(s);
+            int count = countRecords(segment, Integer.MAX_VALUE);
+            if (count == 0) {
+                continue;
+            }
+            if (segment.getLong(0) > toMillis) {
+                break;
+            }
+            // Every record of this segment is older than the next segment's first
+            if (s + 1 < mapped.size() && countRecords(mapped.get(s + 1), 1) == 1
+                    && mapped.get(s + 1).getLong(0) < fromMillis) {
+                continue;
+            }
+
+            int start = startRecord(directory, segments.get(s), count, fromMillis);
+            for (int i = start; i < count; i++) {
+                int offset = i * RECORD_SIZE;
+                long timestamp = segment.getLong(offset);
+                if (timestamp > toMillis) {
+                    return read;
+                }
+                read++;
+                if (timestamp < fromMillis) {
+                    continue;
+                }
+                int uidLength = segment.get(offset + 18);
+                Uid recordUid = uidLength > 0
+                    ? Uid.ofPacked(segment.getLong(offset + 8), segment.getShort(offset + 16), uidLength) : null;
+                if (uid != null && !uid.equals(recordUid)) {
+                    continue;
+                }
+                Outcome[] outcomes = Outcome.values();
+                int outcome = segment.get(offset + 19);
+                visitor.visit(new Record(timestamp, segment.getShort(offset + 20), recordUid,
+                    outcome >= 0 && outcome < outcomes.length ? outcomes[outcome] : Outcome.FAILED));
+            }
+        }
+        return read;
+    }
+
+    /**
+     * Finds the first record at or before the start of a time range with the sparse index.
+     */
+    private static int startRecord(Path directory, long number, int count, long fromMillis) throws IOException {
+        Path indexPath = segmentPath(directory, number, INDEX_SUFFIX);
+        if (!Files.exists(indexPath)) {
+            return 0;
+        }
+        ByteBuffer index = mapReadOnly(indexPath);
+        int entries = Math.min(index.capacity() / 8, (count + INDEX_INTERVAL - 1) / INDEX_INTERVAL);
+        // Last entry whose timestamp is before the range; entries not yet written read as 0
+        int low = 0;
+        int high = entries - 1;
+        int found = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (index.getLong(middle * 8) < fromMillis) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found * INDEX_INTERVAL;
+    }
+
+    private static ByteBuffer mapReadOnly(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
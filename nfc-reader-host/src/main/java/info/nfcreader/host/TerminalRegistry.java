@@ -0,0 +1,282 @@
+package info.nfcreader.host;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+/**
+ * In-memory list of the connected readers: names, indices and terminal handles.
+ *
+ * Listing readers is a full PC/SC round trip, so the list is kept until PC/SC
+ * reports a reader change. A watcher thread blocks on its own terminal view
+ * and compares the reader names whenever a wait reports a change; readers that
+ * appear or disappear invalidate the cache and are reported to the change
+ * listener, card taps do not.
+ *
+ * The watcher only runs while the readers are watched (see
+ * {@link #setWatched(boolean)}); it exits one wait slice after watching is
+ * turned off and drops the cache, which nothing keeps current any more.
+ * Unwatched lookups list the readers every time.
+ */
+class TerminalRegistry {
+
+    /**
+     * Immutable view of the readers at one point in time.
+     */
+    static final class Snapshot {
+        private final List<CardTerminal> terminals;
+        private final String[] names;
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        Snapshot(List<CardTerminal> terminals) {
+            this.terminals = Collections.unmodifiableList(new ArrayList<>(terminals));
+            this.names = new String[terminals.size()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = terminals.get(i).getName();
+                indices.put(names[i], i);
+            }
+        }
+
+        int size() {
+            return names.length;
+        }
+
+        /**
+         * @return Copy of the reader names, in PC/SC order
+         */
+        String[] getNames() {
+            return names.clone();
+        }
+
+        CardTerminal get(int index) {
+            return terminals.get(index);
+        }
+
+        /**
+         * @return Index of the named reader, or -1
+         */
+        int indexOf(String name) {
+            Integer index = indices.get(name);
+            return index != null ? index : -1;
+        }
+
+        boolean hasSameReaders(List<CardTerminal> current) {
+            if (current.size() != names.length) {
+                return false;
+            }
+            for (int i = 0; i < names.length; i++) {
+                if (!names[i].equals(current.get(i).getName())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(names);
+        }
+    }
+
+    private final CardTerminals terminals;
+    private final Supplier<CardTerminals> watchView;
+    private final ReaderManager.ReadersListener changes;
+
+    private volatile Snapshot snapshot;
+    // Bumped on every invalidation, so a refresh racing with one is not cached
+    private long invalidations;
+    private boolean watched;    // guarded by this
+    private Thread watcher;     // guarded by this
+
+    /**
+     * @param terminals Terminal view used to list the readers
+     * @param watchView Creates the watcher's own view; PC/SC serializes list() and waitForChange() per view
+     */
+    TerminalRegistry(CardTerminals terminals, Supplier<CardTerminals> watchView) {
+        this(terminals, watchView, null);
+    }
+
+    /**
+     * @param terminals Terminal view used to list the readers
+     * @param watchView Creates the watcher's own view
+     * @param changes   Receiver of reader attach and detach, called on the watcher thread; or null
+     */
+    TerminalRegistry(CardTerminals terminals, Supplier<CardTerminals> watchView, ReaderManager.ReadersListener changes) {
+        this.terminals = terminals;
+        this.watchView = watchView;
+        this.changes = changes;
+    }
+
+    /**
+     * Turns watching for reader changes on or off.
+     * @param watched true while the cache and the change listener are needed
+     */
+    synchronized void setWatched(boolean watched) {
+        this.watched = watched;
+        if (watched && watcher == null) {
+            watcher = new Thread(this::watchLoop, "nfc-reader-watch");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+    }
+
+    /**
+     * @return true while a watcher thread runs
+     */
+    synchronized boolean isWatching() {
+        return watcher != null;
+    }
+
+    /**
+     * Returns the cached readers, listing them through PC/SC only after a change.
+     * Without a watcher the readers are listed on every call.
+     * @return Current snapshot
+     */
+    Snapshot snapshot() throws CardException {
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+
+        long seen;
+        synchronized (this) {
+            seen = invalidations;
+        }
+
+        Snapshot listed = new Snapshot(terminals.list());
+        synchronized (this) {
+            if (seen == invalidations && watcher != null) {
+                snapshot = listed;
+            }
+        }
+        return listed;
+    }
+
+    /**
+     * Drops the cached readers; the next lookup lists them again.
+     */
+    synchronized void invalidate() {
+        invalidations++;
+        snapshot = null;
+    }
+
+    /**
+     * @return true if the readers are cached
+     */
+    boolean isCached() {
+        return snapshot != null;
+    }
+
+    private void watchLoop() {
+        try {
+            watchUntilUnwatched();
+        } finally {
+            // Left early (interrupted at shutdown, or a failure): nothing keeps the cache current
+            synchronized (this) {
+                retire();
+            }
+        }
+    }
+
+    /**
+     * Marks the watcher gone and drops the cache, when called from the current
+     * watcher thread. Called with the lock held.
+     */
+    private void retire() {
+        if (watcher == Thread.currentThread()) {
+            watcher = null;
+            invalidate();
+        }
+    }
+
+    private void watchUntilUnwatched() {
+        CardTerminals view = watchView.get();
+        // The first wait records the baseline; compare once after it in case
+        // a reader changed while the cache was being filled
+        boolean compare = true;
+        // Readers as last reported; starts from the readers the watcher found, as
+        // changes from before it started went unwatched. Null if they could not be listed
+        List<String> known;
+        try {
+            known = namesOf(view.list());
+        } catch (CardException | IllegalStateException e) {
+            known = null;
+        }
+        while (true) {
+            synchronized (this) {
+                // Retired under the same lock setWatched() checks, so a new watch starts a new thread
+                if (!watched) {
+                    retire();
+                    return;
+                }
+            }
+            try {
+                compare |= view.waitForChange(CardMonitor.WAIT_SLICE_MS);
+                if (compare) {
+                    compare = false;
+                    List<CardTerminal> listed = view.list();
+                    Snapshot current = snapshot;
+                    // Without a snapshot the bump still stops a refresh in flight from caching
+                    if (current == null || !current.hasSameReaders(listed)) {
+                        invalidate();
+                    }
+                    known = report(known, current, namesOf(listed));
+                }
+            } catch (CardException | IllegalStateException e) {
+                // IllegalStateException: no terminals; the cache must not keep any
+                Snapshot current = snapshot;
+                if (current == null || current.size() > 0) {
+                    invalidate();
+                }
+                known = report(known, current, Collections.emptyList());
+                compare = true;
+                try {
+                    Thread.sleep(CardMonitor.WAIT_SLICE_MS);
+                } catch (InterruptedException ie) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private static List<String> namesOf(List<CardTerminal> terminals) {
+        List<String> names = new ArrayList<>();
+        for (CardTerminal terminal : terminals) {
+            names.add(terminal.getName());
+        }
+        return names;
+    }
+
+    /**
+     * Reports the readers that were attached or detached since the last report.
+     * Without earlier readers the first report compares against the cached
+     * list, which is what clients have been told so far.
+     * @return Readers now known
+     */
+    private List<String> report(List<String> known, Snapshot cached, List<String> names) {
+        if (known == null) {
+            known = cached != null ? Arrays.asList(cached.getNames()) : names;
+        }
+        if (changes == null || known.equals(names)) {
+            return names;
+        }
+        List<String> added = new ArrayList<>(names);
+        added.removeAll(known);
+        List<String> removed = new ArrayList<>(known);
+        removed.removeAll(names);
+        try {
+            changes.readersChanged(Collections.unmodifiableList(names), added, removed);
+        } catch (RuntimeException e) {
+            System.err.println("Reader change listener failed: " + e.getMessage());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,165 @@
+package info.nfcreader.host;
+
+import java.util.Arrays;
+
+/**
+ * Learned read timing of one reader.
+ *
+ * A card needs some time in the field before it answers; reading too early
+ * costs a 6300 and a retry, waiting too long adds latency to every tap. The
+ * model starts from the historical fixed delays and adapts to what the reader
+ * actually does:
+ * <ul>
+ * <li>settle time: shrinks while first reads succeed, grows towards the
+ *     observed time-to-ready when a read needed retries</li>
+ * <li>retry backoff: starts at half the observed 6300 recovery time and
+ *     doubles per attempt</li>
+ * </ul>
+ * With a latency target set, the settle time is capped well below it and
+ * shrinks faster while the p95 tap-to-read latency misses the target.
+ */
+public class TimingModel {
+
+    /** System property for the default latency target in milliseconds. */
+    public static final String LATENCY_TARGET_PROPERTY = "nfcreader.latencyTarget";
+
+    static final double INITIAL_SETTLE_MS = 50;
+    static final double INITIAL_RECOVERY_MS = 40;
+    static final long MIN_RETRY_MS = 2;
+    static final long MAX_RETRY_MS = 100;
+    static final int MAX_ATTEMPTS = 5;
+
+    // Total time a read may take before giving up, without a target
+    private static final long DEFAULT_READ_BUDGET_MS = 400;
+    private static final int LATENCY_SAMPLES = 64;
+
+    private double settleMs = INITIAL_SETTLE_MS;
+    private double recoveryMs = INITIAL_RECOVERY_MS;
+    private long latencyTargetMs;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private int latencyNext;
+
+    public TimingModel() {
+        this(defaultLatencyTarget());
+    }
+
+    /**
+     * @return Latency target set with {@value #LATENCY_TARGET_PROPERTY}, 0 for none
+     */
+    public static long defaultLatencyTarget() {
+        return Long.getLong(LATENCY_TARGET_PROPERTY, 0);
+    }
+
+    /**
+     * @param latencyTargetMs Target p95 tap-to-read latency, 0 for none
+     */
+    public TimingModel(long latencyTargetMs) {
+        setLatencyTarget(latencyTargetMs);
+    }
+
+    /**
+     * Sets the p95 tap-to-read latency to aim for.
+     * @param latencyTargetMs Target in milliseconds, 0 for none
+     */
+    public synchronized void setLatencyTarget(long latencyTargetMs) {
+        if (latencyTargetMs < 0) {
+            throw new IllegalArgumentException("Latency target must not be negative: " + latencyTargetMs);
+        }
+        this.latencyTargetMs = latencyTargetMs;
+    }
+
+    public synchronized long getLatencyTarget() {
+        return latencyTargetMs;
+    }
+
+    /**
+     * @return Time to let a new card settle before the first read
+     */
+    public synchronized long settleDelayMs() {
+        double settle = settleMs;
+        if (latencyTargetMs > 0) {
+            // Leave room for the read itself and one retry
+            settle = Math.min(settle, latencyTargetMs / 3.0);
+        }
+        return Math.round(settle);
+    }
+
+    /**
+     * @param attempt Number of the attempt that just failed, starting at 1
+     * @return Time to wait before the next attempt
+     */
+    public synchronized long retryDelayMs(int attempt) {
+        double delay = recoveryMs / 2 * (1L << Math.min(attempt - 1, 6));
+        return Math.max(MIN_RETRY_MS, Math.min(MAX_RETRY_MS, Math.round(delay)));
+    }
+
+    /**
+     * Decides whether a failed attempt is retried.
+     * @param attempt   Number of the attempt that just failed, starting at 1
+     * @param elapsedMs Time since the card was detected
+     * @return true to retry after {@link #retryDelayMs(int)}
+     */
+    public synchronized boolean shouldRetry(int attempt, long elapsedMs) {
+        if (attempt >= MAX_ATTEMPTS) {
+            return false;
+        }
+        long budget = latencyTargetMs > 0 ? Math.max(4 * latencyTargetMs, 100) : DEFAULT_READ_BUDGET_MS;
+        return elapsedMs + retryDelayMs(attempt) <= budget;
+    }
+
+    /**
+     * Records a successful read.
+     * @param attempts       Attempts it took, 1 if the first read succeeded
+     * @param firstFailureMs Time from detection to the first failed attempt (ignored if attempts is 1)
+     * @param readyMs        Time from detection to the successful read
+     */
+    public synchronized void recordSuccess(int attempts, long firstFailureMs, long readyMs) {
+        if (attempts == 1) {
+            // The card was ready by then; try a little less next time
+            boolean missingTarget = latencyTargetMs > 0 && latencyCount > 0 && p95() > latencyTargetMs;
+            settleMs *= missingTarget ? 0.7 : 0.9;
+        } else {
+            // Move the settle time towards when the card was actually ready
+            settleMs += 0.5 * (readyMs - settleMs);
+            recoveryMs += 0.3 * (Math.max(readyMs - firstFailureMs, 0) - recoveryMs);
+        }
+        settleMs = Math.max(0, Math.min(settleMs, DEFAULT_READ_BUDGET_MS / 2.0));
+        recordLatency(readyMs);
+    }
+
+    /**
+     * Records a read that failed even after retries.
+     */
+    public synchronized void recordFailure() {
+        // Possibly read far too early; back off towards the initial settle time
+        settleMs = Math.max(settleMs, INITIAL_SETTLE_MS);
+    }
+
+    private void recordLatency(long latencyMs) {
+        latencies[latencyNext] = latencyMs;
+        latencyNext = (latencyNext + 1) % LATENCY_SAMPLES;
+        latencyCount = Math.min(latencyCount + 1, LATENCY_SAMPLES);
+    }
+
+    /**
+     * @return p95 of the recent tap-to-read latencies, or -1 if none were recorded
+     */
+    public synchronized long getP95LatencyMs() {
+        return latencyCount == 0 ? -1 : p95();
+    }
+
+    private long p95() {
+        long[] sorted = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(sorted);
+        return sorted[(int) Math.ceil(0.95 * latencyCount) - 1];
+    }
+
+    /**
+     * @return Current estimate of the 6300 recovery time
+     */
+    public synchronized long getRecoveryMs() {
+        return Math.round(recoveryMs);
+    }
+}
@@ -0,0 +1,295 @@
+package info.nfcreader.host;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Immutable card UID of up to 10 bytes.
+ *
+ * The bytes are packed big-endian into a long and a short, so a UID is three
+ * fields instead of an array and a String, and equality is a field compare.
+ * Hex output goes through the {@link Hex} lookup table; all output formats the
+ * browser may ask for are produced here once per tap by {@link #formats()}.
+ */
+public final class Uid {
+
+    /** Longest UID defined by ISO/IEC 14443-3. */
+    public static final int MAX_LENGTH = 10;
+
+    /** System property listing the formats sent with card-detected, comma separated. */
+    public static final String FORMATS_PROPERTY = "nfcreader.uidFormats";
+
+    /**
+     * Output formats of a UID, keyed by the names the extension uses.
+     */
+    public enum Format {
+        PLAIN("plain"),
+        SPACED("spaced"),
+        COLON("colon"),
+        DASH("dash"),
+        REVERSED("reversed"),
+        DECIMAL("decimal");
+
+        private final String key;
+
+        Format(String key) {
+            this.key = key;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Formats a UID.
+         * @param uid UID
+         * @return Formatted UID
+         */
+        public String format(Uid uid) {
+            switch (this) {
+                case SPACED:
+                    return uid.toHex(' ');
+                case COLON:
+                    return uid.toHex(':');
+                case DASH:
+                    return uid.toHex('-');
+                case REVERSED:
+                    return uid.toReversedHex();
+                case DECIMAL:
+                    return uid.toDecimal();
+                case PLAIN:
+                default:
+                    return uid.toHex();
+            }
+        }
+
+        /**
+         * Parses a comma separated list of format keys.
+         * @param keys Format keys, e.g. "plain,colon"
+         * @return Formats in the given order
+         */
+        static List<Format> parseList(String keys) {
+            EnumSet<Format> formats = EnumSet.noneOf(Format.class);
+            List<Format> result = new ArrayList<>();
+            for (String key : keys.split(",")) {
+                if (key.trim().isEmpty()) {
+                    continue;
+                }
+                Format format = valueOf(key.trim().toUpperCase(Locale.ROOT));
+                if (formats.add(format)) {
+                    result.add(format);
+                }
+            }
+            return Collections.unmodifiableList(result);
+        }
+    }
+
+    // Formats sent with every card-detected event
+    private static final List<Format> CONFIGURED_FORMATS = Format.parseList(
+        System.getProperty(FORMATS_PROPERTY, "plain,spaced,colon,dash,reversed,decimal"));
+
+    private final long high;   // bytes 0-7, left aligned
+    private final short low;   // bytes 8-9, left aligned
+    private final byte length;
+
+    private Uid(long high, short low, int length) {
+        this.high = high;
+        this.low = low;
+        this.length = (byte) length;
+    }
+
+    /**
+     * Creates a UID from the bytes returned by the card.
+     * @param bytes UID bytes, 1 to 10
+     * @return UID
+     */
+    public static Uid of(byte[] bytes) {
+        if (bytes.length == 0 || bytes.length > MAX_LENGTH) {
+            throw new IllegalArgumentException("UID must be 1 to " + MAX_LENGTH + " bytes, got " + bytes.length);
+        }
+        long high = 0;
+        int low = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (i < 8) {
+                high |= (bytes[i] & 0xFFL) << (56 - 8 * i);
+            } else {
+                low |= (bytes[i] & 0xFF) << (8 - 8 * (i - 8));
+            }
+        }
+        return new Uid(high, (short) low, bytes.length);
+    }
+
+    /**
+     * Recreates a UID from its packed form, e.g. as stored in the tap journal.
+     * @param high   Bytes 0-7, left aligned
+     * @param low    Bytes 8-9, left aligned
+     * @param length UID length in bytes
+     * @return UID
+     */
+    static Uid ofPacked(long high, short low, int length) {
+        if (length <= 0 || length > MAX_LENGTH) {
+            throw new IllegalArgumentException("UID must be 1 to " + MAX_LENGTH + " bytes, got " + length);
+        }
+        return new Uid(high, low, length);
+    }
+
+    /**
+     * @return Bytes 0-7, left aligned
+     */
+    long packedHigh() {
+        return high;
+    }
+
+    /**
+     * @return Bytes 8-9, left aligned
+     */
+    short packedLow() {
+        return low;
+    }
+
+    /**
+     * Parses a hex UID; separators between the bytes are ignored.
+     * @param hex UID such as "04A1B2C3" or "04:a1:b2:c3"
+     * @return UID
+     */
+    public static Uid parse(String hex) {
+        return of(Hex.decode(hex));
+    }
+
+    /**
+     * @return UID length in bytes
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return Size class of this UID
+     */
+    public UidClass getUidClass() {
+        return UidClass.of(length);
+    }
+
+    /**
+     * @return Human-readable UID type, e.g. "Double size UID (7 bytes)"
+     */
+    public String getTypeDescription() {
+        return UidClass.describe(length);
+    }
+
+    /**
+     * Gets one byte of the UID.
+     * @param index Byte index, 0 is the first byte sent by the card
+     * @return UID byte
+     */
+    public byte byteAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index " + index + " for UID of " + length + " bytes");
+        }
+        if (index < 8) {
+            return (byte) (high >>> (56 - 8 * index));
+        }
+        return (byte) (low >>> (8 - 8 * (index - 8)));
+    }
+
+    /**
+     * @return Copy of the UID bytes
+     */
+    public byte[] getBytes() {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = byteAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Uppercase hex without separators, e.g. "04A1B2C3"
+     */
+    public String toHex() {
+        char[] chars = new char[2 * length];
+        for (int i = 0; i < length; i++) {
+            Hex.put(byteAt(i), chars, 2 * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param separator Character between the bytes
+     * @return Uppercase hex with separators, e.g. "04:A1:B2:C3"
+     */
+    public String toHex(char separator) {
+        char[] chars = new char[3 * length - 1];
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                chars[3 * i - 1] = separator;
+            }
+            Hex.put(byteAt(i), chars, 3 * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return Uppercase hex in reversed byte order, e.g. "C3B2A104"
+     */
+    public String toReversedHex() {
+        char[] chars = new char[2 * length];
+        for (int i = 0; i < length; i++) {
+            Hex.put(byteAt(length - 1 - i), chars, 2 * i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return UID bytes read as one unsigned big-endian number, in decimal
+     */
+    public String toDecimal() {
+        if (length <= 8) {
+            return Long.toUnsignedString(high >>> (64 - 8 * length));
+        }
+        return new BigInteger(1, getBytes()).toString();
+    }
+
+    /**
+     * Produces the configured output formats, see {@link #FORMATS_PROPERTY}.
+     * @return Formatted UIDs keyed by format name, in configuration order
+     */
+    public Map<String, String> formats() {
+        Map<String, String> formats = new LinkedHashMap<>();
+        for (Format format : CONFIGURED_FORMATS) {
+            formats.put(format.getKey(), format.format(this));
+        }
+        return formats;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Uid)) {
+            return false;
+        }
+        Uid other = (Uid) o;
+        return high == other.high && low == other.low && length == other.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * Long.hashCode(high) + low) + length;
+    }
+
+    /**
+     * @return Uppercase hex without separators
+     */
+    @Override
+    public String toString() {
+        return toHex();
+    }
+}
@@ -0,0 +1,57 @@
+package info.nfcreader.host;
+
+/**
+ * UID size classes defined by ISO/IEC 14443-3 for NFC-A cards.
+ */
+public enum UidClass {
+    SINGLE(4, "Single size UID (4 bytes)"),
+    DOUBLE(7, "Double size UID (7 bytes)"),
+    TRIPLE(10, "Triple size UID (10 bytes)"),
+    UNKNOWN(0, "Unknown UID type");
+
+    private final int length;
+    private final String description;
+
+    UidClass(int length, String description) {
+        this.length = length;
+        this.description = description;
+    }
+
+    /**
+     * Gets the size class of a UID length.
+     * @param length UID length in bytes
+     * @return Size class, UNKNOWN for non-standard lengths
+     */
+    public static UidClass of(int length) {
+        switch (length) {
+            case 4:
+                return SINGLE;
+            case 7:
+                return DOUBLE;
+            case 10:
+                return TRIPLE;
+            default:
+                return UNKNOWN;
+        }
+    }
+
+    /**
+     * @return UID length in bytes, 0 for UNKNOWN
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the human-readable description of a UID of the given length.
+     * @param length UID length in bytes
+     * @return Description, e.g. "Double size UID (7 bytes)"
+     */
+    public static String describe(int length) {
+        UidClass uidClass = of(length);
+        if (uidClass == UNKNOWN) {
+            return "Unknown UID type (" + length + " bytes)";
+        }
+        return uidClass.description;
+    }
+}
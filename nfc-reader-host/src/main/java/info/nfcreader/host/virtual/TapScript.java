@@ -0,0 +1,247 @@
+package info.nfcreader.host.virtual;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Scripted schedule of taps and faults for a {@link VirtualPcsc}.
+ *
+ * One directive per line, {@code #} starts a comment. Times are milliseconds
+ * from the start of playback, readers are referenced by index and must be
+ * declared before they are used.
+ * <pre>
+ * readers 2                          create "Virtual Reader 0" and "Virtual Reader 1"
+ * reader Front Desk                  add a reader with the given name
+ * at 100 tap 0 04A1B2C3 hold 150     card on reader 0 for 150 ms (default: stays)
+ * at 100 tap 0 04A1B2C3 hold 50 repeat 20 every 200
+ * at 300 sw 0 6300 2                 next 2 APDUs on reader 0 answer 6300
+ * at 400 delay 1 25                  reader 1 answers APDUs after 25 ms
+ * at 450 reset 0                     reset the card on reader 0 (open connections must reconnect)
+ * at 500 remove 0                    take the card off reader 0
+ * at 900 detach 1                    unplug reader 1
+ * at 1500 attach 1                   plug reader 1 back in
+ * </pre>
+ */
+public class TapScript {
+
+    private final List<String> readerNames = new ArrayList<>();
+    private final List<Step> steps = new ArrayList<>();
+
+    private static class Step {
+        final long atMs;
+        final String action;
+        final int reader;
+        final String[] args;
+
+        Step(long atMs, String action, int reader, String[] args) {
+            this.atMs = atMs;
+            this.action = action;
+            this.reader = reader;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Parses a script.
+     * @param text Script source
+     * @return Parsed script
+     * @throws IllegalArgumentException on syntax errors
+     */
+    public static TapScript parse(String text) {
+        TapScript script = new TapScript();
+        String[] lines = text.split("\r?\n");
+
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            try {
+                script.parseLine(line);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return script;
+    }
+
+    private void parseLine(String line) {
+        String[] tokens = line.split("\\s+");
+
+        switch (tokens[0]) {
+            case "readers":
+                int count = Integer.parseInt(tokens[1]);
+                for (int i = 0; i < count; i++) {
+                    readerNames.add("Virtual Reader " + readerNames.size());
+                }
+                return;
+
+            case "reader":
+                readerNames.add(line.substring("reader".length()).trim());
+                return;
+
+            case "at":
+                long atMs = Long.parseLong(tokens[1]);
+                String action = tokens[2];
+                int reader = Integer.parseInt(tokens[3]);
+                if (reader < 0 || reader >= readerNames.size()) {
+                    throw new IllegalArgumentException("Unknown reader " + reader + " (" + readerNames.size()
+                        + " declared)");
+                }
+                String[] args = new String[tokens.length - 4];
+                System.arraycopy(tokens, 4, args, 0, args.length);
+                addSteps(atMs, action, reader, args);
+                return;
+
+            default:
+                throw new IllegalArgumentException("Unknown directive: " + tokens[0]);
+        }
+    }
+
+    private void addSteps(long atMs, String action, int reader, String[] args) {
+        switch (action) {
+            case "tap":
+                parseHex(args[0]);
+                long hold = longOption(args, "hold", -1);
+                long repeat = longOption(args, "repeat", 1);
+                long every = longOption(args, "every", 0);
+                for (int i = 0; i < repeat; i++) {
+                    long tapAt = atMs + i * every;
+                    steps.add(new Step(tapAt, "tap", reader, new String[] { args[0] }));
+                    if (hold >= 0) {
+                        steps.add(new Step(tapAt + hold, "remove", reader, new String[0]));
+                    }
+                }
+                break;
+
+            case "sw":
+                Integer.parseInt(args[0], 16);
+                steps.add(new Step(atMs, action, reader, args));
+                break;
+
+            case "delay":
+                Long.parseLong(args[0]);
+                steps.add(new Step(atMs, action, reader, args));
+                break;
+
+            case "remove":
+            case "reset":
+            case "detach":
+            case "attach":
+                steps.add(new Step(atMs, action, reader, args));
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown action: " + action);
+        }
+    }
+
+    private static long longOption(String[] args, String name, long defaultValue) {
+        for (int i = 1; i < args.length - 1; i++) {
+            if (args[i].equals(name)) {
+                return Long.parseLong(args[i + 1]);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @return Number of readers the script declares
+     */
+    public int getReaderCount() {
+        return readerNames.size();
+    }
+
+    /**
+     * Creates a subsystem with the readers declared by the script.
+     * @return New subsystem
+     */
+    public VirtualPcsc createPcsc() {
+        VirtualPcsc pcsc = new VirtualPcsc(0);
+        for (String name : readerNames) {
+            pcsc.addReader(name);
+        }
+        return pcsc;
+    }
+
+    /**
+     * Replays the script against a subsystem on a background thread.
+     * @param pcsc Target subsystem
+     * @return The playback thread (daemon, already started)
+     */
+    public Thread play(VirtualPcsc pcsc) {
+        List<Step> schedule = new ArrayList<>(steps);
+        schedule.sort(Comparator.comparingLong(step -> step.atMs));
+
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            for (Step step : schedule) {
+                long waitMs = step.atMs - (System.nanoTime() - start) / 1_000_000;
+                if (waitMs > 0) {
+                    try {
+                        Thread.sleep(waitMs);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                apply(pcsc, step);
+            }
+        }, "nfc-virtual-tap-script");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void apply(VirtualPcsc pcsc, Step step) {
+        VirtualReader reader = pcsc.getReader(step.reader);
+        switch (step.action) {
+            case "tap":
+                reader.insertCard(parseHex(step.args[0]));
+                break;
+            case "remove":
+                reader.removeCard();
+                break;
+            case "reset":
+                reader.resetCard();
+                break;
+            case "sw":
+                int count = step.args.length > 1 ? Integer.parseInt(step.args[1]) : 1;
+                reader.failNext(Integer.parseInt(step.args[0], 16), count);
+                break;
+            case "delay":
+                reader.setResponseDelay(Long.parseLong(step.args[0]));
+                break;
+            case "detach":
+                reader.detach();
+                break;
+            case "attach":
+                reader.attach();
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Parses a hex string such as "04A1B2C3" or "04:A1:B2:C3".
+     * @param hex Hex string
+     * @return Bytes
+     */
+    public static byte[] parseHex(String hex) {
+        String clean = hex.replaceAll("[^0-9A-Fa-f]", "");
+        if (clean.isEmpty() || clean.length() % 2 != 0) {
+            throw new IllegalArgumentException("Invalid hex: " + hex);
+        }
+        byte[] bytes = new byte[clean.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(clean.substring(i * 2, i * 2 + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,220 @@
+package info.nfcreader.host.virtual;
+
+import java.nio.ByteBuffer;
+
+import javax.smartcardio.ATR;
+import javax.smartcardio.Card;
+import javax.smartcardio.CardChannel;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+/**
+ * Connection to the card currently on a {@link VirtualReader}.
+ * Answers the ACR122U GET DATA (UID) pseudo-APDU, plus READ BINARY and NTAG
+ * FAST_READ for tags with memory, and applies the reader's scripted response
+ * delay, status word faults and card resets.
+ */
+class VirtualCard extends Card {
+
+    private static final byte[] ATR_BYTES = {
+        (byte) 0x3B, (byte) 0x8F, (byte) 0x80, (byte) 0x01, (byte) 0x80, (byte) 0x4F,
+        (byte) 0x0C, (byte) 0xA0, (byte) 0x00, (byte) 0x00, (byte) 0x03, (byte) 0x06,
+        (byte) 0x03, (byte) 0x00, (byte) 0x03, (byte) 0x00, (byte) 0x00, (byte) 0x00,
+        (byte) 0x00, (byte) 0x68
+    };
+
+    private final VirtualPcsc pcsc;
+    private final VirtualReader reader;
+    private final long generation;
+    private final long resetGeneration;
+    private final Channel basicChannel = new Channel();
+    private volatile boolean connected = true;
+
+    VirtualCard(VirtualPcsc pcsc, VirtualReader reader, long generation, long resetGeneration) {
+        this.pcsc = pcsc;
+        this.reader = reader;
+        this.generation = generation;
+        this.resetGeneration = resetGeneration;
+    }
+
+    @Override
+    public ATR getATR() {
+        return new ATR(ATR_BYTES);
+    }
+
+    @Override
+    public String getProtocol() {
+        return "T=1";
+    }
+
+    @Override
+    public CardChannel getBasicChannel() {
+        checkConnected();
+        return basicChannel;
+    }
+
+    @Override
+    public CardChannel openLogicalChannel() throws CardException {
+        throw new CardException("Logical channels not supported");
+    }
+
+    @Override
+    public void beginExclusive() throws CardException {
+        synchronized (pcsc.lock) {
+            checkCard();
+            reader.transactions++;
+        }
+    }
+
+    @Override
+    public void endExclusive() throws CardException {
+        synchronized (pcsc.lock) {
+            checkCard();
+        }
+    }
+
+    @Override
+    public byte[] transmitControlCommand(int controlCode, byte[] command) throws CardException {
+        throw new CardException("Control commands not supported");
+    }
+
+    @Override
+    public void disconnect(boolean reset) throws CardException {
+        connected = false;
+    }
+
+    private void checkConnected() {
+        if (!connected) {
+            throw new IllegalStateException("Card has been disconnected");
+        }
+    }
+
+    /**
+     * Fails like PC/SC does once the card left the field or the reader went away.
+     * Must be called while holding the subsystem lock.
+     */
+    private void checkCard() throws CardException {
+        checkConnected();
+        if (!reader.attached) {
+            throw new CardException("sun.security.smartcardio.PCSCException: SCARD_E_READER_UNAVAILABLE");
+        }
+        if (reader.uid == null || reader.insertions != generation) {
+            throw new CardException("sun.security.smartcardio.PCSCException: SCARD_W_REMOVED_CARD");
+        }
+        if (reader.resets != resetGeneration) {
+            throw new CardException("sun.security.smartcardio.PCSCException: SCARD_W_RESET_CARD");
+        }
+    }
+
+    private byte[] respond(byte[] apdu) throws CardException {
+        long delay;
+        synchronized (pcsc.lock) {
+            checkCard();
+            delay = reader.responseDelayMs;
+        }
+
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CardException("Interrupted during transmit");
+            }
+        }
+
+        synchronized (pcsc.lock) {
+            checkCard();
+            Integer fault = reader.pendingStatusWords.poll();
+            if (fault != null) {
+                return statusWord(fault);
+            }
+            if (apdu.length >= 2 && apdu[0] == (byte) 0xFF && apdu[1] == (byte) 0xCA) {
+                ByteBuffer response = ByteBuffer.allocate(reader.uid.length + 2);
+                response.put(reader.uid);
+                response.put((byte) 0x90).put((byte) 0x00);
+                return response.array();
+            }
+            if (isFastRead(apdu) && reader.fastReadSupported) {
+                return fastRead(apdu[8] & 0xFF, apdu[9] & 0xFF);
+            }
+            if (apdu.length == 5 && apdu[0] == (byte) 0xFF && apdu[1] == (byte) 0xB0) {
+                return readBinary(apdu[3] & 0xFF);
+            }
+            return statusWord(0x6D00);
+        }
+    }
+
+    /**
+     * Checks for FF 00 00 00 05 D4 42 3A start end: direct transmit of
+     * PN533 InCommunicateThru carrying FAST_READ.
+     */
+    private static boolean isFastRead(byte[] apdu) {
+        return apdu.length == 10 && apdu[0] == (byte) 0xFF && apdu[1] == 0x00 && apdu[4] == 0x05
+            && apdu[5] == (byte) 0xD4 && apdu[6] == 0x42 && apdu[7] == 0x3A;
+    }
+
+    private byte[] fastRead(int start, int end) {
+        byte[] memory = reader.memory;
+        if (memory == null || start > end || (end + 1) * 4 > memory.length) {
+            // The tag did not answer: PN533 status 01 (timeout)
+            return new byte[] { (byte) 0xD5, 0x43, 0x01, (byte) 0x90, 0x00 };
+        }
+        int length = (end - start + 1) * 4;
+        ByteBuffer response = ByteBuffer.allocate(length + 5);
+        response.put((byte) 0xD5).put((byte) 0x43).put((byte) 0x00);
+        response.put(memory, start * 4, length);
+        response.put((byte) 0x90).put((byte) 0x00);
+        return response.array();
+    }
+
+    private byte[] readBinary(int page) {
+        byte[] memory = reader.memory;
+        if (memory == null || page * 4 >= memory.length) {
+            return statusWord(0x6300);
+        }
+        // READ returns 4 pages and wraps around at the end of the memory, as NTAG does
+        byte[] response = new byte[18];
+        for (int i = 0; i < 16; i++) {
+            response[i] = memory[(page * 4 + i) % memory.length];
+        }
+        response[16] = (byte) 0x90;
+        return response;
+    }
+
+    private static byte[] statusWord(int sw) {
+        return new byte[] { (byte) (sw >> 8), (byte) sw };
+    }
+
+    private class Channel extends CardChannel {
+
+        @Override
+        public Card getCard() {
+            return VirtualCard.this;
+        }
+
+        @Override
+        public int getChannelNumber() {
+            return 0;
+        }
+
+        @Override
+        public ResponseAPDU transmit(CommandAPDU command) throws CardException {
+            return new ResponseAPDU(respond(command.getBytes()));
+        }
+
+        @Override
+        public int transmit(ByteBuffer command, ByteBuffer response) throws CardException {
+            byte[] apdu = new byte[command.remaining()];
+            command.get(apdu);
+            byte[] result = respond(apdu);
+            response.put(result);
+            return result.length;
+        }
+
+        @Override
+        public void close() throws CardException {
+            throw new IllegalStateException("Cannot close basic channel");
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package info.nfcreader.host.virtual;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+
+/**
+ * CardTerminal backed by a {@link VirtualReader}.
+ */
+class VirtualCardTerminal extends CardTerminal {
+
+    private final VirtualPcsc pcsc;
+    private final VirtualReader reader;
+
+    VirtualCardTerminal(VirtualPcsc pcsc, VirtualReader reader) {
+        this.pcsc = pcsc;
+        this.reader = reader;
+    }
+
+    @Override
+    public String getName() {
+        return reader.getName();
+    }
+
+    @Override
+    public Card connect(String protocol) throws CardException {
+        synchronized (pcsc.lock) {
+            checkAttached();
+            if (reader.uid == null) {
+                throw new CardException("connect() failed", new Exception("SCARD_E_NO_SMARTCARD"));
+            }
+            reader.connections++;
+            return new VirtualCard(pcsc, reader, reader.insertions, reader.resets);
+        }
+    }
+
+    @Override
+    public boolean isCardPresent() throws CardException {
+        synchronized (pcsc.lock) {
+            checkAttached();
+            return reader.uid != null;
+        }
+    }
+
+    @Override
+    public boolean waitForCardPresent(long timeout) throws CardException {
+        return waitForState(true, timeout);
+    }
+
+    @Override
+    public boolean waitForCardAbsent(long timeout) throws CardException {
+        return waitForState(false, timeout);
+    }
+
+    private boolean waitForState(boolean present, long timeout) throws CardException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+        }
+        long deadline = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+        synchronized (pcsc.lock) {
+            while (true) {
+                checkAttached();
+                if ((reader.uid != null) == present) {
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                try {
+                    pcsc.lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CardException("Interrupted while waiting for card");
+                }
+            }
+        }
+    }
+
+    private void checkAttached() throws CardException {
+        if (!reader.attached) {
+            throw new CardException("Reader unavailable", new Exception("SCARD_E_READER_UNAVAILABLE"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Virtual CardTerminal: " + reader.getName();
+    }
+}
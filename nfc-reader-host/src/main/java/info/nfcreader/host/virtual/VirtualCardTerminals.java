@@ -0,0 +1,126 @@
+package info.nfcreader.host.virtual;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+/**
+ * View of the virtual readers with the same change-tracking semantics as
+ * the PC/SC implementation: each instance remembers the state seen by its
+ * previous {@link #waitForChange(long)} call.
+ */
+class VirtualCardTerminals extends CardTerminals {
+
+    private final VirtualPcsc pcsc;
+    private final Map<VirtualReader, VirtualCardTerminal> terminals = new HashMap<>();
+    private Map<VirtualReader, long[]> baseline;
+    private final List<CardTerminal> inserted = new ArrayList<>();
+    private final List<CardTerminal> removed = new ArrayList<>();
+
+    VirtualCardTerminals(VirtualPcsc pcsc) {
+        this.pcsc = pcsc;
+    }
+
+    @Override
+    public List<CardTerminal> list(State state) throws CardException {
+        if (state == null) {
+            throw new NullPointerException();
+        }
+        synchronized (pcsc.lock) {
+            List<CardTerminal> result = new ArrayList<>();
+            switch (state) {
+                case CARD_INSERTION:
+                    result.addAll(inserted);
+                    break;
+                case CARD_REMOVAL:
+                    result.addAll(removed);
+                    break;
+                default:
+                    for (VirtualReader reader : pcsc.attachedReaders()) {
+                        boolean present = reader.uid != null;
+                        if (state == State.ALL
+                                || (state == State.CARD_PRESENT && present)
+                                || (state == State.CARD_ABSENT && !present)) {
+                            result.add(terminalFor(reader));
+                        }
+                    }
+            }
+            return result;
+        }
+    }
+
+    @Override
+    public boolean waitForChange(long timeout) throws CardException {
+        if (timeout < 0) {
+            throw new IllegalArgumentException("Timeout must not be negative: " + timeout);
+        }
+        synchronized (pcsc.lock) {
+            if (pcsc.attachedReaders().isEmpty()) {
+                throw new IllegalStateException("No terminals available");
+            }
+            if (baseline == null) {
+                // First call only records the state and then blocks for a change
+                baseline = snapshot();
+            }
+            long deadline = timeout == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+            while (true) {
+                if (detectChanges()) {
+                    return true;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    inserted.clear();
+                    removed.clear();
+                    return false;
+                }
+                try {
+                    pcsc.lock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new CardException("Interrupted while waiting for card change");
+                }
+            }
+        }
+    }
+
+    private boolean detectChanges() {
+        Map<VirtualReader, long[]> current = snapshot();
+        inserted.clear();
+        removed.clear();
+        boolean readersChanged = !current.keySet().equals(baseline.keySet());
+
+        for (Map.Entry<VirtualReader, long[]> entry : current.entrySet()) {
+            long[] before = baseline.get(entry.getKey());
+            long[] now = entry.getValue();
+            if (before == null) {
+                continue;
+            }
+            if (now[1] != before[1]) {
+                removed.add(terminalFor(entry.getKey()));
+            }
+            if (now[0] != before[0]) {
+                inserted.add(terminalFor(entry.getKey()));
+            }
+        }
+
+        baseline = current;
+        return readersChanged || !inserted.isEmpty() || !removed.isEmpty();
+    }
+
+    private Map<VirtualReader, long[]> snapshot() {
+        Map<VirtualReader, long[]> state = new HashMap<>();
+        for (VirtualReader reader : pcsc.attachedReaders()) {
+            state.put(reader, new long[] { reader.insertions, reader.removals });
+        }
+        return state;
+    }
+
+    private VirtualCardTerminal terminalFor(VirtualReader reader) {
+        return terminals.computeIfAbsent(reader, r -> new VirtualCardTerminal(pcsc, r));
+    }
+}
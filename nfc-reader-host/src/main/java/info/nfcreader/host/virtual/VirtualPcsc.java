@@ -0,0 +1,126 @@
+package info.nfcreader.host.virtual;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.smartcardio.TerminalFactory;
+
+/**
+ * Simulated PC/SC subsystem with any number of virtual readers.
+ * Exposed through a javax.smartcardio {@link TerminalFactory} so the host
+ * can be exercised end to end without hardware.
+ *
+ * Select it at startup with {@code -Dnfcreader.virtual=<spec>} or the
+ * {@code NFCREADER_VIRTUAL} environment variable, where spec is either a
+ * reader count or the path of a {@link TapScript} file.
+ */
+public class VirtualPcsc {
+
+    public static final String SPEC_PROPERTY = "nfcreader.virtual";
+    public static final String SPEC_ENV = "NFCREADER_VIRTUAL";
+
+    final Object lock = new Object();
+    private final List<VirtualReader> readers = new ArrayList<>();
+
+    /**
+     * Creates a subsystem with the given number of readers,
+     * named "Virtual Reader 0", "Virtual Reader 1", ...
+     * @param readerCount Number of readers
+     */
+    public VirtualPcsc(int readerCount) {
+        for (int i = 0; i < readerCount; i++) {
+            addReader("Virtual Reader " + i);
+        }
+    }
+
+    /**
+     * Adds a reader.
+     * @param name Reader name
+     * @return The new reader
+     */
+    public VirtualReader addReader(String name) {
+        synchronized (lock) {
+            VirtualReader reader = new VirtualReader(this, name);
+            readers.add(reader);
+            lock.notifyAll();
+            return reader;
+        }
+    }
+
+    /**
+     * @param index Reader index in creation order
+     * @return The reader
+     */
+    public VirtualReader getReader(int index) {
+        synchronized (lock) {
+            return readers.get(index);
+        }
+    }
+
+    /**
+     * @return All readers, attached or not, in creation order
+     */
+    public List<VirtualReader> getReaders() {
+        synchronized (lock) {
+            return Collections.unmodifiableList(new ArrayList<>(readers));
+        }
+    }
+
+    List<VirtualReader> attachedReaders() {
+        List<VirtualReader> attached = new ArrayList<>();
+        for (VirtualReader reader : readers) {
+            if (reader.attached) {
+                attached.add(reader);
+            }
+        }
+        return attached;
+    }
+
+    /**
+     * Creates a terminal factory backed by this subsystem.
+     * @return TerminalFactory of type "Virtual"
+     */
+    public TerminalFactory terminalFactory() {
+        try {
+            return TerminalFactory.getInstance(VirtualTerminalProvider.TYPE, this, new VirtualTerminalProvider());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Virtual terminal provider unavailable", e);
+        }
+    }
+
+    /**
+     * Gets the virtual subsystem spec configured for this process.
+     * @return Spec string, or null if real PC/SC should be used
+     */
+    public static String configuredSpec() {
+        String spec = System.getProperty(SPEC_PROPERTY);
+        if (spec == null || spec.isEmpty()) {
+            spec = System.getenv(SPEC_ENV);
+        }
+        return spec == null || spec.isEmpty() ? null : spec;
+    }
+
+    /**
+     * Creates a subsystem from a spec: a reader count, or a tap script path.
+     * Script playback starts immediately.
+     * @param spec Reader count or script file path
+     * @return The subsystem
+     */
+    public static VirtualPcsc fromSpec(String spec) throws IOException {
+        if (spec.matches("\\d+")) {
+            return new VirtualPcsc(Integer.parseInt(spec));
+        }
+        Path path = Paths.get(spec);
+        TapScript script = TapScript.parse(new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+        VirtualPcsc pcsc = script.createPcsc();
+        script.play(pcsc);
+        return pcsc;
+    }
+}
@@ -0,0 +1,198 @@
+package info.nfcreader.host.virtual;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * State of one simulated reader.
+ * All fields are guarded by the owning {@link VirtualPcsc}'s lock.
+ */
+public class VirtualReader {
+
+    private final VirtualPcsc pcsc;
+    private final String name;
+
+    boolean attached = true;
+    byte[] uid;
+    byte[] memory;
+    boolean fastReadSupported = true;
+    long insertions;
+    long removals;
+    long resets;
+    long connections;
+    long transactions;
+    long responseDelayMs;
+    long lastTapNanos;
+    final Deque<Integer> pendingStatusWords = new ArrayDeque<>();
+
+    VirtualReader(VirtualPcsc pcsc, String name) {
+        this.pcsc = pcsc;
+        this.name = name;
+    }
+
+    /**
+     * @return Reader name as reported by the terminal
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true if the reader is currently attached
+     */
+    public boolean isAttached() {
+        synchronized (pcsc.lock) {
+            return attached;
+        }
+    }
+
+    /**
+     * @return true if a card is currently in the field
+     */
+    public boolean isCardPresent() {
+        synchronized (pcsc.lock) {
+            return attached && uid != null;
+        }
+    }
+
+    /**
+     * @return System.nanoTime() of the most recent card insertion, for latency measurements
+     */
+    public long getLastTapNanos() {
+        synchronized (pcsc.lock) {
+            return lastTapNanos;
+        }
+    }
+
+    /**
+     * Places a card on the reader. A card already present is replaced.
+     * @param uidBytes UID returned by GET DATA
+     */
+    public void insertCard(byte[] uidBytes) {
+        insertTag(uidBytes, null);
+    }
+
+    /**
+     * Places a Type 2 tag on the reader, answering FAST_READ and READ BINARY
+     * from its memory. A card already present is replaced.
+     * @param uidBytes  UID returned by GET DATA
+     * @param tagMemory Tag memory from page 0, a multiple of 4 bytes; null for a card without pages
+     */
+    public void insertTag(byte[] uidBytes, byte[] tagMemory) {
+        synchronized (pcsc.lock) {
+            if (uid != null) {
+                removals++;
+            }
+            uid = uidBytes.clone();
+            memory = tagMemory == null ? null : tagMemory.clone();
+            insertions++;
+            lastTapNanos = System.nanoTime();
+            pcsc.lock.notifyAll();
+        }
+    }
+
+    /**
+     * Removes the card from the reader, if any.
+     */
+    public void removeCard() {
+        synchronized (pcsc.lock) {
+            if (uid != null) {
+                uid = null;
+                removals++;
+                pcsc.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Resets the card in the field, as another application or a reader glitch would.
+     * Open connections then fail with SCARD_W_RESET_CARD until they reconnect.
+     */
+    public void resetCard() {
+        synchronized (pcsc.lock) {
+            if (uid != null) {
+                resets++;
+            }
+        }
+    }
+
+    /**
+     * @return Number of card connections made on this reader
+     */
+    public long getConnectCount() {
+        synchronized (pcsc.lock) {
+            return connections;
+        }
+    }
+
+    /**
+     * @return Number of exclusive transactions begun on this reader
+     */
+    public long getTransactionCount() {
+        synchronized (pcsc.lock) {
+            return transactions;
+        }
+    }
+
+    /**
+     * Makes the next APDUs on this reader fail with the given status word.
+     * @param statusWord Status word, e.g. 0x6300
+     * @param count      Number of APDUs to fail
+     */
+    public void failNext(int statusWord, int count) {
+        synchronized (pcsc.lock) {
+            for (int i = 0; i < count; i++) {
+                pendingStatusWords.add(statusWord);
+            }
+        }
+    }
+
+    /**
+     * Sets whether the reader passes NTAG FAST_READ through its direct-transmit
+     * pseudo-APDU, as the ACR122U does. Without it only READ BINARY works.
+     * @param supported true to answer FAST_READ
+     */
+    public void setFastReadSupported(boolean supported) {
+        synchronized (pcsc.lock) {
+            fastReadSupported = supported;
+        }
+    }
+
+    /**
+     * Delays every APDU response on this reader.
+     * @param delayMs Delay in milliseconds
+     */
+    public void setResponseDelay(long delayMs) {
+        synchronized (pcsc.lock) {
+            responseDelayMs = delayMs;
+        }
+    }
+
+    /**
+     * Simulates unplugging the reader.
+     */
+    public void detach() {
+        synchronized (pcsc.lock) {
+            if (attached) {
+                attached = false;
+                if (uid != null) {
+                    uid = null;
+                    removals++;
+                }
+                pcsc.lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Simulates plugging the reader back in.
+     */
+    public void attach() {
+        synchronized (pcsc.lock) {
+            if (!attached) {
+                attached = true;
+                pcsc.lock.notifyAll();
+            }
+        }
+    }
+}
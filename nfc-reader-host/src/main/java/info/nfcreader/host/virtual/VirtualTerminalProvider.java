@@ -0,0 +1,46 @@
+package info.nfcreader.host.virtual;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.TerminalFactorySpi;
+
+/**
+ * JCA provider for the "Virtual" TerminalFactory type.
+ * The factory parameter must be the {@link VirtualPcsc} to expose.
+ */
+public class VirtualTerminalProvider extends Provider {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String TYPE = "Virtual";
+
+    public VirtualTerminalProvider() {
+        super("NfcReaderVirtual", "1.0", "Virtual PC/SC terminals for testing");
+        putService(new Service(this, "TerminalFactory", TYPE, FactorySpi.class.getName(), null, null) {
+            @Override
+            public Object newInstance(Object parameter) throws NoSuchAlgorithmException {
+                if (!(parameter instanceof VirtualPcsc)) {
+                    throw new NoSuchAlgorithmException("Virtual TerminalFactory requires a VirtualPcsc parameter");
+                }
+                return new FactorySpi((VirtualPcsc) parameter);
+            }
+        });
+    }
+
+    static class FactorySpi extends TerminalFactorySpi {
+
+        private final VirtualPcsc pcsc;
+
+        FactorySpi(VirtualPcsc pcsc) {
+            this.pcsc = pcsc;
+        }
+
+        @Override
+        protected CardTerminals engineTerminals() {
+            // Like PC/SC, every call returns a view with its own change tracking
+            return new VirtualCardTerminals(pcsc);
+        }
+    }
+}
@@ -47,12 +47,24 @@ install_manifests() {
     echo "Native messaging manifests installed successfully"
 }
 
+# Create the AppCDS archive next to the jar; it records the installed paths,
+# so it cannot be built ahead of time
+create_cds_archive() {
+    echo "Creating class data sharing archive..."
+    if ! "$BINARY_PATH" train > /dev/null 2>&1; then
+        echo "Warning: Could not create the class data sharing archive; the host starts without it"
+    fi
+}
+
 # Make sure binary is executable
 chmod +x "$BINARY_PATH" 2>/dev/null || true
 
 # Install manifests
 install_manifests
 
+# Speed up the host's startup
+create_cds_archive
+
 echo "NFC Reader Host installation completed"
 
 exit 0
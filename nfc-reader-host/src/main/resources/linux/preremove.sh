@@ -20,4 +20,7 @@ rm -f "$FIREFOX_DIR/info.nfcreader.host.json"
 
 echo "Native messaging manifests removed"
 
+# Created by postinstall, so not part of the package
+rm -f /opt/nfc-reader-host/lib/app/nfc-reader-host.jsa
+
 exit 0
@@ -0,0 +1,136 @@
+package info.nfcreader.host;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+/**
+ * Measures time to the first get-version response with and without an
+ * AppCDS archive recorded from the train command.
+ * Only runs with -Pstartup-tests.
+ */
+@Tag("startup")
+class AppCdsStartupTest {
+
+    private static final int RUNS = 7;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testTrainedArchive_SpeedsUpFirstResponse() throws Exception {
+        assumeTrue(Runtime.version().feature() >= 13, "Dynamic AppCDS archives need Java 13+");
+
+        // CDS only archives classes loaded from jars
+        Path jar = dir.resolve("nfc-reader-host.jar");
+        jarClasses(Paths.get(Main.class.getProtectionDomain().getCodeSource().getLocation().toURI()), jar);
+        String classPath = jar + File.pathSeparator
+            + Paths.get(Gson.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        Path archive = dir.resolve("nfc-reader-host.jsa");
+
+        Process training = start("-XX:ArchiveClassesAtExit=" + archive, "-cp", classPath, Main.class.getName(), "train");
+        assertTrue(training.waitFor(60, TimeUnit.SECONDS), "training did not finish");
+        assertEquals(0, training.exitValue());
+        assumeTrue(Files.exists(archive), "This JVM could not create a dynamic archive");
+
+        long[] without = new long[RUNS];
+        long[] with = new long[RUNS];
+        // Served in-process, so every run is a full cold start
+        String inProcess = "-D" + DaemonForwarder.ENABLED_PROPERTY + "=false";
+        // Leaves the user's tap journal alone
+        String noJournal = "-D" + TapJournal.ENABLED_PROPERTY + "=false";
+        for (int i = 0; i < RUNS; i++) {
+            without[i] = timeFirstResponse(inProcess, noJournal, "-cp", classPath, Main.class.getName());
+            // -Xshare:on fails instead of silently starting without a usable archive
+            with[i] = timeFirstResponse(inProcess, noJournal, "-Xshare:on", "-XX:SharedArchiveFile=" + archive,
+                "-cp", classPath, Main.class.getName());
+        }
+
+        long medianWithout = median(without);
+        long medianWith = median(with);
+        assertTrue(medianWith < medianWithout,
+            "AppCDS should start faster: " + medianWith + " ms vs " + medianWithout + " ms");
+    }
+
+    private static List<String> java(String... javaArgs) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(Arrays.asList(javaArgs));
+        return command;
+    }
+
+    private static Process start(String... javaArgs) throws IOException {
+        return new ProcessBuilder(java(javaArgs))
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+            .start();
+    }
+
+    /**
+     * Starts the host in native messaging mode and times it until the get-version response.
+     */
+    private static long timeFirstResponse(String... javaArgs) throws Exception {
+        long started = System.nanoTime();
+        Process process = new ProcessBuilder(java(javaArgs)).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        try {
+            byte[] body = "{\"action\":\"get-version\"}".getBytes(StandardCharsets.UTF_8);
+            OutputStream stdin = process.getOutputStream();
+            stdin.write(ByteBuffer.allocate(4 + body.length).order(ByteOrder.nativeOrder())
+                .putInt(body.length).put(body).array());
+            stdin.flush();
+
+            DataInputStream stdout = new DataInputStream(process.getInputStream());
+            byte[] header = new byte[4];
+            stdout.readFully(header);
+            byte[] response = new byte[ByteBuffer.wrap(header).order(ByteOrder.nativeOrder()).getInt()];
+            stdout.readFully(response);
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+            JsonObject json = new Gson().fromJson(new String(response, StandardCharsets.UTF_8), JsonObject.class);
+            assertEquals(Main.VERSION, json.get("version").getAsString());
+            return elapsed;
+        } finally {
+            process.destroyForcibly();
+            process.waitFor();
+        }
+    }
+
+    private static void jarClasses(Path classes, Path jar) throws IOException {
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar));
+                Stream<Path> files = Files.walk(classes)) {
+            for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                out.putNextEntry(new JarEntry(classes.relativize(file).toString().replace(File.separatorChar, '/')));
+                Files.copy(file, out);
+                out.closeEntry();
+            }
+        }
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,79 @@
+package info.nfcreader.host;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+
+/**
+ * Collects framed native messages written by the host so tests can wait for events.
+ */
+class CapturedMessages extends OutputStream {
+
+    private final Gson gson = new Gson();
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final List<JsonObject> messages = new ArrayList<>();
+
+    @Override
+    public synchronized void write(int b) {
+        buffer.write(b);
+        decode();
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        buffer.write(b, off, len);
+        decode();
+    }
+
+    private void decode() {
+        byte[] bytes = buffer.toByteArray();
+        int offset = 0;
+        while (bytes.length - offset >= 4) {
+            int length = ByteBuffer.wrap(bytes, offset, 4).order(ByteOrder.nativeOrder()).getInt();
+            if (bytes.length - offset - 4 < length) {
+                break;
+            }
+            String json = new String(bytes, offset + 4, length, StandardCharsets.UTF_8);
+            messages.add(gson.fromJson(json, JsonObject.class));
+            offset += 4 + length;
+        }
+        buffer.reset();
+        buffer.write(bytes, offset, bytes.length - offset);
+        notifyAll();
+    }
+
+    /**
+     * Waits for the first message matching the predicate and removes it.
+     * @return The message, or null on timeout
+     */
+    synchronized JsonObject await(Predicate<JsonObject> predicate, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (true) {
+            for (int i = 0; i < messages.size(); i++) {
+                if (predicate.test(messages.get(i))) {
+                    return messages.remove(i);
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return null;
+            }
+            wait(remaining);
+        }
+    }
+
+    /**
+     * Waits for the next event with the given name.
+     */
+    JsonObject awaitEvent(String event, long timeoutMs) throws InterruptedException {
+        return await(message -> message.has("event") && message.get("event").getAsString().equals(event), timeoutMs);
+    }
+}
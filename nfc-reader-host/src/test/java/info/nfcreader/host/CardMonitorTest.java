@@ -0,0 +1,157 @@
+package info.nfcreader.host;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.smartcardio.CardTerminal;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the card monitor lifecycle on the shared watcher thread.
+ */
+class CardMonitorTest {
+
+    private static final byte[] UID = { 0x04, 0x11, 0x22, 0x33 };
+
+    private VirtualPcsc pcsc;
+    private ReaderManager readerManager;
+    private final List<CardMonitor> monitors = new CopyOnWriteArrayList<>();
+
+    /**
+     * Listener that records events as "inserted:<reader>" / "removed:<reader>".
+     */
+    private static class RecordingListener implements CardMonitor.Listener {
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void cardInserted(CardTerminal terminal) {
+            events.add("inserted:" + terminal.getName());
+        }
+
+        @Override
+        public void cardRemoved(CardTerminal terminal) {
+            events.add("removed:" + terminal.getName());
+        }
+
+        @Override
+        public void monitorError(Exception e) {
+            events.add("error:" + e.getMessage());
+        }
+
+        boolean await(String event, long timeoutMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMs;
+            while (!events.contains(event) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            return events.contains(event);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        pcsc = new VirtualPcsc(2);
+        readerManager = new ReaderManager(pcsc.terminalFactory());
+    }
+
+    @AfterEach
+    void tearDown() {
+        for (CardMonitor monitor : monitors) {
+            monitor.stop();
+        }
+    }
+
+    private CardMonitor start(String readerName, RecordingListener listener) {
+        CardMonitor monitor = readerManager.createMonitor(
+            readerName != null ? Collections.singleton(readerName) : null, listener);
+        monitors.add(monitor);
+        monitor.start();
+        return monitor;
+    }
+
+    @Test
+    void testStart_InsertionRightAfterStartIsSeen() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        start("Virtual Reader 0", listener);
+
+        pcsc.getReader(0).insertCard(UID);
+
+        assertTrue(listener.await("inserted:Virtual Reader 0", 2000));
+    }
+
+    @Test
+    void testStart_PresentCardReportedOnce() throws Exception {
+        pcsc.getReader(1).insertCard(UID);
+        RecordingListener listener = new RecordingListener();
+        start(null, listener);
+
+        pcsc.getReader(1).removeCard();
+        assertTrue(listener.await("removed:Virtual Reader 1", 2000));
+
+        assertEquals(Collections.singletonList("inserted:Virtual Reader 1"), listener.events.subList(0, 1));
+        assertEquals(2, listener.events.size());
+    }
+
+    @Test
+    void testStop_ImmediateDuringBlockingWait() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        CardMonitor monitor = start("Virtual Reader 0", listener);
+        assertEquals(CardMonitor.State.RUNNING, monitor.getState());
+
+        // The watcher is now blocked in a wait slice
+        long started = System.nanoTime();
+        monitor.stop();
+        long stopMs = (System.nanoTime() - started) / 1_000_000;
+
+        assertTrue(stopMs < 50, "stop took " + stopMs + " ms");
+        assertEquals(CardMonitor.State.STOPPED, monitor.getState());
+
+        pcsc.getReader(0).insertCard(UID);
+        Thread.sleep(200);
+        assertTrue(listener.events.isEmpty());
+    }
+
+    @Test
+    void testSwitch_ReusesOneWatcherThread() throws Exception {
+        CardWatcher watcher = readerManager.getCardWatcher();
+        RecordingListener last = null;
+        for (int i = 0; i < 20; i++) {
+            if (!monitors.isEmpty()) {
+                monitors.get(monitors.size() - 1).stop();
+            }
+            last = new RecordingListener();
+            start("Virtual Reader " + (i % 2), last);
+        }
+
+        pcsc.getReader(1).insertCard(UID);
+        assertTrue(last.await("inserted:Virtual Reader 1", 2000));
+        assertEquals(1, watcher.getThreadsStarted());
+    }
+
+    @Test
+    void testWatcher_ExitsWhenUnused() throws Exception {
+        CardWatcher watcher = readerManager.getCardWatcher();
+        CardMonitor monitor = start("Virtual Reader 0", new RecordingListener());
+        assertEquals(CardWatcher.State.WATCHING, watcher.getState());
+
+        monitor.stop();
+
+        long deadline = System.currentTimeMillis() + 3 * CardMonitor.WAIT_SLICE_MS;
+        while (watcher.getState() != CardWatcher.State.IDLE && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertEquals(CardWatcher.State.IDLE, watcher.getState());
+
+        // Restarting after the thread exited starts a new one
+        RecordingListener listener = new RecordingListener();
+        start("Virtual Reader 0", listener);
+        pcsc.getReader(0).insertCard(UID);
+        assertTrue(listener.await("inserted:Virtual Reader 0", 2000));
+        assertEquals(2, watcher.getThreadsStarted());
+    }
+}
@@ -0,0 +1,94 @@
+package info.nfcreader.host;
+
+import javax.smartcardio.CardException;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+import info.nfcreader.host.virtual.VirtualReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for card session reuse across reads.
+ */
+class CardSessionTest {
+
+    private static final byte[] UID = { 0x04, (byte) 0xA1, (byte) 0xB2, (byte) 0xC3 };
+
+    private VirtualReader virtualReader;
+    private CardReader cardReader;
+
+    @BeforeEach
+    void setUp() throws CardException {
+        VirtualPcsc pcsc = new VirtualPcsc(1);
+        virtualReader = pcsc.getReader(0);
+        cardReader = new CardReader(new ReaderManager(pcsc.terminalFactory()), 0);
+    }
+
+    @Test
+    void testReadUID_ReusesSessionWhileCardStays() throws CardException {
+        virtualReader.insertCard(UID);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals("04A1B2C3", cardReader.readUID().toHex());
+        }
+
+        assertEquals(1, virtualReader.getConnectCount());
+        assertTrue(cardReader.getSession().isOpen());
+    }
+
+    @Test
+    void testReadCard_RetriesOn6300WithoutReconnecting() throws CardException {
+        virtualReader.insertCard(UID);
+        virtualReader.failNext(0x6300, 2);
+
+        assertEquals("04A1B2C3", cardReader.readCard().toHex());
+        assertEquals(1, virtualReader.getConnectCount());
+    }
+
+    @Test
+    void testReadUID_ReconnectsAfterReset() throws CardException {
+        virtualReader.insertCard(UID);
+        cardReader.readUID();
+
+        virtualReader.resetCard();
+
+        assertEquals("04A1B2C3", cardReader.readUID().toHex());
+        assertEquals(2, virtualReader.getConnectCount());
+    }
+
+    @Test
+    void testReadUID_NewCardOnStaleSession() throws CardException {
+        virtualReader.insertCard(UID);
+        cardReader.readUID();
+
+        // Card swapped before the removal was seen
+        virtualReader.insertCard(new byte[] { 0x11, 0x22, 0x33, 0x44 });
+
+        assertEquals("11223344", cardReader.readUID().toHex());
+        assertEquals(2, virtualReader.getConnectCount());
+    }
+
+    @Test
+    void testEndSession_NextReadConnectsAgain() throws CardException {
+        virtualReader.insertCard(UID);
+        cardReader.readUID();
+
+        virtualReader.removeCard();
+        cardReader.endSession();
+        assertFalse(cardReader.getSession().isOpen());
+        assertThrows(CardException.class, () -> cardReader.readUID());
+
+        virtualReader.insertCard(UID);
+        assertEquals("04A1B2C3", cardReader.readUID().toHex());
+        assertEquals(2, virtualReader.getConnectCount());
+    }
+
+    @Test
+    void testIsStale() {
+        assertTrue(CardSession.isStale(new CardException("sun.security.smartcardio.PCSCException: SCARD_W_RESET_CARD")));
+        assertTrue(CardSession.isStale(new IllegalStateException("Card has been removed")));
+        assertTrue(CardSession.isStale(new IllegalStateException("Card has been disconnected")));
+        assertFalse(CardSession.isStale(new CardException("connect() failed", new Exception("SCARD_E_NO_SMARTCARD"))));
+    }
+}
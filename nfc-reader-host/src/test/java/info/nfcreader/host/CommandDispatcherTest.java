@@ -0,0 +1,118 @@
+package info.nfcreader.host;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import info.nfcreader.host.virtual.VirtualPcsc;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for pipelined command dispatch.
+ */
+class CommandDispatcherTest {
+
+    private final Gson gson = new Gson();
+
+    private final CountDownLatch listReadersStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseListReaders = new CountDownLatch(1);
+
+    private CommandHandler handler;
+    private CommandDispatcher dispatcher;
+    private CapturedMessages captured;
+
+    @BeforeEach
+    void setUp() {
+        VirtualPcsc pcsc = new VirtualPcsc(1);
+        // list-readers blocks until released, like a slow PC/SC enumeration
+        handler = new CommandHandler(new ReaderManager(pcsc.terminalFactory())) {
+            @Override
+            public String handleListReaders() {
+                listReadersStarted.countDown();
+                try {
+                    releaseListReaders.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.handleListReaders();
+            }
+        };
+        dispatcher = new CommandDispatcher(handler);
+        captured = new CapturedMessages();
+        NativeMessagingHost.setOutputStream(captured);
+    }
+
+    @AfterEach
+    void tearDown() {
+        releaseListReaders.countDown();
+        dispatcher.shutdown(1000);
+        handler.cleanup();
+        NativeMessagingHost.setOutputStream(System.out);
+    }
+
+    private void dispatch(String json) {
+        dispatcher.dispatch(gson.fromJson(json, JsonObject.class));
+    }
+
+    private JsonObject awaitResponse(int id) throws InterruptedException {
+        return captured.await(m -> m.has("id") && m.get("id").getAsInt() == id, 2000);
+    }
+
+    @Test
+    void testDispatch_EchoesRequestId() throws Exception {
+        dispatch("{\"action\":\"get-version\",\"id\":7}");
+        dispatch("{\"action\":\"unknown\",\"id\":\"abc\"}");
+
+        assertEquals(Main.VERSION, awaitResponse(7).get("version").getAsString());
+        JsonObject unknown = captured.await(m -> m.has("id") && m.get("id").getAsString().equals("abc"), 2000);
+        assertFalse(unknown.get("success").getAsBoolean());
+    }
+
+    @Test
+    void testDispatch_ControlCommandsNotQueuedBehindReaderWork() throws Exception {
+        dispatch("{\"action\":\"list-readers\",\"id\":1}");
+        assertTrue(listReadersStarted.await(1, TimeUnit.SECONDS));
+
+        dispatch("{\"action\":\"get-status\",\"id\":2}");
+        dispatch("{\"action\":\"stop-listening\",\"id\":3}");
+
+        assertNotNull(awaitResponse(2));
+        assertNotNull(awaitResponse(3));
+        assertNull(captured.await(m -> m.has("id") && m.get("id").getAsInt() == 1, 50));
+
+        releaseListReaders.countDown();
+        assertEquals(1, awaitResponse(1).get("count").getAsInt());
+    }
+
+    @Test
+    void testDispatch_LaterStopSupersedesQueuedStart() throws Exception {
+        dispatch("{\"action\":\"list-readers\",\"id\":1}");
+        assertTrue(listReadersStarted.await(1, TimeUnit.SECONDS));
+
+        // The start waits behind list-readers while the stop overtakes it
+        dispatch("{\"action\":\"start-listening\",\"readerIndex\":0,\"id\":2}");
+        dispatch("{\"action\":\"stop-listening\",\"id\":3}");
+        assertTrue(awaitResponse(3).get("success").getAsBoolean());
+
+        releaseListReaders.countDown();
+        JsonObject start = awaitResponse(2);
+        assertTrue(start.get("superseded").getAsBoolean());
+
+        JsonObject status = gson.fromJson(handler.handleCommand("{\"action\":\"get-status\"}"), JsonObject.class);
+        assertFalse(status.get("listening").getAsBoolean());
+    }
+
+    @Test
+    void testIsControlAction() {
+        assertTrue(CommandDispatcher.isControlAction("stop-listening"));
+        assertTrue(CommandDispatcher.isControlAction("get-status"));
+        assertTrue(CommandDispatcher.isControlAction("get-version"));
+        assertFalse(CommandDispatcher.isControlAction("list-readers"));
+        assertFalse(CommandDispatcher.isControlAction("start-listening"));
+        assertFalse(CommandDispatcher.isControlAction("transmit-batch"));
+    }
+}
@@ -1,7 +1,16 @@
 package info.nfcreader.host;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.TerminalFactory;
+
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
+import info.nfcreader.host.virtual.VirtualPcsc;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -12,6 +21,28 @@ class CommandHandlerTest {
     
     private final Gson gson = new Gson();
     
+    private VirtualPcsc pcsc;
+    private CommandHandler handler;
+    private CapturedMessages captured;
+    
+    @BeforeEach
+    void setUp() {
+        pcsc = new VirtualPcsc(2);
+        handler = new CommandHandler(new ReaderManager(pcsc.terminalFactory()));
+        captured = new CapturedMessages();
+        NativeMessagingHost.setOutputStream(captured);
+    }
+    
+    @AfterEach
+    void tearDown() {
+        handler.cleanup();
+        NativeMessagingHost.setOutputStream(System.out);
+    }
+    
+    private JsonObject command(String json) {
+        return gson.fromJson(handler.handleCommand(json), JsonObject.class);
+    }
+    
     @Test
     void testHandleCommand_UnknownAction() {
         // Note: This test doesn't require actual card readers
@@ -45,4 +76,344 @@ class CommandHandlerTest {
         assertTrue(success.has("readers"));
         assertEquals(0, success.get("count").getAsInt());
     }
+    
+    @Test
+    void testHandleCommand_EchoesRequestIdOnce() {
+        String response = handler.handleCommand("{\"action\": \"get-version\", \"id\": {\"tab\": 7}}");
+        JsonObject parsed = gson.fromJson(response, JsonObject.class);
+        
+        assertEquals(7, parsed.getAsJsonObject("id").get("tab").getAsInt());
+        assertEquals(Main.VERSION, parsed.get("version").getAsString());
+        assertEquals(response.indexOf("\"id\""), response.lastIndexOf("\"id\""));
+    }
+    
+    @Test
+    void testListReaders_Virtual() {
+        JsonObject response = command("{\"action\": \"list-readers\"}");
+        
+        assertTrue(response.get("success").getAsBoolean());
+        assertEquals(2, response.get("count").getAsInt());
+        assertEquals("Virtual Reader 0", response.getAsJsonArray("readers").get(0).getAsString());
+    }
+    
+    @Test
+    void testPendingPcsc_OnlyReaderCommandsWait() throws Exception {
+        CompletableFuture<TerminalFactory> factory = new CompletableFuture<>();
+        CommandHandler pending = new CommandHandler(new ReaderManager(factory));
+        
+        JsonObject version = gson.fromJson(pending.handleCommand("{\"action\": \"get-version\"}"), JsonObject.class);
+        assertEquals(Main.VERSION, version.get("version").getAsString());
+        JsonObject status = gson.fromJson(pending.handleCommand("{\"action\": \"get-status\"}"), JsonObject.class);
+        assertFalse(status.get("listening").getAsBoolean());
+        
+        CompletableFuture<String> listed = CompletableFuture.supplyAsync(
+            () -> pending.handleCommand("{\"action\": \"list-readers\"}"));
+        Thread.sleep(100);
+        assertFalse(listed.isDone());
+        
+        factory.complete(pcsc.terminalFactory());
+        JsonObject readers = gson.fromJson(listed.get(2, TimeUnit.SECONDS), JsonObject.class);
+        assertEquals(2, readers.get("count").getAsInt());
+    }
+    
+    @Test
+    void testPendingPcsc_FailedSetup() {
+        CompletableFuture<TerminalFactory> factory = new CompletableFuture<>();
+        CommandHandler pending = new CommandHandler(new ReaderManager(factory));
+        factory.completeExceptionally(new CardException("SCARD_E_NO_SERVICE"));
+        
+        JsonObject readers = gson.fromJson(pending.handleCommand("{\"action\": \"list-readers\"}"), JsonObject.class);
+        assertEquals(0, readers.get("count").getAsInt());
+        
+        JsonObject start = gson.fromJson(pending.handleCommand("{\"action\": \"start-listening\", \"readerIndex\": 0}"),
+            JsonObject.class);
+        assertFalse(start.get("success").getAsBoolean());
+        assertTrue(start.get("error").getAsString().contains("SCARD_E_NO_SERVICE"));
+    }
+    
+    @Test
+    void testStartListening_CardDetected() throws Exception {
+        JsonObject response = command("{\"action\": \"start-listening\", \"readerIndex\": 1}");
+        assertTrue(response.get("success").getAsBoolean());
+        assertEquals("Virtual Reader 1", response.get("readerName").getAsString());
+        
+        pcsc.getReader(1).insertCard(new byte[] { 0x04, (byte) 0xA1, (byte) 0xB2, (byte) 0xC3 });
+        
+        JsonObject event = captured.awaitEvent("card-detected", 2000);
+        assertNotNull(event, "card-detected event expected");
+        assertEquals("04A1B2C3", event.get("uid").getAsString());
+        assertEquals("04:A1:B2:C3", event.getAsJsonObject("formats").get("colon").getAsString());
+        assertEquals("C3B2A104", event.getAsJsonObject("formats").get("reversed").getAsString());
+        assertEquals(1, event.get("readerIndex").getAsInt());
+        assertEquals("Virtual Reader 1", event.get("readerName").getAsString());
+    }
+    
+    @Test
+    void testStartListening_CardAlreadyPresent() throws Exception {
+        pcsc.getReader(0).insertCard(new byte[] { 0x01, 0x02, 0x03, 0x04 });
+        
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0}");
+        
+        JsonObject event = captured.awaitEvent("card-detected", 2000);
+        assertNotNull(event);
+        assertEquals("01020304", event.get("uid").getAsString());
+    }
+    
+    @Test
+    void testStartListening_RetriesOn6300() throws Exception {
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0}");
+        
+        pcsc.getReader(0).failNext(0x6300, 2);
+        pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66 });
+        
+        JsonObject event = captured.awaitEvent("card-detected", 2000);
+        assertNotNull(event);
+        assertEquals("04112233445566", event.get("uid").getAsString());
+        assertEquals("Double size UID (7 bytes)", event.get("uidType").getAsString());
+    }
+    
+    @Test
+    void testStartListening_StreamsNdefAfterUid() throws Exception {
+        byte[] message = NdefReaderTest.message(600);
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0, \"readNdef\": true}");
+        
+        pcsc.getReader(0).insertTag(new byte[] { 0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66 },
+            NdefReaderTest.tagMemory(872, NdefReaderTest.ndefTlv(message)));
+        
+        assertNotNull(captured.awaitEvent("card-detected", 2000));
+        StringBuilder data = new StringBuilder();
+        JsonObject event;
+        do {
+            event = captured.awaitEvent("ndef", 2000);
+            assertNotNull(event);
+            assertEquals("04112233445566", event.get("uid").getAsString());
+            assertEquals(600, event.get("length").getAsInt());
+            assertEquals(data.length() / 2, event.get("offset").getAsInt());
+            data.append(event.get("data").getAsString());
+        } while (!event.get("last").getAsBoolean());
+        assertEquals(Hex.encode(message), data.toString());
+    }
+    
+    @Test
+    void testStartListening_NdefFailureKeepsListening() throws Exception {
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0, \"readNdef\": true}");
+        
+        // The NDEF TLV claims more bytes than the tag holds, failing after the UID was sent
+        pcsc.getReader(0).insertTag(new byte[] { 0x04, 0x11, 0x22, 0x33 },
+            NdefReaderTest.tagMemory(64, new byte[] { 0x03, 100 }));
+        
+        assertNotNull(captured.awaitEvent("card-detected", 2000));
+        JsonObject failure = captured.awaitEvent("ndef-error", 2000);
+        assertNotNull(failure);
+        assertEquals("04112233", failure.get("uid").getAsString());
+        assertEquals(0, failure.get("readerIndex").getAsInt());
+        assertNull(captured.awaitEvent("error", 100));
+        assertTrue(command("{\"action\": \"get-status\"}").get("listening").getAsBoolean());
+    }
+    
+    @Test
+    void testStartListening_MultipleReadersByIndexAndName() throws Exception {
+        JsonObject response = command(
+            "{\"action\": \"start-listening\", \"readers\": [0, \"Virtual Reader 1\"]}");
+        assertTrue(response.get("success").getAsBoolean());
+        assertEquals(2, response.getAsJsonArray("listeningReaders").size());
+        
+        pcsc.getReader(0).insertCard(new byte[] { 0x0A, 0x0A, 0x0A, 0x0A });
+        pcsc.getReader(1).insertCard(new byte[] { 0x0B, 0x0B, 0x0B, 0x0B });
+        
+        JsonObject first = captured.await(m -> m.has("event") && m.get("readerIndex").getAsInt() == 0, 2000);
+        JsonObject second = captured.await(m -> m.has("event") && m.get("readerIndex").getAsInt() == 1, 2000);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals("0A0A0A0A", first.get("uid").getAsString());
+        assertEquals("0B0B0B0B", second.get("uid").getAsString());
+    }
+    
+    @Test
+    void testStartListening_LatencyTargetInStatus() throws Exception {
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0, \"latencyTargetMs\": 60}");
+        
+        JsonObject status = command("{\"action\": \"get-status\"}");
+        JsonObject timing = status.getAsJsonArray("listeningReaders").get(0).getAsJsonObject()
+            .getAsJsonObject("timing");
+        assertEquals(60, timing.get("latencyTargetMs").getAsInt());
+        assertEquals(20, timing.get("settleMs").getAsInt());
+    }
+    
+    @Test
+    void testStartListening_SettingsOnlyForStartedSession() throws Exception {
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0, \"latencyTargetMs\": 60, \"coalesceWindowMs\": 500}");
+        
+        // A rejected start leaves the running session's settings alone
+        JsonObject rejected = command(
+            "{\"action\": \"start-listening\", \"readerIndex\": 7, \"latencyTargetMs\": 90, \"coalesceWindowMs\": 200}");
+        assertFalse(rejected.get("success").getAsBoolean());
+        JsonObject status = command("{\"action\": \"get-status\"}");
+        assertEquals(500, status.get("coalesceWindowMs").getAsLong());
+        assertEquals(60, status.getAsJsonArray("listeningReaders").get(0).getAsJsonObject()
+            .getAsJsonObject("timing").get("latencyTargetMs").getAsInt());
+        
+        // A start without them goes back to the defaults
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0}");
+        status = command("{\"action\": \"get-status\"}");
+        assertEquals(0, status.get("coalesceWindowMs").getAsLong());
+        assertEquals(0, status.getAsJsonArray("listeningReaders").get(0).getAsJsonObject()
+            .getAsJsonObject("timing").get("latencyTargetMs").getAsInt());
+    }
+    
+    @Test
+    void testGetStatus_SnapshotFollowsTaps() throws Exception {
+        JsonObject status = command("{\"action\": \"get-status\"}");
+        assertFalse(status.get("listening").getAsBoolean());
+        assertFalse(status.has("lastUid"));
+        
+        command("{\"action\": \"start-listening\", \"readerIndex\": 1}");
+        pcsc.getReader(1).insertCard(new byte[] { 0x04, 0x11, 0x22, 0x33 });
+        assertNotNull(captured.awaitEvent("card-detected", 2000));
+        
+        status = command("{\"action\": \"get-status\"}");
+        assertTrue(status.get("listening").getAsBoolean());
+        assertTrue(status.get("cardPresent").getAsBoolean());
+        assertEquals("04112233", status.get("lastUid").getAsString());
+        assertEquals("Virtual Reader 1", status.get("lastUidReader").getAsString());
+        assertTrue(status.get("lastEventTime").getAsLong() > 0);
+        assertTrue(status.get("statusAgeMs").getAsLong() >= 0);
+        JsonObject reader = status.getAsJsonArray("listeningReaders").get(0).getAsJsonObject();
+        assertEquals("ok", reader.get("health").getAsString());
+        assertTrue(reader.get("cardPresent").getAsBoolean());
+        
+        pcsc.getReader(1).removeCard();
+        long deadline = System.currentTimeMillis() + 2000;
+        do {
+            Thread.sleep(10);
+            status = command("{\"action\": \"get-status\"}");
+        } while (status.get("cardPresent").getAsBoolean() && System.currentTimeMillis() < deadline);
+        assertFalse(status.get("cardPresent").getAsBoolean());
+        
+        // The last UID outlives the session
+        command("{\"action\": \"stop-listening\"}");
+        status = command("{\"action\": \"get-status\"}");
+        assertFalse(status.get("listening").getAsBoolean());
+        assertFalse(status.has("listeningReaders"));
+        assertEquals("04112233", status.get("lastUid").getAsString());
+    }
+    
+    @Test
+    void testStartListening_SwitchReadersIsImmediate() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            command("{\"action\": \"start-listening\", \"readerIndex\": " + (i % 2) + "}");
+        }
+        long started = System.nanoTime();
+        command("{\"action\": \"start-listening\", \"readerIndex\": 1}");
+        assertTrue(System.nanoTime() - started < CardMonitor.WAIT_SLICE_MS * 1_000_000 / 4);
+        
+        pcsc.getReader(0).insertCard(new byte[] { 0x0A, 0x0A, 0x0A, 0x0A });
+        pcsc.getReader(1).insertCard(new byte[] { 0x0B, 0x0B, 0x0B, 0x0B });
+        
+        JsonObject event = captured.awaitEvent("card-detected", 2000);
+        assertNotNull(event);
+        assertEquals("0B0B0B0B", event.get("uid").getAsString());
+        assertNull(captured.await(m -> m.has("uid") && m.get("uid").getAsString().equals("0A0A0A0A"), 300));
+    }
+    
+    @Test
+    void testGetMetrics_AfterRetriedRead() throws Exception {
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0}");
+        pcsc.getReader(0).failNext(0x6300, 1);
+        pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x01, 0x02, 0x03 });
+        assertNotNull(captured.awaitEvent("card-detected", 2000));
+        NativeMessagingHost.drainOutput();
+        
+        JsonObject metrics = command("{\"action\": \"get-metrics\"}");
+        
+        assertTrue(metrics.get("success").getAsBoolean());
+        JsonObject reader = metrics.getAsJsonArray("readers").get(0).getAsJsonObject();
+        assertEquals("Virtual Reader 0", reader.get("name").getAsString());
+        assertEquals(1, reader.get("reads").getAsInt());
+        assertEquals(1, reader.get("retries").getAsInt());
+        assertEquals(2, reader.getAsJsonObject("transmit").get("count").getAsInt());
+        assertEquals(1, reader.getAsJsonObject("connect").get("count").getAsInt());
+        assertTrue(reader.getAsJsonObject("read").get("p99").getAsLong() > 0);
+        JsonObject host = metrics.getAsJsonObject("host");
+        assertEquals(1, host.getAsJsonObject("serialize").get("count").getAsInt());
+        assertEquals(1, host.getAsJsonObject("write").get("count").getAsInt());
+    }
+    
+    @Test
+    void testTransmitBatch_OneConnectionAndTransaction() {
+        pcsc.getReader(1).insertCard(new byte[] { 0x04, 0x0A, 0x0B, 0x0C });
+        
+        JsonObject response = command("{\"action\": \"transmit-batch\", \"readerName\": \"Virtual Reader 1\","
+            + " \"apdus\": [\"FF CA 00 00 00\", {\"apdu\": \"FFCA000000\", \"expect\": \"90XX\"}, \"FFCA000000\"]}");
+        
+        assertTrue(response.get("success").getAsBoolean());
+        assertEquals(3, response.get("completed").getAsInt());
+        assertEquals(3, response.getAsJsonArray("responses").size());
+        JsonObject first = response.getAsJsonArray("responses").get(0).getAsJsonObject();
+        assertEquals("9000", first.get("sw").getAsString());
+        assertEquals("040A0B0C", first.get("data").getAsString());
+        assertEquals(1, pcsc.getReader(1).getConnectCount());
+        assertEquals(1, pcsc.getReader(1).getTransactionCount());
+    }
+    
+    @Test
+    void testTransmitBatch_ReusesListeningSession() throws Exception {
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0}");
+        pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x0A, 0x0B, 0x0C });
+        assertNotNull(captured.awaitEvent("card-detected", 2000));
+        
+        JsonObject response = command("{\"action\": \"transmit-batch\", \"readerIndex\": 0, \"apdus\": [\"FFCA000000\"]}");
+        
+        assertTrue(response.get("success").getAsBoolean());
+        assertEquals(1, pcsc.getReader(0).getConnectCount());
+    }
+    
+    @Test
+    void testTransmitBatch_StopsAtUnexpectedStatusWord() {
+        pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x0A, 0x0B, 0x0C });
+        
+        JsonObject response = command("{\"action\": \"transmit-batch\", \"readerIndex\": 0,"
+            + " \"apdus\": [\"FFCA000000\", \"00A4040000\", \"FFCA000000\"]}");
+        
+        assertFalse(response.get("success").getAsBoolean());
+        assertEquals(1, response.get("completed").getAsInt());
+        assertEquals(3, response.get("total").getAsInt());
+        assertEquals(2, response.getAsJsonArray("responses").size());
+        assertTrue(response.get("error").getAsString().contains("6D00"));
+    }
+    
+    @Test
+    void testTransmitBatch_InvalidInputAndNoCard() {
+        assertFalse(command("{\"action\": \"transmit-batch\", \"readerIndex\": 0, \"apdus\": [\"FFC\"]}")
+            .get("success").getAsBoolean());
+        assertFalse(command("{\"action\": \"transmit-batch\", \"readerIndex\": 5, \"apdus\": [\"FFCA000000\"]}")
+            .get("success").getAsBoolean());
+        assertEquals("APDU 1 has no apdu string", command(
+            "{\"action\": \"transmit-batch\", \"readerIndex\": 0, \"apdus\": [\"FFCA000000\", {\"expect\": \"9000\"}]}")
+            .get("error").getAsString());
+        assertEquals("APDU 0 has no apdu string", command(
+            "{\"action\": \"transmit-batch\", \"readerIndex\": 0, \"apdus\": [{\"apdu\": [1, 2]}]}")
+            .get("error").getAsString());
+        
+        JsonObject response = command("{\"action\": \"transmit-batch\", \"readerIndex\": 0, \"apdus\": [\"FFCA000000\"]}");
+        assertFalse(response.get("success").getAsBoolean());
+        assertTrue(response.get("error").getAsString().startsWith("Transmit failed"));
+    }
+    
+    @Test
+    void testStartListening_UnknownReaderName() {
+        JsonObject response = command("{\"action\": \"start-listening\", \"readers\": [\"Missing\"]}");
+        
+        assertFalse(response.get("success").getAsBoolean());
+    }
+    
+    @Test
+    void testStopListening_NoEventsAfterStop() throws Exception {
+        command("{\"action\": \"start-listening\", \"readerIndex\": 0}");
+        command("{\"action\": \"stop-listening\"}");
+        
+        pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x01, 0x02, 0x03 });
+        
+        assertNull(captured.awaitEvent("card-detected", 300));
+    }
 }
@@ -0,0 +1,155 @@
+package info.nfcreader.host;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+import info.nfcreader.host.virtual.VirtualPcsc;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the event fan-out ring buffer.
+ */
+class EventBusTest {
+
+    private static EventBus.Event event(int number) {
+        return new EventBus.Event("test", null, null, String.valueOf(number), false);
+    }
+
+    @Test
+    void testSubscribers_EachGetEveryEventInOrder() {
+        EventBus bus = new EventBus(8);
+        List<String> first = Collections.synchronizedList(new ArrayList<>());
+        List<String> second = Collections.synchronizedList(new ArrayList<>());
+        EventBus.Subscription a = bus.subscribe("first", EventBus.Overflow.BLOCK, event -> first.add(event.getJson()));
+        EventBus.Subscription b = bus.subscribe("second", EventBus.Overflow.BLOCK, event -> second.add(event.getJson()));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            bus.publish(event(i));
+            expected.add(String.valueOf(i));
+        }
+
+        assertTrue(a.awaitDelivered(2000));
+        assertTrue(b.awaitDelivered(2000));
+        assertEquals(expected, first);
+        assertEquals(expected, second);
+        assertEquals(100, a.getDelivered());
+        assertEquals(0, a.getDropped());
+    }
+
+    @Test
+    void testDropOldest_SlowSubscriberSkipsAhead() throws Exception {
+        EventBus bus = new EventBus(4);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> slow = Collections.synchronizedList(new ArrayList<>());
+        List<String> fast = Collections.synchronizedList(new ArrayList<>());
+        EventBus.Subscription slowSubscription = bus.subscribe("slow", EventBus.Overflow.DROP_OLDEST, event -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            slow.add(event.getJson());
+        });
+        EventBus.Subscription fastSubscription = bus.subscribe("fast", EventBus.Overflow.BLOCK,
+            event -> fast.add(event.getJson()));
+
+        // Never held up by the stalled subscriber
+        for (int i = 0; i < 20; i++) {
+            bus.publish(event(i));
+        }
+        assertTrue(fastSubscription.awaitDelivered(2000));
+        assertEquals(20, fast.size());
+
+        release.countDown();
+        assertTrue(slowSubscription.awaitDelivered(2000));
+        assertTrue(slowSubscription.getDropped() > 0);
+        assertEquals(20, slowSubscription.getDelivered() + slowSubscription.getDropped());
+        assertEquals("19", slow.get(slow.size() - 1));
+    }
+
+    @Test
+    void testBlock_ConcurrentProducersLoseNothing() throws Exception {
+        EventBus bus = new EventBus(16);
+        Set<String> received = Collections.synchronizedSet(new HashSet<>());
+        List<String> duplicates = Collections.synchronizedList(new ArrayList<>());
+        EventBus.Subscription subscription = bus.subscribe("all", EventBus.Overflow.BLOCK, event -> {
+            if (!received.add(event.getJson())) {
+                duplicates.add(event.getJson());
+            }
+        });
+
+        List<Thread> producers = new ArrayList<>();
+        for (int p = 0; p < 4; p++) {
+            int base = p * 1000;
+            Thread producer = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    bus.publish(event(base + i));
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers) {
+            producer.join(5000);
+        }
+
+        assertTrue(subscription.awaitDelivered(5000));
+        assertEquals(4000, received.size());
+        assertEquals(Collections.emptyList(), duplicates);
+        assertEquals(0, subscription.getDropped());
+    }
+
+    @Test
+    void testClose_StopsDelivery() {
+        EventBus bus = new EventBus(8);
+        List<String> received = Collections.synchronizedList(new ArrayList<>());
+        EventBus.Subscription subscription = bus.subscribe("closed", EventBus.Overflow.BLOCK,
+            event -> received.add(event.getJson()));
+        subscription.close();
+
+        // A closed BLOCK subscriber never holds up producers
+        for (int i = 0; i < 20; i++) {
+            bus.publish(event(i));
+        }
+        assertTrue(bus.getSubscriptions().isEmpty());
+        assertTrue(received.isEmpty());
+    }
+
+    @Test
+    void testCommandHandler_ConsumersShareOneRead() throws Exception {
+        VirtualPcsc pcsc = new VirtualPcsc(1);
+        CommandHandler handler = new CommandHandler(new ReaderManager(pcsc.terminalFactory()));
+        CapturedMessages captured = new CapturedMessages();
+        NativeMessagingHost.setOutputStream(captured);
+        try {
+            List<EventBus.Event> audit = Collections.synchronizedList(new ArrayList<>());
+            handler.getEventBus().subscribe("audit", EventBus.Overflow.DROP_OLDEST, audit::add);
+
+            JsonObject started = Json.GSON.fromJson(handler.handleStartListening(0), JsonObject.class);
+            assertTrue(started.get("success").getAsBoolean());
+            pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x11, 0x22, 0x33 });
+
+            assertNotNull(captured.awaitEvent("card-detected", 2000));
+            long deadline = System.currentTimeMillis() + 2000;
+            while (audit.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, audit.size());
+            assertEquals("card-detected", audit.get(0).getName());
+            assertEquals("04112233", audit.get(0).getUid().toHex());
+            assertEquals("Virtual Reader 0", audit.get(0).getReaderName());
+            assertEquals(1, pcsc.getReader(0).getConnectCount());
+        } finally {
+            handler.cleanup();
+            NativeMessagingHost.setOutputStream(System.out);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package info.nfcreader.host;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import info.nfcreader.host.virtual.VirtualPcsc;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for coalescing card events of several readers into one message.
+ */
+class EventCoalescerTest {
+
+    private final List<EventBus.Event> sent = Collections.synchronizedList(new ArrayList<>());
+
+    private static EventBus.Event card(int reader) {
+        return new EventBus.Event("card-detected", "Reader " + reader, null,
+            "{\"event\":\"card-detected\",\"readerIndex\":" + reader + "}", false);
+    }
+
+    private static EventBus.Event ndef(int reader) {
+        return new EventBus.Event("ndef", "Reader " + reader, null, "{\"event\":\"ndef\",\"readerIndex\":" + reader + "}", false);
+    }
+
+    private void awaitSent(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (sent.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, sent.size());
+    }
+
+    @Test
+    void testNoWindow_PassesThrough() {
+        EventCoalescer coalescer = new EventCoalescer(sent::add, () -> 0, () -> 3);
+        coalescer.onEvent(card(0));
+        coalescer.onEvent(card(1));
+        assertEquals(2, sent.size());
+    }
+
+    @Test
+    void testBurst_OneBatchInTapOrderThenHeldEvents() throws Exception {
+        EventCoalescer coalescer = new EventCoalescer(sent::add, () -> 10_000, () -> 2);
+        coalescer.onEvent(card(1));
+        coalescer.onEvent(ndef(1));
+        assertTrue(sent.isEmpty());
+        // Status events are never held
+        coalescer.onEvent(new EventBus.Event("error", null, null, "{}", true));
+        assertEquals(1, sent.size());
+
+        // Every listened reader has a card: sent without waiting for the window
+        coalescer.onEvent(card(0));
+        assertEquals(3, sent.size());
+        JsonObject batch = Json.GSON.fromJson(sent.get(1).getJson(), JsonObject.class);
+        assertEquals("cards-detected", batch.get("event").getAsString());
+        JsonArray cards = batch.getAsJsonArray("cards");
+        assertEquals(2, cards.size());
+        assertEquals(1, cards.get(0).getAsJsonObject().get("readerIndex").getAsInt());
+        assertEquals(0, cards.get(1).getAsJsonObject().get("readerIndex").getAsInt());
+        assertEquals("ndef", sent.get(2).getName());
+    }
+
+    @Test
+    void testWindowEnds_LoneCardSentAsItself() throws Exception {
+        EventCoalescer coalescer = new EventCoalescer(sent::add, () -> 20, () -> 2);
+        coalescer.onEvent(card(0));
+        assertTrue(sent.isEmpty());
+        awaitSent(1);
+        assertEquals("card-detected", sent.get(0).getName());
+
+        // The next card opens a new window
+        coalescer.onEvent(card(1));
+        coalescer.onEvent(card(0));
+        assertEquals(2, sent.size());
+        assertEquals("cards-detected", sent.get(1).getName());
+    }
+
+    @Test
+    void testSameReaderTwice_WaitsForOtherReaders() throws Exception {
+        EventCoalescer coalescer = new EventCoalescer(sent::add, () -> 10_000, () -> 2);
+        coalescer.onEvent(card(0));
+        coalescer.onEvent(card(0));
+        // Two cards, but only one of the two readers seen
+        assertTrue(sent.isEmpty());
+
+        coalescer.onEvent(card(1));
+        assertEquals(1, sent.size());
+        JsonArray cards = Json.GSON.fromJson(sent.get(0).getJson(), JsonObject.class).getAsJsonArray("cards");
+        assertEquals(3, cards.size());
+    }
+
+    @Test
+    void testCommandHandler_SimultaneousTapsOneMessage() throws Exception {
+        VirtualPcsc pcsc = new VirtualPcsc(2);
+        CommandHandler handler = new CommandHandler(new ReaderManager(pcsc.terminalFactory()));
+        CapturedMessages captured = new CapturedMessages();
+        NativeMessagingHost.setOutputStream(captured);
+        try {
+            JsonObject start = Json.GSON.fromJson(handler.handleCommand(
+                "{\"action\":\"start-listening\",\"readers\":[0,1],\"coalesceWindowMs\":500}"), JsonObject.class);
+            assertTrue(start.get("success").getAsBoolean());
+            assertEquals(500, Json.GSON.fromJson(handler.handleGetStatus(), JsonObject.class)
+                .get("coalesceWindowMs").getAsLong());
+
+            pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x11, 0x22, 0x33 });
+            pcsc.getReader(1).insertCard(new byte[] { 0x04, 0x44, 0x55, 0x66 });
+
+            JsonObject batch = captured.awaitEvent("cards-detected", 2000);
+            assertNotNull(batch);
+            assertEquals(2, batch.getAsJsonArray("cards").size());
+            assertNull(captured.awaitEvent("card-detected", 100));
+
+            JsonObject negative = Json.GSON.fromJson(handler.handleCommand(
+                "{\"action\":\"start-listening\",\"readers\":[0,1],\"coalesceWindowMs\":-1}"), JsonObject.class);
+            assertFalse(negative.get("success").getAsBoolean());
+        } finally {
+            handler.cleanup();
+            NativeMessagingHost.setOutputStream(System.out);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package info.nfcreader.host;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Pipe;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.gson.JsonObject;
+import info.nfcreader.host.virtual.VirtualPcsc;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+/**
+ * Tests for the shared host daemon and the forwarder in front of it.
+ */
+class HostDaemonTest {
+
+    private static final byte[] UID = { 0x04, 0x11, 0x22, 0x33 };
+
+    @TempDir
+    Path dir;
+
+    private VirtualPcsc pcsc;
+    private CommandHandler handler;
+    private HostDaemon daemon;
+    private Path socket;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        assumeTrue(HostDaemon.isSupported(), "Unix domain sockets need Java 16+");
+        pcsc = new VirtualPcsc(2);
+        handler = new CommandHandler(new ReaderManager(pcsc.terminalFactory()));
+        socket = dir.resolve("daemon.sock");
+        daemon = new HostDaemon(handler, socket, 60_000);
+        assertTrue(daemon.start());
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (daemon != null) {
+            daemon.stop();
+        }
+        NativeMessagingHost.setOutputStream(System.out);
+    }
+
+    private static byte[] frame(String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(4 + body.length).order(ByteOrder.nativeOrder())
+            .putInt(body.length).put(body).array();
+    }
+
+    /**
+     * A daemon client collecting everything it receives.
+     */
+    private class Client {
+        final SocketChannel channel = HostDaemon.connect(socket);
+        final CapturedMessages received = new CapturedMessages();
+
+        Client() throws IOException {
+            Thread reader = new Thread(() -> {
+                ByteBuffer buffer = ByteBuffer.allocate(4096);
+                try {
+                    int read;
+                    while ((read = channel.read(buffer)) != -1) {
+                        received.write(buffer.array(), 0, read);
+                        buffer.clear();
+                    }
+                } catch (IOException e) {
+                    // Closed by the test
+                }
+            });
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(String json) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(frame(json));
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        JsonObject awaitResponse(String id) throws InterruptedException {
+            return received.await(message -> message.has("id") && message.get("id").getAsString().equals(id), 2000);
+        }
+    }
+
+    private void awaitClientCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (daemon.getClientCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, daemon.getClientCount());
+    }
+
+    @Test
+    void testClients_OwnResponsesAndListening() throws Exception {
+        Client first = new Client();
+        Client second = new Client();
+
+        first.send("{\"action\": \"get-version\", \"id\": \"a\"}");
+        second.send("{\"action\": \"get-version\", \"id\": \"b\"}");
+        assertEquals(Main.VERSION, first.awaitResponse("a").get("version").getAsString());
+        assertEquals(Main.VERSION, second.awaitResponse("b").get("version").getAsString());
+        assertNull(second.received.await(message -> message.has("id") && message.get("id").getAsString().equals("a"), 200));
+
+        first.send("{\"action\": \"start-listening\", \"readerIndex\": 0, \"id\": \"start\"}");
+        assertTrue(first.awaitResponse("start").get("success").getAsBoolean());
+        pcsc.getReader(0).insertCard(UID);
+
+        // Only the listening client receives the card
+        assertEquals("04112233", first.received.awaitEvent("card-detected", 2000).get("uid").getAsString());
+        assertNull(second.received.awaitEvent("card-detected", 200));
+        second.send("{\"action\": \"get-status\", \"id\": \"status\"}");
+        assertFalse(second.awaitResponse("status").get("listening").getAsBoolean());
+
+        second.send("{\"action\": \"start-listening\", \"readerIndex\": 0, \"id\": \"start\"}");
+        assertTrue(second.awaitResponse("start").get("success").getAsBoolean());
+        // One client stopping leaves the other one listening
+        first.send("{\"action\": \"stop-listening\", \"id\": \"stop\"}");
+        assertTrue(first.awaitResponse("stop").get("success").getAsBoolean());
+        pcsc.getReader(0).removeCard();
+        pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x55, 0x66, 0x77 });
+
+        assertEquals("04556677", second.received.awaitEvent("card-detected", 2000).get("uid").getAsString());
+        assertNull(first.received.awaitEvent("card-detected", 200));
+        second.send("{\"action\": \"get-status\", \"id\": \"status2\"}");
+        assertTrue(second.awaitResponse("status2").get("listening").getAsBoolean());
+    }
+
+    @Test
+    void testGetStatus_OnlyOwnReaders() throws Exception {
+        Client first = new Client();
+        Client second = new Client();
+        first.send("{\"action\": \"start-listening\", \"readerIndex\": 0, \"id\": \"start\"}");
+        assertTrue(first.awaitResponse("start").get("success").getAsBoolean());
+        second.send("{\"action\": \"start-listening\", \"readerIndex\": 1, \"id\": \"start\"}");
+        assertTrue(second.awaitResponse("start").get("success").getAsBoolean());
+
+        pcsc.getReader(0).insertCard(UID);
+        assertNotNull(first.received.awaitEvent("card-detected", 2000));
+
+        first.send("{\"action\": \"get-status\", \"id\": \"status\"}");
+        JsonObject own = first.awaitResponse("status");
+        assertTrue(own.get("cardPresent").getAsBoolean());
+        assertEquals("04112233", own.get("lastUid").getAsString());
+
+        // The card on the first client's reader is none of the second client's business
+        second.send("{\"action\": \"get-status\", \"id\": \"status\"}");
+        JsonObject other = second.awaitResponse("status");
+        assertTrue(other.get("listening").getAsBoolean());
+        assertFalse(other.get("cardPresent").getAsBoolean());
+        assertFalse(other.has("lastUid"));
+        assertFalse(other.has("lastEventTime"));
+    }
+
+    @Test
+    void testOtherClientStartsAndStops_CardNotReportedAgain() throws Exception {
+        Client first = new Client();
+        Client second = new Client();
+        first.send("{\"action\": \"start-listening\", \"readerIndex\": 0, \"id\": \"start\"}");
+        assertTrue(first.awaitResponse("start").get("success").getAsBoolean());
+        pcsc.getReader(0).insertCard(UID);
+        assertNotNull(first.received.awaitEvent("card-detected", 2000));
+        long connects = pcsc.getReader(0).getConnectCount();
+
+        // The card stays on the first client's reader while the second one comes and goes
+        second.send("{\"action\": \"start-listening\", \"readerIndex\": 1, \"id\": \"start\"}");
+        assertTrue(second.awaitResponse("start").get("success").getAsBoolean());
+        second.send("{\"action\": \"stop-listening\", \"id\": \"stop\"}");
+        assertTrue(second.awaitResponse("stop").get("success").getAsBoolean());
+
+        assertNull(first.received.awaitEvent("card-detected", 300));
+        assertEquals(connects, pcsc.getReader(0).getConnectCount());
+        assertTrue(handler.isListening());
+
+        // The first client's listener still reads the next tap
+        pcsc.getReader(0).removeCard();
+        pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x55, 0x66, 0x77 });
+        assertEquals("04556677", first.received.awaitEvent("card-detected", 2000).get("uid").getAsString());
+    }
+
+    @Test
+    void testFailingReader_StopsOnlyThatReader() throws Exception {
+        Client first = new Client();
+        Client second = new Client();
+        first.send("{\"action\": \"start-listening\", \"readerIndex\": 0, \"id\": \"start\"}");
+        assertTrue(first.awaitResponse("start").get("success").getAsBoolean());
+        second.send("{\"action\": \"start-listening\", \"readerIndex\": 1, \"id\": \"start\"}");
+        assertTrue(second.awaitResponse("start").get("success").getAsBoolean());
+
+        for (int i = 0; i < CommandHandler.MAX_CONSECUTIVE_ERRORS; i++) {
+            long connects = pcsc.getReader(0).getConnectCount();
+            pcsc.getReader(0).failNext(0x6A82, 1);
+            pcsc.getReader(0).insertCard(UID);
+            long deadline = System.currentTimeMillis() + 2000;
+            while (pcsc.getReader(0).getConnectCount() == connects && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            pcsc.getReader(0).removeCard();
+        }
+
+        JsonObject error = first.received.awaitEvent("error", 2000);
+        assertEquals("Virtual Reader 0", error.get("readerName").getAsString());
+        assertEquals(0, error.get("readerIndex").getAsInt());
+        assertTrue(first.received.awaitEvent("error", 2000).get("error").getAsString()
+            .startsWith("Stopped listening on Virtual Reader 0"));
+        assertNull(second.received.awaitEvent("error", 200));
+
+        first.send("{\"action\": \"get-status\", \"id\": \"status\"}");
+        assertFalse(first.awaitResponse("status").get("listening").getAsBoolean());
+
+        // The other client's reader keeps listening
+        pcsc.getReader(1).insertCard(UID);
+        assertEquals("Virtual Reader 1", second.received.awaitEvent("card-detected", 2000)
+            .get("readerName").getAsString());
+        second.send("{\"action\": \"get-status\", \"id\": \"status\"}");
+        assertTrue(second.awaitResponse("status").get("listening").getAsBoolean());
+    }
+
+    @Test
+    void testLastClientDisconnects_StopsListening() throws Exception {
+        Client first = new Client();
+        Client second = new Client();
+        first.send("{\"action\": \"start-listening\", \"readerIndex\": 0, \"id\": \"start\"}");
+        assertTrue(first.awaitResponse("start").get("success").getAsBoolean());
+        second.send("{\"action\": \"start-listening\", \"readerIndex\": 0, \"id\": \"start\"}");
+        assertTrue(second.awaitResponse("start").get("success").getAsBoolean());
+
+        first.channel.close();
+        awaitClientCount(1);
+        assertTrue(handler.isListening());
+
+        second.channel.close();
+        awaitClientCount(0);
+        assertFalse(handler.isListening());
+    }
+
+    @Test
+    void testSharedDirectory_Refused() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path shared = Files.createDirectory(dir.resolve("shared"),
+            PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx---r-x")));
+        Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+        Path sharedSocket = shared.resolve("daemon.sock");
+
+        HostDaemon other = new HostDaemon(handler, sharedSocket, 60_000);
+        assertThrows(IOException.class, other::start);
+        assertThrows(IOException.class, () -> HostDaemon.connect(sharedSocket));
+        assertNull(DaemonForwarder.connectOrStart(sharedSocket));
+    }
+
+    @Test
+    void testSocket_OnlyOwnerCanAccess() throws Exception {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+        assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(dir)));
+    }
+
+    @Test
+    void testSecondDaemon_Refused() throws Exception {
+        HostDaemon other = new HostDaemon(handler, socket, 60_000);
+        assertFalse(other.start());
+
+        // The first daemon still serves
+        Client client = new Client();
+        client.send("{\"action\": \"get-version\", \"id\": \"v\"}");
+        assertNotNull(client.awaitResponse("v"));
+    }
+
+    @Test
+    void testIdleTimeout_StopsDaemon() throws Exception {
+        daemon.stop();
+        daemon = new HostDaemon(handler, socket, 100);
+        assertTrue(daemon.start());
+
+        Thread waiter = new Thread(() -> {
+            try {
+                daemon.awaitStop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiter.start();
+        waiter.join(2000);
+
+        assertFalse(waiter.isAlive());
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    void testForwarder_RelaysFramesUntilStdinCloses() throws Exception {
+        Pipe stdin = Pipe.open();
+        CapturedMessages stdout = new CapturedMessages();
+        SocketChannel channel = DaemonForwarder.connectOrStart(socket);
+        assertNotNull(channel);
+
+        Thread forwarder = new Thread(() -> {
+            try {
+                DaemonForwarder.forward(channel, stdin.source(), stdout);
+            } catch (IOException e) {
+                fail(e);
+            }
+        });
+        forwarder.start();
+
+        stdin.sink().write(ByteBuffer.wrap(frame("{\"action\": \"get-version\", \"id\": 1}")));
+        JsonObject response = stdout.await(message -> message.has("id"), 2000);
+        assertNotNull(response);
+        assertEquals(Main.VERSION, response.get("version").getAsString());
+
+        // Browser closed the port
+        stdin.sink().close();
+        forwarder.join(2000);
+        assertFalse(forwarder.isAlive());
+        awaitClientCount(0);
+    }
+
+    @Test
+    void testDaemonCommand_PassesSettings() {
+        String window = System.setProperty(CommandHandler.COALESCE_WINDOW_PROPERTY, "25");
+        try {
+            List<String> command = DaemonForwarder.daemonCommand(socket);
+            int main = command.indexOf(Main.class.getName());
+            int option = command.indexOf("-D" + CommandHandler.COALESCE_WINDOW_PROPERTY + "=25");
+            assertTrue(option > 0 && option < main);
+            assertEquals(Arrays.asList("daemon", socket.toString()), command.subList(main + 1, command.size()));
+        } finally {
+            restore(CommandHandler.COALESCE_WINDOW_PROPERTY, window);
+        }
+    }
+
+    @Test
+    void testDefaultSocketPath_DependsOnSettings() {
+        String window = System.clearProperty(CommandHandler.COALESCE_WINDOW_PROPERTY);
+        try {
+            Path plain = HostDaemon.defaultSocketPath();
+            System.setProperty(CommandHandler.COALESCE_WINDOW_PROPERTY, "25");
+            Path coalescing = HostDaemon.defaultSocketPath();
+
+            // A host with other settings does not forward to this daemon
+            assertNotEquals(plain, coalescing);
+            assertEquals(plain.getParent(), coalescing.getParent());
+            assertEquals(coalescing, HostDaemon.defaultSocketPath());
+        } finally {
+            restore(CommandHandler.COALESCE_WINDOW_PROPERTY, window);
+        }
+    }
+
+    @Test
+    void testRecordingTrace_ServesInProcess() {
+        String trace = System.setProperty(CommandTrace.RECORD_PROPERTY, dir.resolve("trace.txt").toString());
+        try {
+            assertFalse(DaemonForwarder.isEnabled());
+        } finally {
+            restore(CommandTrace.RECORD_PROPERTY, trace);
+        }
+    }
+
+    private static void restore(String key, String value) {
+        if (value == null) {
+            System.clearProperty(key);
+        } else {
+            System.setProperty(key, value);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package info.nfcreader.host;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the log-linear latency histogram.
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void testEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(99));
+        assertEquals(0, histogram.getMeanMicros());
+    }
+
+    @Test
+    void testBuckets_ContiguousAndWithinThreePercent() {
+        int previous = -1;
+        for (long value = 0; value < 1_000_000; value += 1 + value / 100) {
+            int index = LatencyHistogram.index(value);
+            assertTrue(index >= previous, "index must not decrease at " + value);
+            previous = index;
+
+            long highest = LatencyHistogram.highestValue(index);
+            assertTrue(highest >= value);
+            assertTrue(highest - value <= Math.max(1, value * 0.032), "bucket too wide at " + value);
+        }
+    }
+
+    @Test
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.recordMicros(i * 100);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(50_000, histogram.getPercentileMicros(50), 50_000 * 0.032);
+        assertEquals(99_000, histogram.getPercentileMicros(99), 99_000 * 0.032);
+        assertEquals(100_000, histogram.getPercentileMicros(100));
+        assertEquals(100_000, histogram.getMaxMicros());
+        assertEquals(50_050, histogram.getMeanMicros());
+    }
+
+    @Test
+    void testRecordNanos_ClampsNegativeAndHuge() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(-5);
+        histogram.recordNanos(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(50));
+        assertEquals((1L << 36) - 1, histogram.getMaxMicros());
+    }
+
+    @Test
+    void testConcurrentRecording() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) {
+                    histogram.recordMicros(i % 500);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40_000, histogram.getCount());
+        assertEquals(499, histogram.getMaxMicros());
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+}
@@ -0,0 +1,85 @@
+package info.nfcreader.host;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the load generator and the command traces it replays.
+ */
+class LoadGeneratorTest {
+
+    @TempDir
+    Path dir;
+
+    private final ByteArrayOutputStream report = new ByteArrayOutputStream();
+
+    @AfterEach
+    void tearDown() {
+        System.clearProperty(CommandTrace.RECORD_PROPERTY);
+        NativeMessagingHost.setOutputStream(System.out);
+    }
+
+    @Test
+    void testRamp_Schedule() {
+        LoadGenerator.Load load = LoadGenerator.Load.ramp(100, 300, 2);
+        assertEquals(400, load.size());
+        // 100/s rising to 300/s: a quarter of the commands in the first half
+        assertEquals(150, load.dueBefore(1_000_000_000L), 1);
+        assertEquals(400, load.dueBefore(3_000_000_000L));
+    }
+
+    @Test
+    void testRun_AnswersEveryCommandAndSeesEveryTap() throws Exception {
+        LoadGenerator generator = new LoadGenerator(2, 20, new PrintStream(report, true, "UTF-8"));
+        LoadGenerator.Result result = generator.run(LoadGenerator.Load.ramp(200, 400, 1));
+
+        assertEquals(300, result.sent);
+        assertEquals(300, result.responses);
+        assertTrue(result.taps > 0);
+        assertEquals(result.taps, result.events);
+        assertEquals(0, result.missedTaps);
+        assertTrue(report.toString("UTF-8").contains("Tap-to-event latency"));
+    }
+
+    @Test
+    void testTrace_RecordedByHostAndReplayed() throws Exception {
+        Path trace = dir.resolve("commands.trace");
+        System.setProperty(CommandTrace.RECORD_PROPERTY, trace.toString());
+
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        for (String command : new String[] { "{\"action\":\"get-version\",\"id\":\"a\"}", "{\"action\":\"list-readers\"}",
+                "{}" }) {
+            byte[] body = command.getBytes(StandardCharsets.UTF_8);
+            input.write(ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(body.length).array());
+            input.write(body);
+        }
+        NativeMessagingHost.setOutputStream(new CapturedMessages());
+        CommandHandler handler = new CommandHandler(new ReaderManager(new VirtualPcsc(1).terminalFactory()));
+        MessageCodec codec = new MessageCodec(Channels.newChannel(new ByteArrayInputStream(input.toByteArray())), null);
+        new NativeMessagingHost(handler, codec).run();
+
+        List<CommandTrace.Entry> entries = CommandTrace.read(trace);
+        assertEquals(3, entries.size());
+        assertEquals("get-version", entries.get(0).getCommand().get("action").getAsString());
+        assertEquals("list-readers", entries.get(1).getCommand().get("action").getAsString());
+
+        // Ids of the recording are replaced, an empty command still gets one
+        LoadGenerator generator = new LoadGenerator(1, 0, new PrintStream(report, true, "UTF-8"));
+        LoadGenerator.Result result = generator.run(LoadGenerator.Load.replay(entries, 10));
+        assertEquals(3, result.sent);
+        assertEquals(3, result.responses);
+    }
+}
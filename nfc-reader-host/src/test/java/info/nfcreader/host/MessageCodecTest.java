@@ -0,0 +1,156 @@
+package info.nfcreader.host;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the native messaging framing codec.
+ */
+class MessageCodecTest {
+    
+    private static byte[] frame(String... messages) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        for (String message : messages) {
+            byte[] body = message.getBytes(StandardCharsets.UTF_8);
+            baos.write(ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(body.length).array(), 0, 4);
+            baos.write(body, 0, body.length);
+        }
+        return baos.toByteArray();
+    }
+    
+    private static MessageCodec reader(byte[] bytes) {
+        return new MessageCodec(Channels.newChannel(new ByteArrayInputStream(bytes)), null);
+    }
+    
+    private static String unframe(byte[] bytes) {
+        int length = ByteBuffer.wrap(bytes, 0, 4).order(ByteOrder.nativeOrder()).getInt();
+        assertEquals(bytes.length - 4, length);
+        return new String(bytes, 4, length, StandardCharsets.UTF_8);
+    }
+    
+    @Test
+    void testReadMessage_Sequence() throws IOException {
+        MessageCodec codec = reader(frame("{\"action\":\"get-version\"}", "{\"action\":\"list-readers\"}"));
+        
+        assertEquals("get-version", codec.readMessage().get("action").getAsString());
+        assertEquals("list-readers", codec.readMessage().get("action").getAsString());
+        assertNull(codec.readMessage());
+    }
+    
+    @Test
+    void testReadMessage_GrowsForLargeMessages() throws IOException {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            padding.append('x');
+        }
+        MessageCodec codec = reader(frame("{\"pad\":\"" + padding + "\"}", "{\"action\":\"é\"}"));
+        
+        assertEquals(20000, codec.readMessage().get("pad").getAsString().length());
+        assertEquals("é", codec.readMessage().get("action").getAsString());
+    }
+    
+    @Test
+    void testReadMessage_InvalidLength() {
+        byte[] bytes = ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(-5).array();
+        
+        assertThrows(IOException.class, () -> reader(bytes).readMessage());
+    }
+    
+    @Test
+    void testReadMessage_TruncatedBody() {
+        byte[] bytes = frame("{\"action\":\"get-version\"}");
+        byte[] truncated = new byte[bytes.length - 3];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        
+        assertThrows(EOFException.class, () -> reader(truncated).readMessage());
+    }
+    
+    @Test
+    void testReadMessage_NotAnObjectKeepsStreamInSync() throws IOException {
+        MessageCodec codec = reader(frame("[1,2]", "{\"action\":\"get-status\"}"));
+        
+        assertThrows(JsonParseException.class, codec::readMessage);
+        assertEquals("get-status", codec.readMessage().get("action").getAsString());
+    }
+    
+    @Test
+    void testReadMessage_InvalidUtf8KeepsStreamInSync() throws IOException {
+        byte[] valid = frame("{\"action\":\"get-status\"}");
+        byte[] bytes = new byte[4 + 3 + valid.length];
+        ByteBuffer.wrap(bytes).order(ByteOrder.nativeOrder()).putInt(3).put(new byte[] { '"', (byte) 0xC3, '"' }).put(valid);
+        MessageCodec codec = reader(bytes);
+        
+        assertThrows(JsonParseException.class, codec::readMessage);
+        assertEquals("get-status", codec.readMessage().get("action").getAsString());
+    }
+    
+    @Test
+    void testWriteMessage_EncodesUtf8InOneFrame() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageCodec codec = new MessageCodec(null, out);
+        String message = "{\"reader\":\"Lecteur é – 📱\"}";
+        
+        codec.writeMessage(message);
+        
+        assertEquals(message, unframe(out.toByteArray()));
+    }
+    
+    @Test
+    void testWriteMessage_ReusesBufferAcrossSizes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageCodec codec = new MessageCodec(null, out);
+        StringBuilder large = new StringBuilder("\"");
+        for (int i = 0; i < 10000; i++) {
+            large.append('y');
+        }
+        large.append('"');
+        
+        codec.writeMessage(large);
+        out.reset();
+        codec.writeMessage("{}");
+        
+        assertEquals("{}", unframe(out.toByteArray()));
+    }
+    
+    @Test
+    void testWriteMessage_SerializesObjects() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageCodec codec = new MessageCodec(null, out);
+        Gson gson = new Gson();
+        
+        codec.writeMessage(Collections.singletonMap("success", true), gson);
+        
+        JsonObject decoded = gson.fromJson(unframe(out.toByteArray()), JsonObject.class);
+        assertTrue(decoded.get("success").getAsBoolean());
+    }
+    
+    @Test
+    void testAppendMessage_FramesShareOneFlush() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MessageCodec codec = new MessageCodec(null, out);
+        
+        codec.appendMessage("{\"n\":1}");
+        codec.appendMessage("{\"n\":2}");
+        assertEquals(0, out.size());
+        
+        codec.flush();
+        assertEquals(0, codec.pendingBytes());
+        MessageCodec decoded = reader(out.toByteArray());
+        assertEquals(1, decoded.readMessage().get("n").getAsInt());
+        assertEquals(2, decoded.readMessage().get("n").getAsInt());
+        assertNull(decoded.readMessage());
+    }
+}
@@ -0,0 +1,167 @@
+package info.nfcreader.host;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the outbound writer thread.
+ */
+class MessageWriterTest {
+
+    private MessageWriter writer;
+
+    @AfterEach
+    void tearDown() {
+        if (writer != null) {
+            writer.close(1000);
+        }
+    }
+
+    /**
+     * Stream that blocks every write until released, like a browser that stopped reading.
+     */
+    private static class StalledStream extends OutputStream {
+        final CapturedMessages captured = new CapturedMessages();
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch firstWrite = new CountDownLatch(1);
+        final AtomicInteger writes = new AtomicInteger();
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            firstWrite.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            writes.incrementAndGet();
+            captured.write(b, off, len);
+        }
+    }
+
+    private static String status(int n) {
+        return "{\"event\":\"status\",\"n\":" + n + "}";
+    }
+
+    /**
+     * Stalls the writer on a first message so the following ones pile up in the queue.
+     */
+    private StalledStream startStalled(int capacity, MessageWriter.Overflow overflow) throws InterruptedException {
+        StalledStream stream = new StalledStream();
+        writer = new MessageWriter(new MessageCodec(null, stream), capacity, overflow);
+        writer.start();
+        writer.send("{\"response\":\"first\"}");
+        assertTrue(stream.firstWrite.await(1, TimeUnit.SECONDS));
+        return stream;
+    }
+
+    @Test
+    void testSend_DeliversInOrder() throws Exception {
+        CapturedMessages captured = new CapturedMessages();
+        writer = new MessageWriter(new MessageCodec(null, captured), 16, MessageWriter.Overflow.DROP_OLDEST);
+        writer.start();
+
+        for (int i = 0; i < 100; i++) {
+            writer.send("{\"n\":" + i + "}");
+        }
+        assertTrue(writer.awaitDrained(1000));
+
+        for (int i = 0; i < 100; i++) {
+            JsonObject message = captured.await(m -> true, 1000);
+            assertEquals(i, message.get("n").getAsInt());
+        }
+    }
+
+    @Test
+    void testQueuedMessages_CoalescedIntoOneWrite() throws Exception {
+        StalledStream stream = startStalled(16, MessageWriter.Overflow.DROP_OLDEST);
+        for (int i = 0; i < 10; i++) {
+            writer.send("{\"n\":" + i + "}");
+        }
+
+        stream.release.countDown();
+        assertTrue(writer.awaitDrained(1000));
+
+        // The stalled first message, then everything that queued up behind it
+        assertEquals(2, stream.writes.get());
+        for (int i = 0; i < 10; i++) {
+            assertNotNull(stream.captured.await(m -> m.has("n"), 1000));
+        }
+    }
+
+    @Test
+    void testOverflow_DropOldestKeepsNewestStatus() throws Exception {
+        StalledStream stream = startStalled(3, MessageWriter.Overflow.DROP_OLDEST);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.sendStatus(status(i)));
+        }
+        assertEquals(2, writer.getDroppedCount());
+
+        stream.release.countDown();
+        assertTrue(writer.awaitDrained(1000));
+        for (int i = 2; i < 5; i++) {
+            assertEquals(i, stream.captured.await(m -> m.has("n"), 1000).get("n").getAsInt());
+        }
+        assertNull(stream.captured.await(m -> m.has("n"), 100));
+    }
+
+    @Test
+    void testOverflow_DropNewestRejectsIncomingStatus() throws Exception {
+        StalledStream stream = startStalled(3, MessageWriter.Overflow.DROP_NEWEST);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(writer.sendStatus(status(i)));
+        }
+        assertFalse(writer.sendStatus(status(3)));
+        assertEquals(1, writer.getDroppedCount());
+
+        stream.release.countDown();
+        assertTrue(writer.awaitDrained(1000));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, stream.captured.await(m -> m.has("n"), 1000).get("n").getAsInt());
+        }
+    }
+
+    @Test
+    void testOverflow_NeverDropsCardEvents() throws Exception {
+        StalledStream stream = startStalled(2, MessageWriter.Overflow.DROP_OLDEST);
+        for (int i = 0; i < 20; i++) {
+            writer.send("{\"event\":\"card-detected\",\"n\":" + i + "}");
+            writer.sendStatus(status(i));
+        }
+
+        stream.release.countDown();
+        assertTrue(writer.awaitDrained(1000));
+        for (int i = 0; i < 20; i++) {
+            assertNotNull(stream.captured.awaitEvent("card-detected", 1000));
+        }
+        assertEquals(18, writer.getDroppedCount());
+    }
+
+    @Test
+    void testProducers_DoNotBlockOnStalledOutput() throws Exception {
+        StalledStream stream = startStalled(8, MessageWriter.Overflow.DROP_OLDEST);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            writer.send("{\"n\":" + i + "}");
+        }
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 1000);
+        assertEquals(1001, writer.getQueuedCount());
+
+        stream.release.countDown();
+        assertTrue(writer.awaitDrained(2000));
+    }
+}
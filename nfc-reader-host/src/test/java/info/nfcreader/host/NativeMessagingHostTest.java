@@ -1,9 +1,12 @@
 package info.nfcreader.host;
 
+import com.google.gson.JsonObject;
+import info.nfcreader.host.virtual.VirtualPcsc;
 import org.junit.jupiter.api.Test;
 import java.io.*;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import static org.junit.jupiter.api.Assertions.*;
 
 /**
@@ -49,4 +52,30 @@ class NativeMessagingHostTest {
         // Length should match byte count
         assertEquals(15, messageBytes.length);
     }
+    
+    @Test
+    void testRun_AnswersCommandsUntilEof() throws Exception {
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        for (String command : new String[] { "{\"action\":\"get-version\"}", "not json", "{\"action\":\"list-readers\"}" }) {
+            byte[] body = command.getBytes("UTF-8");
+            input.write(ByteBuffer.allocate(4).order(ByteOrder.nativeOrder()).putInt(body.length).array());
+            input.write(body);
+        }
+        CapturedMessages captured = new CapturedMessages();
+        NativeMessagingHost.setOutputStream(captured);
+        try {
+            CommandHandler handler = new CommandHandler(new ReaderManager(new VirtualPcsc(1).terminalFactory()));
+            MessageCodec codec = new MessageCodec(Channels.newChannel(new ByteArrayInputStream(input.toByteArray())), null);
+            new NativeMessagingHost(handler, codec).run();
+            
+            JsonObject version = captured.await(m -> m.has("version"), 1000);
+            JsonObject error = captured.await(m -> m.has("error"), 1000);
+            JsonObject readers = captured.await(m -> m.has("readers"), 1000);
+            assertEquals(Main.VERSION, version.get("version").getAsString());
+            assertFalse(error.get("success").getAsBoolean());
+            assertEquals(1, readers.get("count").getAsInt());
+        } finally {
+            NativeMessagingHost.setOutputStream(System.out);
+        }
+    }
 }
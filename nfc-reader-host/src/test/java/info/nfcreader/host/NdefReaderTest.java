@@ -0,0 +1,143 @@
+package info.nfcreader.host;
+
+import java.io.ByteArrayOutputStream;
+
+import javax.smartcardio.CardException;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+import info.nfcreader.host.virtual.VirtualReader;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for reading NDEF messages from Type 2 tags.
+ */
+class NdefReaderTest {
+
+    private static final byte[] UID = { 0x04, 0x11, 0x22, 0x33, 0x44, 0x55, 0x66 };
+
+    // NTAG216 data area size
+    private static final int NTAG216_BYTES = 872;
+
+    private VirtualReader virtualReader;
+    private CardReader cardReader;
+
+    @BeforeEach
+    void setUp() throws CardException {
+        VirtualPcsc pcsc = new VirtualPcsc(1);
+        virtualReader = pcsc.getReader(0);
+        cardReader = new CardReader(new ReaderManager(pcsc.terminalFactory()), 0);
+    }
+
+    /**
+     * Builds the memory of a tag from page 0: UID pages, CC, then the data area.
+     */
+    static byte[] tagMemory(int dataAreaBytes, byte[] tlvs) {
+        byte[] memory = new byte[16 + dataAreaBytes];
+        memory[12] = (byte) 0xE1;
+        memory[13] = 0x10;
+        memory[14] = (byte) (dataAreaBytes / 8);
+        System.arraycopy(tlvs, 0, memory, 16, tlvs.length);
+        return memory;
+    }
+
+    static byte[] ndefTlv(byte[] message) {
+        ByteArrayOutputStream tlv = new ByteArrayOutputStream();
+        tlv.write(0x03);
+        if (message.length < 0xFF) {
+            tlv.write(message.length);
+        } else {
+            tlv.write(0xFF);
+            tlv.write(message.length >> 8);
+            tlv.write(message.length);
+        }
+        tlv.write(message, 0, message.length);
+        tlv.write(0xFE);
+        return tlv.toByteArray();
+    }
+
+    static byte[] message(int length) {
+        byte[] message = new byte[length];
+        for (int i = 0; i < length; i++) {
+            message[i] = (byte) (i * 7);
+        }
+        return message;
+    }
+
+    @Test
+    void testRead_LargeMessageInFewFastReads() throws CardException {
+        byte[] message = message(800);
+        virtualReader.insertTag(UID, tagMemory(NTAG216_BYTES, ndefTlv(message)));
+
+        NdefReader reader = new NdefReader(cardReader.getSession());
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        int length = reader.read((data, offset, total) -> {
+            assertEquals(received.size(), offset);
+            assertEquals(800, total);
+            received.write(data, 0, data.length);
+        });
+
+        assertEquals(800, length);
+        assertArrayEquals(message, received.toByteArray());
+        assertTrue(reader.usesFastRead());
+        // CC and first 48 bytes, then 60-page ranges up to the end of the message
+        assertEquals(5, reader.getExchangeCount());
+    }
+
+    @Test
+    void testRead_SkipsLockControlTlv() throws CardException {
+        byte[] message = message(20);
+        byte[] ndef = ndefTlv(message);
+        byte[] tlvs = new byte[5 + ndef.length];
+        tlvs[0] = 0x01;
+        tlvs[1] = 0x03;
+        System.arraycopy(ndef, 0, tlvs, 5, ndef.length);
+        virtualReader.insertTag(UID, tagMemory(144, tlvs));
+
+        NdefReader reader = new NdefReader(cardReader.getSession());
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        assertEquals(20, reader.read((data, offset, total) -> received.write(data, 0, data.length)));
+        assertArrayEquals(message, received.toByteArray());
+        assertEquals(1, reader.getExchangeCount());
+    }
+
+    @Test
+    void testRead_FallsBackToReadBinary() throws CardException {
+        byte[] message = message(300);
+        virtualReader.setFastReadSupported(false);
+        virtualReader.insertTag(UID, tagMemory(NTAG216_BYTES, ndefTlv(message)));
+
+        NdefReader reader = new NdefReader(cardReader.getSession());
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+
+        assertEquals(300, reader.read((data, offset, total) -> received.write(data, 0, data.length)));
+        assertArrayEquals(message, received.toByteArray());
+        assertFalse(reader.usesFastRead());
+    }
+
+    @Test
+    void testRead_EmptyMessage() throws CardException {
+        virtualReader.insertTag(UID, tagMemory(144, new byte[] { 0x03, 0x00, (byte) 0xFE }));
+
+        int[] chunks = new int[1];
+        int length = new NdefReader(cardReader.getSession()).read((data, offset, total) -> {
+            assertEquals(0, data.length);
+            chunks[0]++;
+        });
+
+        assertEquals(0, length);
+        assertEquals(1, chunks[0]);
+    }
+
+    @Test
+    void testRead_NoNdefMessage() throws CardException {
+        virtualReader.insertTag(UID, tagMemory(144, new byte[] { (byte) 0xFE }));
+        assertEquals(-1, cardReader.readNdef((data, offset, total) -> fail("no chunk expected")));
+
+        // A card without Type 2 pages
+        virtualReader.insertCard(UID);
+        assertEquals(-1, cardReader.readNdef((data, offset, total) -> fail("no chunk expected")));
+    }
+}
@@ -0,0 +1,165 @@
+package info.nfcreader.host;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the memory-mapped tap journal.
+ */
+class TapJournalTest {
+
+    private static final Uid FIRST = Uid.parse("04112233");
+    private static final Uid SECOND = Uid.parse("04A1B2C3D4E5F60718");
+
+    @TempDir
+    Path dir;
+
+    private static List<TapJournal.Record> scan(Path dir, long from, long to, Uid uid) throws IOException {
+        List<TapJournal.Record> records = new ArrayList<>();
+        TapJournal.scan(dir, from, to, uid, records::add);
+        return records;
+    }
+
+    private static long segmentCount(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(file -> file.toString().endsWith(".journal")).count();
+        }
+    }
+
+    @Test
+    void testAppend_RecordsReadBack() throws IOException {
+        TapJournal journal = new TapJournal(dir, 256, 4);
+        journal.append(1000, 0, FIRST, TapJournal.Outcome.READ);
+        journal.append(2000, 3, null, TapJournal.Outcome.FAILED);
+        journal.append(3000, 1, SECOND, TapJournal.Outcome.READ);
+
+        List<TapJournal.Record> records = scan(dir, Long.MIN_VALUE, Long.MAX_VALUE, null);
+        assertEquals(3, records.size());
+        assertEquals(1000, records.get(0).getTimestampMillis());
+        assertEquals(FIRST, records.get(0).getUid());
+        assertEquals(TapJournal.Outcome.READ, records.get(0).getOutcome());
+        assertNull(records.get(1).getUid());
+        assertEquals(3, records.get(1).getReaderIndex());
+        assertEquals(TapJournal.Outcome.FAILED, records.get(1).getOutcome());
+        assertEquals(SECOND, records.get(2).getUid());
+        journal.close();
+    }
+
+    @Test
+    void testScan_TimeRangeAndUidAcrossSegments() throws IOException {
+        TapJournal journal = new TapJournal(dir, 256, 16);
+        for (int i = 0; i < 2000; i++) {
+            journal.append(i * 10L, i % 2, i % 2 == 0 ? FIRST : SECOND, TapJournal.Outcome.READ);
+        }
+
+        List<TapJournal.Record> range = scan(dir, 5000, 5990, null);
+        assertEquals(100, range.size());
+        assertEquals(5000, range.get(0).getTimestampMillis());
+        assertEquals(5990, range.get(99).getTimestampMillis());
+
+        List<TapJournal.Record> second = scan(dir, Long.MIN_VALUE, Long.MAX_VALUE, SECOND);
+        assertEquals(1000, second.size());
+        for (TapJournal.Record record : second) {
+            assertEquals(1, record.getReaderIndex());
+        }
+
+        // The sparse index skips most of the journal
+        long read = TapJournal.scan(dir, 19000, 19990, null, record -> { });
+        assertTrue(read <= 100 + TapJournal.INDEX_INTERVAL, "Read " + read);
+        journal.close();
+    }
+
+    @Test
+    void testRotation_KeepsNewestSegments() throws IOException {
+        TapJournal journal = new TapJournal(dir, 256, 2);
+        for (int i = 0; i < 256 * 5; i++) {
+            journal.append(i, 0, FIRST, TapJournal.Outcome.READ);
+        }
+        journal.append(256 * 5, 0, SECOND, TapJournal.Outcome.READ);
+
+        assertEquals(2, segmentCount(dir));
+        List<TapJournal.Record> records = scan(dir, Long.MIN_VALUE, Long.MAX_VALUE, null);
+        assertEquals(257, records.size());
+        assertEquals(256 * 4, records.get(0).getTimestampMillis());
+        assertEquals(SECOND, records.get(256).getUid());
+        journal.close();
+    }
+
+    @Test
+    void testReopen_ContinuesAfterLastRecord() throws IOException {
+        TapJournal journal = new TapJournal(dir, 256, 4);
+        journal.append(1000, 0, FIRST, TapJournal.Outcome.READ);
+        journal.append(2000, 0, FIRST, TapJournal.Outcome.READ);
+        journal.close();
+
+        journal = new TapJournal(dir, 256, 4);
+        // A clock that stepped back does not break the time order
+        journal.append(1500, 0, SECOND, TapJournal.Outcome.READ);
+        journal.close();
+
+        List<TapJournal.Record> records = scan(dir, Long.MIN_VALUE, Long.MAX_VALUE, null);
+        assertEquals(3, records.size());
+        assertEquals(SECOND, records.get(2).getUid());
+        assertEquals(2000, records.get(2).getTimestampMillis());
+    }
+
+    @Test
+    void testSecondWriter_Refused() throws IOException {
+        TapJournal journal = new TapJournal(dir, 256, 4);
+        assertThrows(IOException.class, () -> new TapJournal(dir, 256, 4));
+        journal.close();
+    }
+
+    @Test
+    void testOpenConfigured_OffByDefault() {
+        String enabled = System.clearProperty(TapJournal.ENABLED_PROPERTY);
+        String directory = System.setProperty(TapJournal.DIRECTORY_PROPERTY, dir.toString());
+        try {
+            assertNull(TapJournal.openConfigured());
+            assertFalse(Files.exists(dir.resolve("journal.lock")));
+        } finally {
+            restore(TapJournal.ENABLED_PROPERTY, enabled);
+            restore(TapJournal.DIRECTORY_PROPERTY, directory);
+        }
+    }
+
+    private static void restore(String key, String value) {
+        if (value == null) {
+            System.clearProperty(key);
+        } else {
+            System.setProperty(key, value);
+        }
+    }
+
+    @Test
+    void testCommandHandler_JournalsTaps() throws Exception {
+        VirtualPcsc pcsc = new VirtualPcsc(1);
+        TapJournal journal = new TapJournal(dir, 256, 4);
+        CommandHandler handler = new CommandHandler(new ReaderManager(pcsc.terminalFactory()), journal);
+        CapturedMessages captured = new CapturedMessages();
+        NativeMessagingHost.setOutputStream(captured);
+        try {
+            handler.handleStartListening(0);
+            pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x11, 0x22, 0x33 });
+            assertNotNull(captured.awaitEvent("card-detected", 2000));
+
+            List<TapJournal.Record> records = scan(dir, Long.MIN_VALUE, Long.MAX_VALUE, null);
+            assertEquals(1, records.size());
+            assertEquals(FIRST, records.get(0).getUid());
+            assertEquals(0, records.get(0).getReaderIndex());
+        } finally {
+            handler.cleanup();
+            journal.close();
+            NativeMessagingHost.setOutputStream(System.out);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package info.nfcreader.host;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.gson.JsonObject;
+
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+
+import info.nfcreader.host.virtual.VirtualPcsc;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the cached reader list.
+ */
+class TerminalRegistryTest {
+
+    private VirtualPcsc pcsc;
+    private AtomicInteger listCalls;
+    private TerminalRegistry registry;
+
+    /**
+     * Terminal view that counts the list round trips.
+     */
+    private static class CountingTerminals extends CardTerminals {
+        private final CardTerminals delegate;
+        private final AtomicInteger calls;
+
+        CountingTerminals(CardTerminals delegate, AtomicInteger calls) {
+            this.delegate = delegate;
+            this.calls = calls;
+        }
+
+        @Override
+        public List<CardTerminal> list(State state) throws CardException {
+            calls.incrementAndGet();
+            return delegate.list(state);
+        }
+
+        @Override
+        public boolean waitForChange(long timeout) throws CardException {
+            return delegate.waitForChange(timeout);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        pcsc = new VirtualPcsc(2);
+        listCalls = new AtomicInteger();
+        registry = new TerminalRegistry(
+            new CountingTerminals(pcsc.terminalFactory().terminals(), listCalls),
+            () -> pcsc.terminalFactory().terminals());
+    }
+
+    /**
+     * Waits for the watcher to drop the cache and returns the fresh reader count.
+     */
+    private int awaitReaderCount(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 3000;
+        int count;
+        do {
+            Thread.sleep(20);
+            count = registry.snapshot().size();
+        } while (count != expected && System.currentTimeMillis() < deadline);
+        return count;
+    }
+
+    @Test
+    void testSnapshot_ServedFromCache() throws Exception {
+        registry.setWatched(true);
+        TerminalRegistry.Snapshot first = registry.snapshot();
+        for (int i = 0; i < 100; i++) {
+            assertSame(first, registry.snapshot());
+        }
+
+        assertEquals(1, listCalls.get());
+        assertArrayEquals(new String[] { "Virtual Reader 0", "Virtual Reader 1" }, first.getNames());
+        assertEquals(1, first.indexOf("Virtual Reader 1"));
+        assertEquals(-1, first.indexOf("Missing"));
+    }
+
+    @Test
+    void testReaderAdded_InvalidatesCache() throws Exception {
+        assertEquals(2, registry.snapshot().size());
+
+        pcsc.addReader("Front Desk");
+
+        assertEquals(3, awaitReaderCount(3));
+        assertEquals(2, registry.snapshot().indexOf("Front Desk"));
+    }
+
+    @Test
+    void testReaderDetached_InvalidatesCache() throws Exception {
+        assertEquals(2, registry.snapshot().size());
+
+        pcsc.getReader(0).detach();
+        assertEquals(1, awaitReaderCount(1));
+
+        pcsc.getReader(0).attach();
+        assertEquals(2, awaitReaderCount(2));
+    }
+
+    @Test
+    void testCardTap_KeepsCache() throws Exception {
+        registry.setWatched(true);
+        TerminalRegistry.Snapshot first = registry.snapshot();
+        // Let the watcher record its baseline
+        Thread.sleep(100);
+
+        pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x11, 0x22, 0x33 });
+        pcsc.getReader(0).removeCard();
+        Thread.sleep(200);
+
+        assertSame(first, registry.snapshot());
+    }
+
+    @Test
+    void testReaderDetached_ReportedToListener() throws Exception {
+        BlockingQueue<List<List<String>>> reports = new LinkedBlockingQueue<>();
+        registry = new TerminalRegistry(pcsc.terminalFactory().terminals(), () -> pcsc.terminalFactory().terminals(),
+            (readers, added, removed) -> reports.add(List.of(readers, added, removed)));
+        registry.setWatched(true);
+        registry.snapshot();
+        // Let the watcher record its baseline
+        Thread.sleep(100);
+
+        pcsc.getReader(1).detach();
+        List<List<String>> report = reports.poll(3, TimeUnit.SECONDS);
+        assertEquals(List.of("Virtual Reader 0"), report.get(0));
+        assertEquals(List.of(), report.get(1));
+        assertEquals(List.of("Virtual Reader 1"), report.get(2));
+
+        pcsc.getReader(1).attach();
+        report = reports.poll(3, TimeUnit.SECONDS);
+        assertEquals(List.of("Virtual Reader 0", "Virtual Reader 1"), report.get(0));
+        assertEquals(List.of("Virtual Reader 1"), report.get(1));
+        assertEquals(List.of(), report.get(2));
+
+        // Card taps are not reader changes
+        pcsc.getReader(0).insertCard(new byte[] { 0x04, 0x11, 0x22, 0x33 });
+        assertNull(reports.poll(200, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void testUnwatched_ListsEveryTimeAndStopsWatcher() throws Exception {
+        registry.snapshot();
+        registry.snapshot();
+        assertEquals(2, listCalls.get());
+        assertFalse(registry.isWatching());
+
+        registry.setWatched(true);
+        assertTrue(registry.isWatching());
+        registry.snapshot();
+        assertTrue(registry.isCached());
+
+        // The watcher leaves within a wait slice and takes the cache with it
+        registry.setWatched(false);
+        long deadline = System.currentTimeMillis() + 3000;
+        while (registry.isWatching() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertFalse(registry.isWatching());
+        assertFalse(registry.isCached());
+    }
+
+    @Test
+    void testInterruptedWatcher_StopsCaching() throws Exception {
+        BlockingQueue<Thread> watchers = new LinkedBlockingQueue<>();
+        registry = new TerminalRegistry(
+            new CountingTerminals(pcsc.terminalFactory().terminals(), listCalls),
+            () -> {
+                watchers.add(Thread.currentThread());
+                return pcsc.terminalFactory().terminals();
+            });
+        registry.setWatched(true);
+        registry.snapshot();
+        assertTrue(registry.isCached());
+
+        Thread watcher = watchers.poll(2, TimeUnit.SECONDS);
+        watcher.interrupt();
+        watcher.join(3000);
+        assertFalse(watcher.isAlive());
+        assertFalse(registry.isWatching());
+        assertFalse(registry.isCached());
+
+        // Unwatched lookups go to PC/SC again
+        int calls = listCalls.get();
+        registry.snapshot();
+        registry.snapshot();
+        assertEquals(calls + 2, listCalls.get());
+    }
+
+    @Test
+    void testCommandHandler_PublishesReadersChanged() throws Exception {
+        CommandHandler handler = new CommandHandler(new ReaderManager(pcsc.terminalFactory()));
+        CapturedMessages captured = new CapturedMessages();
+        NativeMessagingHost.setOutputStream(captured);
+        try {
+            handler.handleCommand("{\"action\":\"list-readers\"}");
+            Thread.sleep(100);
+
+            // Nobody watches the readers yet
+            pcsc.addReader("Side Door");
+            assertNull(captured.awaitEvent("readers-changed", 1500));
+
+            JsonObject watching = Json.GSON.fromJson(handler.handleCommand("{\"action\":\"watch-readers\"}"),
+                JsonObject.class);
+            assertTrue(watching.get("watchingReaders").getAsBoolean());
+            Thread.sleep(100);
+
+            pcsc.addReader("Front Desk");
+
+            JsonObject event = captured.awaitEvent("readers-changed", 3000);
+            assertNotNull(event);
+            assertEquals(4, event.get("count").getAsInt());
+            assertEquals("Front Desk", event.getAsJsonArray("added").get(0).getAsString());
+            assertEquals(0, event.getAsJsonArray("removed").size());
+        } finally {
+            handler.cleanup();
+            NativeMessagingHost.setOutputStream(System.out);
+        }
+    }
+
+    @Test
+    void testReaderManager_LookupsShareOneListing() throws Exception {
+        ReaderManager readerManager = new ReaderManager(pcsc.terminalFactory());
+
+        String[] names = readerManager.listReaders();
+        assertEquals(names[1], readerManager.getReader(1).getName());
+        assertEquals(names[0], readerManager.getReaderByName(names[0]).getName());
+        assertNull(readerManager.getReaderByName("Missing"));
+        assertThrows(IllegalArgumentException.class, () -> readerManager.getReader(5));
+    }
+}
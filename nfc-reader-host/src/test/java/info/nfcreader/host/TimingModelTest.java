@@ -0,0 +1,84 @@
+package info.nfcreader.host;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the adaptive per-reader timing model.
+ */
+class TimingModelTest {
+
+    @Test
+    void testInitialDelays_MatchHistoricalDefaults() {
+        TimingModel timing = new TimingModel(0);
+
+        assertEquals(50, timing.settleDelayMs());
+        assertEquals(20, timing.retryDelayMs(1));
+        assertEquals(-1, timing.getP95LatencyMs());
+    }
+
+    @Test
+    void testSettle_ShrinksWhileFirstReadsSucceed() {
+        TimingModel timing = new TimingModel(0);
+        for (int i = 0; i < 20; i++) {
+            timing.recordSuccess(1, 0, timing.settleDelayMs() + 3);
+        }
+
+        assertTrue(timing.settleDelayMs() < 10, "settle: " + timing.settleDelayMs());
+    }
+
+    @Test
+    void testSettle_GrowsTowardsObservedReadiness() {
+        TimingModel timing = new TimingModel(0);
+        for (int i = 0; i < 20; i++) {
+            timing.recordSuccess(1, 0, 5);
+        }
+        long learned = timing.settleDelayMs();
+
+        // A slow reader: the card needed 6300 retries and was ready after 45 ms
+        for (int i = 0; i < 5; i++) {
+            timing.recordSuccess(3, 10, 45);
+        }
+
+        assertTrue(timing.settleDelayMs() > learned);
+        assertTrue(timing.settleDelayMs() <= 45);
+        assertTrue(timing.getRecoveryMs() < TimingModel.INITIAL_RECOVERY_MS);
+    }
+
+    @Test
+    void testRetryDelay_DoublesAndIsCapped() {
+        TimingModel timing = new TimingModel(0);
+
+        assertEquals(2 * timing.retryDelayMs(1), timing.retryDelayMs(2));
+        assertEquals(TimingModel.MAX_RETRY_MS, timing.retryDelayMs(10));
+    }
+
+    @Test
+    void testShouldRetry_BoundedByAttemptsAndBudget() {
+        TimingModel timing = new TimingModel(0);
+        assertTrue(timing.shouldRetry(1, 60));
+        assertFalse(timing.shouldRetry(TimingModel.MAX_ATTEMPTS, 60));
+        assertFalse(timing.shouldRetry(1, 1000));
+
+        TimingModel targeted = new TimingModel(60);
+        assertFalse(targeted.shouldRetry(1, 235));
+    }
+
+    @Test
+    void testLatencyTarget_CapsSettle() {
+        TimingModel timing = new TimingModel(30);
+
+        assertEquals(10, timing.settleDelayMs());
+    }
+
+    @Test
+    void testP95_FromRecentReads() {
+        TimingModel timing = new TimingModel(0);
+        for (int i = 1; i <= 100; i++) {
+            timing.recordSuccess(1, 0, i);
+        }
+
+        // Last 64 samples are 37..100
+        assertEquals(97, timing.getP95LatencyMs());
+    }
+}
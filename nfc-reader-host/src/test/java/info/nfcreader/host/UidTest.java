@@ -0,0 +1,91 @@
+package info.nfcreader.host;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the packed UID value type and its output formats.
+ */
+class UidTest {
+
+    private static final byte[] DOUBLE = { 0x04, (byte) 0xA1, (byte) 0xB2, (byte) 0xC3, (byte) 0xD4, (byte) 0xE5, (byte) 0xF6 };
+
+    @Test
+    void testOf_RoundTripsAllLengths() {
+        for (int length = 1; length <= Uid.MAX_LENGTH; length++) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++) {
+                bytes[i] = (byte) (0xF0 - i * 0x11);
+            }
+
+            Uid uid = Uid.of(bytes);
+
+            assertEquals(length, uid.length());
+            assertArrayEquals(bytes, uid.getBytes());
+            assertEquals(uid, Uid.parse(uid.toHex()));
+        }
+    }
+
+    @Test
+    void testOf_RejectsBadLengths() {
+        assertThrows(IllegalArgumentException.class, () -> Uid.of(new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> Uid.of(new byte[11]));
+    }
+
+    @Test
+    void testHexFormats() {
+        Uid uid = Uid.of(DOUBLE);
+
+        assertEquals("04A1B2C3D4E5F6", uid.toHex());
+        assertEquals("04 A1 B2 C3 D4 E5 F6", uid.toHex(' '));
+        assertEquals("04:A1:B2:C3:D4:E5:F6", uid.toHex(':'));
+        assertEquals("F6E5D4C3B2A104", uid.toReversedHex());
+    }
+
+    @Test
+    void testToDecimal() {
+        assertEquals("78754499", Uid.parse("04 B1 B2 C3").toDecimal());
+        assertEquals("18446744073709551615", Uid.parse("FFFFFFFFFFFFFFFF").toDecimal());
+        assertEquals("1208925819614629174706175", Uid.parse("FFFFFFFFFFFFFFFFFFFF").toDecimal());
+    }
+
+    @Test
+    void testEquality_IgnoresTrailingZeroPadding() {
+        assertEquals(Uid.parse("04A1B2C3"), Uid.parse("04:a1:b2:c3"));
+        assertNotEquals(Uid.parse("04A1B2C3"), Uid.parse("04A1B2C300"));
+        assertEquals(Uid.parse("04A1B2C3").hashCode(), Uid.parse("04a1b2c3").hashCode());
+    }
+
+    @Test
+    void testUidClass() {
+        assertEquals(UidClass.SINGLE, Uid.parse("04A1B2C3").getUidClass());
+        assertEquals(UidClass.DOUBLE, Uid.of(DOUBLE).getUidClass());
+        assertEquals(UidClass.TRIPLE, Uid.parse("04A1B2C3D4E5F6071819").getUidClass());
+        assertEquals(UidClass.UNKNOWN, Uid.parse("04A1").getUidClass());
+        assertEquals("Double size UID (7 bytes)", Uid.of(DOUBLE).getTypeDescription());
+        assertEquals("Unknown UID type (2 bytes)", Uid.parse("04A1").getTypeDescription());
+    }
+
+    @Test
+    void testFormats_AllConfiguredByDefault() {
+        Map<String, String> formats = Uid.parse("04A1B2C3").formats();
+
+        assertEquals("04A1B2C3", formats.get("plain"));
+        assertEquals("04 A1 B2 C3", formats.get("spaced"));
+        assertEquals("04:A1:B2:C3", formats.get("colon"));
+        assertEquals("04-A1-B2-C3", formats.get("dash"));
+        assertEquals("C3B2A104", formats.get("reversed"));
+        assertEquals("77705923", formats.get("decimal"));
+    }
+
+    @Test
+    void testFormatParseList() {
+        assertEquals(
+            Arrays.asList(Uid.Format.COLON, Uid.Format.DECIMAL),
+            Uid.Format.parseList(" colon, decimal,colon"));
+        assertThrows(IllegalArgumentException.class, () -> Uid.Format.parseList("hex"));
+    }
+}
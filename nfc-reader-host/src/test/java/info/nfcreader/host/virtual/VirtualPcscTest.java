@@ -0,0 +1,122 @@
+package info.nfcreader.host.virtual;
+
+import javax.smartcardio.Card;
+import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CardTerminals;
+import javax.smartcardio.CommandAPDU;
+import javax.smartcardio.ResponseAPDU;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests for the virtual PC/SC terminal provider.
+ */
+class VirtualPcscTest {
+    
+    private static final CommandAPDU GET_UID = new CommandAPDU(new byte[] {
+        (byte) 0xFF, (byte) 0xCA, 0x00, 0x00, 0x00
+    });
+    
+    @Test
+    void testTerminalsListed() throws CardException {
+        VirtualPcsc pcsc = new VirtualPcsc(3);
+        CardTerminals terminals = pcsc.terminalFactory().terminals();
+        
+        assertEquals(3, terminals.list().size());
+        assertEquals("Virtual Reader 2", terminals.list().get(2).getName());
+    }
+    
+    @Test
+    void testWaitForChange_ReportsInsertionAndRemoval() throws CardException {
+        VirtualPcsc pcsc = new VirtualPcsc(2);
+        CardTerminals terminals = pcsc.terminalFactory().terminals();
+        assertFalse(terminals.waitForChange(10));
+        
+        pcsc.getReader(1).insertCard(new byte[] { 1, 2, 3, 4 });
+        assertTrue(terminals.waitForChange(10));
+        assertEquals(1, terminals.list(CardTerminals.State.CARD_INSERTION).size());
+        assertEquals("Virtual Reader 1", terminals.list(CardTerminals.State.CARD_INSERTION).get(0).getName());
+        assertTrue(terminals.list(CardTerminals.State.CARD_REMOVAL).isEmpty());
+        
+        pcsc.getReader(1).removeCard();
+        assertTrue(terminals.waitForChange(10));
+        assertEquals(1, terminals.list(CardTerminals.State.CARD_REMOVAL).size());
+        assertTrue(terminals.list(CardTerminals.State.CARD_INSERTION).isEmpty());
+    }
+    
+    @Test
+    void testTransmit_ReturnsUidAndScriptedFaults() throws CardException {
+        VirtualPcsc pcsc = new VirtualPcsc(1);
+        VirtualReader reader = pcsc.getReader(0);
+        reader.insertCard(new byte[] { 0x04, 0x05, 0x06, 0x07 });
+        reader.failNext(0x6300, 1);
+        
+        CardTerminal terminal = pcsc.terminalFactory().terminals().list().get(0);
+        Card card = terminal.connect("*");
+        
+        ResponseAPDU first = card.getBasicChannel().transmit(GET_UID);
+        assertEquals(0x6300, first.getSW());
+        
+        ResponseAPDU second = card.getBasicChannel().transmit(GET_UID);
+        assertEquals(0x9000, second.getSW());
+        assertArrayEquals(new byte[] { 0x04, 0x05, 0x06, 0x07 }, second.getData());
+    }
+    
+    @Test
+    void testTransmit_FailsAfterCardRemoved() throws CardException {
+        VirtualPcsc pcsc = new VirtualPcsc(1);
+        pcsc.getReader(0).insertCard(new byte[] { 1, 2, 3, 4 });
+        Card card = pcsc.terminalFactory().terminals().list().get(0).connect("*");
+        
+        pcsc.getReader(0).removeCard();
+        
+        assertThrows(CardException.class, () -> card.getBasicChannel().transmit(GET_UID));
+    }
+    
+    @Test
+    void testDetach_RemovesTerminal() throws CardException {
+        VirtualPcsc pcsc = new VirtualPcsc(2);
+        CardTerminals terminals = pcsc.terminalFactory().terminals();
+        CardTerminal terminal = terminals.list().get(1);
+        
+        pcsc.getReader(1).detach();
+        
+        assertEquals(1, terminals.list().size());
+        assertThrows(CardException.class, terminal::isCardPresent);
+    }
+    
+    @Test
+    void testTapScript_Playback() throws Exception {
+        TapScript script = TapScript.parse(
+            "# two readers\n" +
+            "readers 1\n" +
+            "reader Front Desk\n" +
+            "at 0 tap 1 04:A1:B2:C3 hold 20\n" +
+            "at 0 delay 0 5\n");
+        assertEquals(2, script.getReaderCount());
+        
+        VirtualPcsc pcsc = script.createPcsc();
+        assertEquals("Front Desk", pcsc.getReader(1).getName());
+        
+        CardTerminals terminals = pcsc.terminalFactory().terminals();
+        terminals.waitForChange(1);
+        script.play(pcsc);
+        
+        assertTrue(terminals.waitForChange(1000));
+        assertEquals("Front Desk", terminals.list(CardTerminals.State.CARD_INSERTION).get(0).getName());
+    }
+    
+    @Test
+    void testTapScript_RejectsUnknownDirective() {
+        assertThrows(IllegalArgumentException.class, () -> TapScript.parse("wobble 3"));
+    }
+    
+    @Test
+    void testTapScript_RejectsUndeclaredReader() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+            () -> TapScript.parse("readers 2\nat 0 tap 1 04A1B2C3\nat 10 tap 2 04A1B2C3\n"));
+        assertTrue(e.getMessage().startsWith("Line 3: "), e.getMessage());
+    }
+}